@@ -0,0 +1,71 @@
+package org.six11.slippy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the interpreter on arithmetic and comparison loops in the style of
+ * test/arithmetic.slippy. The Slippy functions come from bench/slippy/arithmetic.slippy (or the
+ * file named by the slippy.bench.program system property); each benchmark calls one of them once
+ * with an already-compiled call expression, so parsing is not part of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArithmeticBench {
+
+  public static final String PROGRAM_PROPERTY = "slippy.bench.program";
+  public static final String DEFAULT_PROGRAM = "bench/slippy/arithmetic.slippy";
+
+  @Param( { "1000", "10000" })
+  public int iterations;
+
+  private SlippyInterpreter interp;
+  private Node literals;
+  private Node locals;
+  private Node counting;
+  private Node fib;
+
+  @Setup
+  public void setup() throws Exception {
+    interp = BenchPrograms.load(PROGRAM_PROPERTY, DEFAULT_PROGRAM);
+    literals = BenchPrograms.compileCall(interp, "literals(" + iterations + ")");
+    locals = BenchPrograms.compileCall(interp, "locals(" + iterations + ")");
+    counting = BenchPrograms.compileCall(interp, "counting(" + iterations + ")");
+    fib = BenchPrograms.compileCall(interp, "fib(15)");
+  }
+
+  @Benchmark
+  public Thing literals() {
+    return interp.eval(literals);
+  }
+
+  @Benchmark
+  public Thing locals() {
+    return interp.eval(locals);
+  }
+
+  @Benchmark
+  public Thing counting() {
+    return interp.eval(counting);
+  }
+
+  @Benchmark
+  public Thing fib() {
+    return interp.eval(fib);
+  }
+}
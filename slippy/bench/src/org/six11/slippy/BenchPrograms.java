@@ -0,0 +1,36 @@
+package org.six11.slippy;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.six11.util.Debug;
+
+/**
+ * Loads the Slippy programs the benchmarks run, and compiles the calls they make into them.
+ */
+abstract class BenchPrograms {
+
+  /**
+   * Makes a quiet interpreter and runs the program named by the given system property (or the
+   * default path) in it, so its functions are defined.
+   */
+  static SlippyInterpreter load(String property, String defaultPath) throws Exception {
+    PrintStream quiet = new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+    });
+    SlippyMachine.outputStream = quiet;
+    Debug.outputStream = quiet;
+    File program = new File(System.getProperty(property, defaultPath));
+    if (!program.exists()) {
+      throw new IllegalStateException("Can't find benchmark program " + program.getAbsolutePath()
+          + ". Run from the slippy directory or set -D" + property);
+    }
+    return SlippyBenchmark.load(program);
+  }
+
+  static Node compileCall(SlippyInterpreter interp, String expr) throws Exception {
+    return SlippyBenchmark.compileCall(interp, expr);
+  }
+}
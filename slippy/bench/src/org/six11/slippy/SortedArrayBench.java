@@ -0,0 +1,64 @@
+package org.six11.slippy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building large sorted arrays: adding elements one at a time to an array with a 'sort'
+ * comparator, re-sorting a whole array with a comparator, and re-sorting it by a key lambda. The
+ * Slippy functions come from bench/slippy/sorted.slippy (or the file named by the
+ * slippy.bench.sorted system property).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedArrayBench {
+
+  public static final String PROGRAM_PROPERTY = "slippy.bench.sorted";
+  public static final String DEFAULT_PROGRAM = "bench/slippy/sorted.slippy";
+
+  @Param( { "1000", "10000" })
+  public int size;
+
+  private SlippyInterpreter interp;
+  private Node oneAtATime;
+  private Node resorted;
+  private Node byKey;
+
+  @Setup
+  public void setup() throws Exception {
+    interp = BenchPrograms.load(PROGRAM_PROPERTY, DEFAULT_PROGRAM);
+    oneAtATime = BenchPrograms.compileCall(interp, "oneAtATime(" + size + ")");
+    resorted = BenchPrograms.compileCall(interp, "resorted(" + size + ")");
+    byKey = BenchPrograms.compileCall(interp, "byKey(" + size + ")");
+  }
+
+  @Benchmark
+  public Thing oneAtATime() {
+    return interp.eval(oneAtATime);
+  }
+
+  @Benchmark
+  public Thing resorted() {
+    return interp.eval(resorted);
+  }
+
+  @Benchmark
+  public Thing byKey() {
+    return interp.eval(byKey);
+  }
+}
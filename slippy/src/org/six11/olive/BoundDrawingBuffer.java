@@ -21,30 +21,30 @@ import org.six11.util.Debug;
  */
 public class BoundDrawingBuffer extends SlippyJavaClass {
 
-  public static int ID_COUNTER = 1;
+  private int idCounter = 1; // each interpreter registers its own, so ids are per machine
 
-  public BoundDrawingBuffer(SlippyInterpreter interp) {
+  public BoundDrawingBuffer(final SlippyInterpreter interp) {
     super("BoundDrawingBuffer", interp.getMachine().getCodeset("org.six11.olive"),
         "BoundDrawingBuffer.java", interp);
     addSymbol(new Thing.Function("init", SlippyUtils.mkList(), "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
         DrawingBuffer b = new DrawingBuffer();
         context.setThing("buffer", new Thing.JavaObject(b));
-        context.setThing("id", new Thing.Str("" + ID_COUNTER++));
+        context.setThing("id", new Thing.Str("" + idCounter++));
         return Thing.NIL;
       }
     });
 
     addSymbol(new Thing.Function("turn", SlippyUtils.mkList("v"), "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).turn(SlippyUtils.toDouble(paramValues.get(0).toString()));
+        buffer(context).turn(SlippyUtils.toDouble(paramValues.get(0).toString(), interp));
         return Thing.NIL;
       }
     });
 
     addSymbol(new Thing.Function("forward", SlippyUtils.mkList("v"), "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).forward(SlippyUtils.toDouble(paramValues.get(0).toString()));
+        buffer(context).forward(SlippyUtils.toDouble(paramValues.get(0).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -72,8 +72,8 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
 
     addSymbol(new Thing.Function("moveTo", SlippyUtils.mkList("x", "y"), "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).moveTo(SlippyUtils.toDouble(paramValues.get(0).toString()),
-            SlippyUtils.toDouble(paramValues.get(1).toString()));
+        buffer(context).moveTo(SlippyUtils.toDouble(paramValues.get(0).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(1).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -81,17 +81,17 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("setColor", SlippyUtils.mkList("r", "g", "b", "a"),
         "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).setColor(SlippyUtils.toDouble(paramValues.get(0).toString()),
-            SlippyUtils.toDouble(paramValues.get(1).toString()),
-            SlippyUtils.toDouble(paramValues.get(2).toString()),
-            SlippyUtils.toDouble(paramValues.get(3).toString()));
+        buffer(context).setColor(SlippyUtils.toDouble(paramValues.get(0).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(1).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(2).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(3).toString(), interp));
         return Thing.NIL;
       }
     });
 
     addSymbol(new Thing.Function("setThickness", SlippyUtils.mkList("t"), "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).setThickness(SlippyUtils.toDouble(paramValues.get(0).toString()));
+        buffer(context).setThickness(SlippyUtils.toDouble(paramValues.get(0).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -99,10 +99,10 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("setFillColor", SlippyUtils.mkList("r", "g", "b", "a"),
         "BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).setFillColor(SlippyUtils.toDouble(paramValues.get(0).toString()),
-            SlippyUtils.toDouble(paramValues.get(1).toString()),
-            SlippyUtils.toDouble(paramValues.get(2).toString()),
-            SlippyUtils.toDouble(paramValues.get(3).toString()));
+        buffer(context).setFillColor(SlippyUtils.toDouble(paramValues.get(0).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(1).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(2).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(3).toString(), interp));
         return Thing.NIL;
       }
     });
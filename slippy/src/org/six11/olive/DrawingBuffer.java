@@ -4,10 +4,13 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 //import java.io.OutputStream;
 import java.util.ArrayList;
@@ -30,89 +33,218 @@ import org.six11.util.gui.GenericPathIterator;
 import org.six11.util.gui.Strokes;
 
 /**
- * 
+ * A drawing made of turtle operations (forward, turn, pen up and down, colors...). The drawing is
+ * rendered incrementally: each time it is updated only the operations added since the last update
+ * are replayed, onto rasters that are kept from one update to the next. The rasters grow in tiles
+ * when the drawing outgrows them, so a program that adds operations in a loop stays linear.
+ *
+ * Filled regions go under all the lines, as they always have. Finished regions are painted onto a
+ * raster of their own, beneath the raster of lines; the region still being filled is drawn as a
+ * shape between the two each time the buffer is pasted, since adding a point can change all of it.
+ *
+ * The interpreter thread adds operations while the event thread paints, so both are synchronized.
  * 
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
 public class DrawingBuffer {
 
-  private BufferedImage img;
+  private static final int TILE = 256; // rasters grow in steps of this many pixels
+
   public Dimension defaultSize = new Dimension(400, 400);
-  private boolean dirty;
 
   private List<TurtleOp> turtles;
   private BoundingBox bb;
 
+  // where replaying the turtle ops got to, so the next update can carry on from there.
+  private int replayed; // the number of ops replayed so far
+  private PenState pen;
+  private AffineTransform xform;
+  private List<Point2D> points; // the current stroke, drawn when the pen is lifted
+  private List<FilledRegion> regions;
+  private int paintedRegions; // the regions painted onto the fills raster
+
+  private Rectangle canvas; // the part of the drawing the rasters cover, or null before any
+  private BufferedImage fills; // finished filled regions, or null if there aren't any
+  private BufferedImage lines; // finished strokes
+  private Graphics2D linesGraphics;
+
   public DrawingBuffer() {
-    img = new BufferedImage(defaultSize.width, defaultSize.height, BufferedImage.TYPE_INT_ARGB_PRE);
     this.turtles = new ArrayList<TurtleOp>();
+    this.bb = new BoundingBox();
+    this.pen = new PenState();
+    pen.setColor(Color.BLACK);
+    pen.setThickness(2.6f);
+    pen.setDown(true);
+    this.xform = new AffineTransform();
+    this.points = new ArrayList<Point2D>();
+    this.regions = new ArrayList<FilledRegion>();
   }
 
-  public void addOp(TurtleOp op) {
+  public synchronized void addOp(TurtleOp op) {
     turtles.add(op);
-    bb = null;
-    dirty = true;
   }
 
   /**
-   * This completely resets the graphics buffer and draws the entire turtle sequence.
+   * Replays the turtle ops that were added since the last update onto the rasters.
    */
-  public void update() {
-    if (dirty) {
-      PenState pen = new PenState();
-      pen.setColor(Color.BLACK);
-      pen.setThickness(2.6f);
-      pen.setDown(true);
-      bb = new BoundingBox();
-      List<FilledRegion> regions = new ArrayList<FilledRegion>();
-      AffineTransform xform = new AffineTransform();
-      List<Point2D> points = new ArrayList<Point2D>();
-      for (TurtleOp turtle : turtles) {
-        xform = turtle.go(xform, pen, bb, null, regions, points);
+  public synchronized void update() {
+    for (; replayed < turtles.size(); replayed++) {
+      xform = turtles.get(replayed).go(xform, pen, bb, this, regions, points);
+      // every region but the one now being filled is finished.
+      int finished = pen.filling ? regions.size() - 1 : regions.size();
+      for (; paintedRegions < finished; paintedRegions++) {
+        paintRegion(regions.get(paintedRegions));
       }
-      img = new BufferedImage(bb.getWidthInt(), bb.getHeightInt(), BufferedImage.TYPE_INT_ARGB_PRE);
-      Graphics2D g = img.createGraphics();
-      Components.antialias(g);
-      g.setTransform(AffineTransform.getTranslateInstance(-bb.getX(), -bb.getY()));
-      g.setClip(bb.getRectangleLoose());
-      for (FilledRegion region : regions) {
-        g.setColor(region.getColor());
-        GeneralPath path = new GeneralPath();
-        path.append(region.getPathIterator(), true);
-        g.fill(path);
+    }
+  }
+
+  /**
+   * Draws a finished stroke onto the lines raster. Called by TurtleOp.go when the pen is lifted.
+   */
+  void drawStroke(List<Point2D> stroke, Color color, float thickness) {
+    GeneralPath gp = new GeneralPath();
+    boolean first = true;
+    for (Point2D pt : stroke) {
+      if (first) {
+        gp.moveTo((float) pt.getX(), (float) pt.getY());
+        first = false;
+      } else {
+        gp.lineTo((float) pt.getX(), (float) pt.getY());
+      }
+    }
+    Rectangle2D need = gp.getBounds2D();
+    double pad = thickness + 2;
+    ensureCanvas(new Rectangle2D.Double(need.getX() - pad, need.getY() - pad, need.getWidth() + 2
+        * pad, need.getHeight() + 2 * pad));
+    linesGraphics.setColor(color);
+    linesGraphics.setStroke(Strokes.get(thickness));
+    linesGraphics.draw(gp);
+  }
+
+  private void paintRegion(FilledRegion region) {
+    GeneralPath path = region.getPath();
+    Rectangle2D need = path.getBounds2D();
+    if (!need.isEmpty()) {
+      ensureCanvas(new Rectangle2D.Double(need.getX() - 2, need.getY() - 2, need.getWidth() + 4,
+          need.getHeight() + 4));
+      if (fills == null) {
+        fills = makeRaster(canvas);
+      }
+      Graphics2D g = makeGraphics(fills, canvas);
+      g.setColor(region.getColor());
+      g.fill(path);
+      g.dispose();
+    }
+  }
+
+  /**
+   * Makes sure the rasters cover the given part of the drawing. When they don't, they are replaced
+   * by bigger ones (with room to spare, so growing is rare) and the old pictures are copied over.
+   */
+  private void ensureCanvas(Rectangle2D need) {
+    if (canvas == null || !canvas.contains(need)) {
+      int minX = (int) Math.floor(need.getMinX());
+      int minY = (int) Math.floor(need.getMinY());
+      int maxX = (int) Math.ceil(need.getMaxX());
+      int maxY = (int) Math.ceil(need.getMaxY());
+      if (canvas != null) {
+        int padX = Math.max(TILE, canvas.width / 2);
+        int padY = Math.max(TILE, canvas.height / 2);
+        minX = (minX < canvas.x) ? minX - padX : canvas.x;
+        minY = (minY < canvas.y) ? minY - padY : canvas.y;
+        maxX = (maxX > canvas.x + canvas.width) ? maxX + padX : canvas.x + canvas.width;
+        maxY = (maxY > canvas.y + canvas.height) ? maxY + padY : canvas.y + canvas.height;
       }
-      xform = new AffineTransform();
-      for (TurtleOp turtle : turtles) {
-        xform = turtle.go(xform, pen, bb, g, regions, points);
+      minX = floorTile(minX);
+      minY = floorTile(minY);
+      maxX = floorTile(maxX - 1) + TILE;
+      maxY = floorTile(maxY - 1) + TILE;
+      Rectangle bigger = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+      fills = (fills == null) ? null : copyRaster(fills, canvas, bigger);
+      lines = (lines == null) ? makeRaster(bigger) : copyRaster(lines, canvas, bigger);
+      if (linesGraphics != null) {
+        linesGraphics.dispose();
       }
-      dirty = false;
+      linesGraphics = makeGraphics(lines, bigger);
+      canvas = bigger;
     }
   }
 
+  private static int floorTile(int v) {
+    return (int) Math.floor(v / (double) TILE) * TILE;
+  }
+
+  private static BufferedImage makeRaster(Rectangle r) {
+    return new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_ARGB_PRE);
+  }
+
+  private static BufferedImage copyRaster(BufferedImage old, Rectangle oldRect, Rectangle newRect) {
+    BufferedImage ret = makeRaster(newRect);
+    Graphics2D g = ret.createGraphics();
+    g.drawImage(old, oldRect.x - newRect.x, oldRect.y - newRect.y, null);
+    g.dispose();
+    return ret;
+  }
+
+  /**
+   * Gives antialiased graphics for the raster, set up to take drawing coordinates.
+   */
+  private static Graphics2D makeGraphics(BufferedImage raster, Rectangle where) {
+    Graphics2D g = raster.createGraphics();
+    Components.antialias(g);
+    g.translate(-where.x, -where.y);
+    return g;
+  }
+
   @SuppressWarnings("unused")
   private static void bug(String what) {
     Debug.out("DrawingBuffer", what);
   }
 
-  public Image getImage() {
-    if (turtles.size() > 0 && dirty) {
-      update();
+  /**
+   * Gives a picture of the whole drawing, the size of its bounding box.
+   */
+  public synchronized Image getImage() {
+    update();
+    BufferedImage ret;
+    if (bb.getWidthInt() > 0 && bb.getHeightInt() > 0) {
+      ret = new BufferedImage(bb.getWidthInt(), bb.getHeightInt(),
+          BufferedImage.TYPE_INT_ARGB_PRE);
+      Graphics2D g = ret.createGraphics();
+      g.translate(-bb.getX(), -bb.getY());
+      paste(g);
+      g.dispose();
+    } else {
+      ret = new BufferedImage(defaultSize.width, defaultSize.height,
+          BufferedImage.TYPE_INT_ARGB_PRE);
     }
-    return img;
+    return ret;
   }
 
-  public BoundingBox getBoundingBox() {
+  public synchronized BoundingBox getBoundingBox() {
+    update();
     return bb;
   }
 
-  public void paste(Graphics2D g) {
-    AffineTransform before = new AffineTransform(g.getTransform());
-    if (bb == null) {
-      update();
+  /**
+   * Draws the drawing, in its own coordinates, with the given graphics.
+   */
+  public synchronized void paste(Graphics2D g) {
+    update();
+    if (fills != null) {
+      g.drawImage(fills, canvas.x, canvas.y, null);
+    }
+    if (pen.filling && regions.size() > paintedRegions) {
+      FilledRegion open = regions.get(regions.size() - 1);
+      RenderingHints hints = g.getRenderingHints();
+      Components.antialias(g);
+      g.setColor(open.getColor());
+      g.fill(open.getPath());
+      g.setRenderingHints(hints);
+    }
+    if (lines != null) {
+      g.drawImage(lines, canvas.x, canvas.y, null);
     }
-    g.translate(bb.getX(), bb.getY());
-    g.drawImage(getImage(), 0, 0, null);
-    g.setTransform(before);
   }
 
   public void forward(double d) {
@@ -193,7 +325,7 @@ public class DrawingBuffer {
 //    document.close();
 //  }
 
-  private static class TurtleOp {
+  static class TurtleOp {
 
     TurtleOp parent;
     AffineTransform myTransform;
@@ -233,8 +365,13 @@ public class DrawingBuffer {
       this.parent = p;
     }
 
-    public AffineTransform go(AffineTransform xform, PenState pen, BoundingBox bb, Graphics2D g,
-        List<FilledRegion> regions, List<Point2D> points) {
+    /**
+     * Applies this op to the turtle: moves it, or changes its pen. Lines drawn while the pen is down
+     * are added to the bounding box, and to 'points' if 'out' is given; when the pen is lifted
+     * they are drawn into 'out' as one stroke.
+     */
+    public AffineTransform go(AffineTransform xform, PenState pen, BoundingBox bb,
+        DrawingBuffer out, List<FilledRegion> regions, List<Point2D> points) {
       AffineTransform change = xform;
 
       boolean movement = false;
@@ -249,20 +386,8 @@ public class DrawingBuffer {
           if (myPenState.down) {
             points.clear();
           } else { // pen lifted up
-            if (g != null && points.size() > 0) {
-              g.setColor(pen.color);
-              g.setStroke(Strokes.get(pen.thickness));
-              GeneralPath gp = new GeneralPath();
-              boolean first = true;
-              for (Point2D pt : points) {
-                if (first) {
-                  gp.moveTo((float) pt.getX(), (float) pt.getY());
-                  first = false;
-                } else {
-                  gp.lineTo((float) pt.getX(), (float) pt.getY());
-                }
-              }
-              g.draw(gp);
+            if (out != null && points.size() > 0) {
+              out.drawStroke(points, pen.color, pen.thickness);
             }
           }
         }
@@ -291,7 +416,7 @@ public class DrawingBuffer {
           regions.get(regions.size() - 1).addPoint(x2, y2);
         }
 
-        if (g != null && ((Math.abs(x2 - x1) > 0.0) || (Math.abs(y2 - y1) > 0.0))) {
+        if (out != null && ((Math.abs(x2 - x1) > 0.0) || (Math.abs(y2 - y1) > 0.0))) {
           Point2D pt1 = new Point2D.Double(x1, y1);
           Point2D pt2 = new Point2D.Double(x2, y2);
           if (points.size() == 0) {
@@ -458,6 +583,26 @@ public class DrawingBuffer {
       return pathIterator;
     }
 
+    /**
+     * Gives the outline of the region as a closed shape, ready to fill.
+     */
+    public GeneralPath getPath() {
+      GeneralPath ret = new GeneralPath();
+      boolean first = true;
+      for (Point2D pt : points) {
+        if (first) {
+          ret.moveTo((float) pt.getX(), (float) pt.getY());
+          first = false;
+        } else {
+          ret.lineTo((float) pt.getX(), (float) pt.getY());
+        }
+      }
+      if (!first) {
+        ret.closePath();
+      }
+      return ret;
+    }
+
     public List<Point2D> getPoints() {
       return points;
     }
@@ -0,0 +1,129 @@
+package org.six11.olive;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.six11.slippy.SlippyCancelledException;
+import org.six11.slippy.SlippyInterpreter;
+import org.six11.util.Debug;
+
+/**
+ * Runs Slippy code for the IDE on a thread of its own, so a long program doesn't freeze the editor.
+ * The interpreter is only used from this thread: running a program, clicking a button made from a
+ * 'button' function and drawing on the surface each queue a job, and the jobs run one at a time in
+ * the order they were queued. A job that changes Swing components has to hand that part back to
+ * the event thread with SwingUtilities.invokeLater.
+ *
+ * The running job can be stopped with cancel(). Each job may also have a time limit. A job is
+ * started and published as the current one under the same lock cancel() takes, and it remembers
+ * how many cancels there had been when it was queued, so a cancel can't slip in between the job
+ * leaving the queue and starting to run.
+ */
+public class InterpreterThread extends Thread {
+
+  private final SlippyInterpreter interp;
+  private final LinkedBlockingQueue<Job> queue;
+  private final Object lock; // guards current, cancels and jobs
+  private Job current;
+  private int cancels; // how many times cancel() has been called
+  private int jobs; // queued or running
+
+  public InterpreterThread(SlippyInterpreter interp) {
+    super("Slippy interpreter");
+    this.interp = interp;
+    this.queue = new LinkedBlockingQueue<Job>();
+    this.lock = new Object();
+    setDaemon(true);
+  }
+
+  /**
+   * Queues some work for the interpreter.
+   *
+   * @param name
+   *          says what the job is, for messages about it.
+   * @param maxMillis
+   *          how long the job may run before it is stopped, or 0 for no limit.
+   */
+  public void submit(String name, long maxMillis, Runnable work) {
+    synchronized (lock) {
+      jobs = jobs + 1;
+      queue.add(new Job(name, maxMillis, work, cancels));
+    }
+  }
+
+  /**
+   * Stops the running job and throws away the queued ones. This may be called from any thread.
+   */
+  public void cancel() {
+    synchronized (lock) {
+      cancels = cancels + 1;
+      jobs = jobs - queue.drainTo(new ArrayList<Job>());
+      if (current != null) {
+        interp.cancel();
+      }
+    }
+  }
+
+  /**
+   * Tells you if a job is running or waiting to run.
+   */
+  public boolean isBusy() {
+    boolean ret;
+    synchronized (lock) {
+      ret = jobs > 0;
+    }
+    return ret;
+  }
+
+  public void run() {
+    while (true) {
+      Job job;
+      try {
+        job = queue.take();
+      } catch (InterruptedException ex) {
+        break;
+      }
+      boolean cancelled;
+      synchronized (lock) {
+        // a cancel() after this job was queued but before it left the queue stops it here
+        cancelled = job.cancels != cancels;
+        if (!cancelled) {
+          interp.setLimits(0, job.maxMillis);
+          interp.startRun();
+          current = job;
+        }
+      }
+      try {
+        if (cancelled) {
+          Debug.out("InterpreterThread", job.name + ": cancelled before it started");
+        } else {
+          job.work.run();
+        }
+      } catch (SlippyCancelledException ex) {
+        Debug.out("InterpreterThread", job.name + ": " + ex.getMessage());
+      } catch (RuntimeException ex) {
+        Debug.out("InterpreterThread", job.name + " failed. Carrying on with the next job.");
+        ex.printStackTrace(Debug.outputStream);
+      } finally {
+        synchronized (lock) {
+          current = null;
+          jobs = jobs - 1;
+        }
+      }
+    }
+  }
+
+  private static class Job {
+    final String name;
+    final long maxMillis;
+    final Runnable work;
+    final int cancels; // InterpreterThread.cancels when this was queued
+
+    Job(String name, long maxMillis, Runnable work, int cancels) {
+      this.name = name;
+      this.maxMillis = maxMillis;
+      this.work = work;
+      this.cancels = cancels;
+    }
+  }
+}
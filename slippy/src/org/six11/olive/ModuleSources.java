@@ -0,0 +1,93 @@
+package org.six11.olive;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.six11.util.Debug;
+
+/**
+ * The sources of a module version, downloaded from the server in one zip archive (the code
+ * servlet's 'archive' mode) the first time a source is asked for, and kept in memory from then on.
+ * Sources are keyed by their full file names ('/org/foo/hello/Hello.slippy'), which are their names
+ * in the module's jar with a slash in front.
+ *
+ * If the archive can't be downloaded, get() gives null and the caller should fetch the class some
+ * other way. The download isn't tried again.
+ */
+public class ModuleSources {
+
+  private final String archiveUrl;
+  private Map<String, String> sources; // null until the archive has been asked for
+
+  public ModuleSources(String archiveUrl) {
+    this.archiveUrl = archiveUrl;
+  }
+
+  /**
+   * Gives the source of the file, or null if it isn't in the archive.
+   */
+  public synchronized String get(String fullFileName) {
+    if (sources == null) {
+      sources = new HashMap<String, String>();
+      try {
+        InputStream in = openArchive(archiveUrl);
+        try {
+          readArchive(in, sources);
+        } finally {
+          in.close();
+        }
+        bug("Loaded " + sources.size() + " sources from " + archiveUrl);
+      } catch (IOException ex) {
+        bug("Couldn't load sources from " + archiveUrl + ": " + ex.getMessage());
+      }
+    }
+    return sources.get(fullFileName);
+  }
+
+  /**
+   * Remembers a file's new source, e.g. after it was saved.
+   */
+  public synchronized void put(String fullFileName, String source) {
+    if (sources != null) {
+      sources.put(fullFileName, source);
+    }
+  }
+
+  /**
+   * Opens the archive at the given URL. Override this to serve the archive some other way.
+   */
+  protected InputStream openArchive(String url) throws IOException {
+    return new URL(url).openStream();
+  }
+
+  /**
+   * Reads every entry of a zip archive as UTF-8 text into the map, keyed by a slash and its name.
+   */
+  public static void readArchive(InputStream in, Map<String, String> into) throws IOException {
+    ZipInputStream zin = new ZipInputStream(new BufferedInputStream(in));
+    byte[] buf = new byte[8192];
+    ZipEntry e;
+    while ((e = zin.getNextEntry()) != null) {
+      if (!e.isDirectory()) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int n;
+        while ((n = zin.read(buf)) > 0) {
+          bytes.write(buf, 0, n);
+        }
+        into.put("/" + e.getName(), bytes.toString("UTF-8"));
+      }
+      zin.closeEntry();
+    }
+  }
+
+  private static void bug(String what) {
+    Debug.out("ModuleSources", what);
+  }
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -28,12 +29,16 @@ import static java.awt.event.InputEvent.*;
  * An IDE for the Slippy programming language. This is capable of working in a local disk
  * environment as well as a remote web environment. The web environment is supported so programmers
  * can use the IDE in an unsigned applet (and all code is stored on a server).
+ *
+ * Slippy code runs on an InterpreterThread, never on the Swing event thread, so the editor stays
+ * usable while a program runs and a runaway program can be stopped.
  * 
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
 public class OliveIDE extends JPanel {
 
   private static final String SCRATCH_NAME = "*scratch*";
+  private static final long EVENT_MILLIS = 10000; // how long a button or pen event may run
   protected Object fileName;
 
   private Map<String, NamedAction> actions;
@@ -41,9 +46,10 @@ public class OliveIDE extends JPanel {
   private Map<String, JButton> slippyButtons;
   private Map<String, String> slippySourceFiles; // records where button/menu actions are defined
   private SlippyInterpreter interp;
+  private InterpreterThread runner;
   private ColoredTextPane stdout;
   private JTabbedPane editorTabs;
-  private OliveSoup soup;
+  private volatile OliveSoup soup; // made on the interpreter thread, painted on the event thread
   private OliveMouseThing mouseThing;
   private OliveDrawingSurface surface;
   private Environment env;
@@ -119,7 +125,7 @@ public class OliveIDE extends JPanel {
 
     Debug.useColor = false;
     Debug.useTime = false;
-    Debug.outputStream = new PrintStream(stdout.getOutputStream(), true);
+    Debug.outputStream = new PrintStream(new SwingOutputStream(stdout.getOutputStream()), true);
     buttons = new JPanel();
     initButtons(buttons);
     topLeft.add(buttons, BorderLayout.NORTH);
@@ -145,7 +151,11 @@ public class OliveIDE extends JPanel {
     split.setDividerLocation(400);
     add(split, BorderLayout.CENTER);
     initSlippy();
-    resetJavaBindings();
+    runner.submit("Start", 0, new Runnable() {
+      public void run() {
+        resetJavaBindings();
+      }
+    });
     Debug.out("OliveIDE", "Initialized!");
   }
 
@@ -179,6 +189,8 @@ public class OliveIDE extends JPanel {
     // Slippy code can use the 'signal' function to pass events and arbitrary Thing objects
     // back into Java. This is done using a message bus.
     interp.getMachine().setMessageBus(new OliveIDEMessageBus(this));
+    runner = new InterpreterThread(interp);
+    runner.start();
   }
 
   /**
@@ -188,12 +200,24 @@ public class OliveIDE extends JPanel {
     int weirdMod = CTRL_MASK | SHIFT_MASK;
     int mod = CTRL_MASK;
 
-    actions = new HashMap<String, NamedAction>();
+    // buttons made from Slippy functions are added from the interpreter thread.
+    actions = Collections.synchronizedMap(new HashMap<String, NamedAction>());
     actions.put("Run", new NamedAction("Run", KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, mod)) {
       public void activate() {
         interpret();
       }
     });
+    actions.put("Profile", new NamedAction("Profile", KeyStroke.getKeyStroke(KeyEvent.VK_P,
+        weirdMod)) {
+      public void activate() {
+        profile();
+      }
+    });
+    actions.put("Stop", new NamedAction("Stop", KeyStroke.getKeyStroke(KeyEvent.VK_PERIOD, mod)) {
+      public void activate() {
+        stop();
+      }
+    });
     actions.put("Save", new NamedAction("Save", KeyStroke.getKeyStroke(KeyEvent.VK_S, mod)) {
       public void activate() {
         try {
@@ -270,6 +294,8 @@ public class OliveIDE extends JPanel {
     menu.add(actions.get("Save As"));
     menu.addSeparator();
     menu.add(actions.get("Run"));
+    menu.add(actions.get("Profile"));
+    menu.add(actions.get("Stop"));
     menu.add(actions.get("Make Main"));
     if (env.isWeb()) {
       menu.addSeparator();
@@ -478,60 +504,115 @@ public class OliveIDE extends JPanel {
   /**
    * Creates (or re-creates) the Java language bindings for special data types such as
    * SlippyObjectType, Affine Transforms, and the BoundDrawingBuffer. It also resets the OliveSoup
-   * object, which acts as the central storage location for a fresh slippy program.
+   * object, which acts as the central storage location for a fresh slippy program. This runs on the
+   * interpreter thread; the new soup is hooked up to the mouse on the event thread.
    */
   private final void resetJavaBindings() {
     new Affine(interp);
-    if (mouseThing != null) {
-      surface.removeMouseListener(mouseThing);
-      surface.removeMouseMotionListener(mouseThing);
-    }
+    OliveSoup newSoup = null;
     try {
       Thing t = interp.importFromFile("OliveSoup", "org.six11.olive");
       SlippyObjectType type = new SlippyObjectType(t, interp);
-      soup = new OliveSoup(type.make(new ArrayList<Object>()));
-      interp.getMachine().addGlobal("soup", soup.getSlippyThing());
+      newSoup = new OliveSoup(type.make(new ArrayList<Object>()));
+      interp.getMachine().addGlobal("soup", newSoup.getSlippyThing());
     } catch (Exception ex) {
       bug("Couldn't load org.six11.olive.OliveSoup. Continuing...");
     }
-    mouseThing = new OliveMouseThing(soup);
-    surface.addMouseMotionListener(mouseThing);
-    surface.addMouseListener(mouseThing);
+    if (newSoup != null) {
+      soup = newSoup;
+    }
+    final OliveMouseThing newMouseThing = new OliveMouseThing(soup, runner, EVENT_MILLIS);
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        if (mouseThing != null) {
+          surface.removeMouseListener(mouseThing);
+          surface.removeMouseMotionListener(mouseThing);
+        }
+        mouseThing = newMouseThing;
+        surface.addMouseMotionListener(mouseThing);
+        surface.addMouseListener(mouseThing);
+      }
+    });
     new BoundDrawingBuffer(interp); // TODO: what is the point of this line?
   }
 
   /**
-   * Causes the system to reset, and runs the slippy program in the current buffer.
+   * Runs the program in the current buffer like interpret() does, counting and timing its function
+   * calls, and prints the busiest functions and call sites.
+   */
+  protected void profile() {
+    interpret(true);
+  }
+
+  /**
+   * Causes the system to reset, and runs the slippy program in the current buffer. A program that
+   * is still running is stopped first. The program runs on the interpreter thread, so this returns
+   * right away.
    */
   protected void interpret() {
-    Debug.outputStream.println("------- (interpreting at " + new Date() + ") ---");
-    interp.getMachine().resetRuntimeState();
-    resetJavaBindings();
+    interpret(false);
+  }
+
+  private void interpret(final boolean profiling) {
     SlippyEditor editor = (SlippyEditor) editorTabs.getSelectedComponent();
     String fqClassName = editor.getFQClassName();
     String codesetStr = SlippyUtils.getCodesetName(fqClassName);
     String className = SlippyUtils.getClassName(fqClassName);
-    interp.getMachine().pushFileName(env.getFullFileName(className, codesetStr));
-    String programString = editor.getTextPane().getText();
-    try {
-      interp.handleInput(programString);
-      List<String> buttonFunctionNames = interp.getMachine().getGlobalTable()
-          .getNamesWithAnnotation("button");
-      for (String s : buttonFunctionNames) {
-        buttonize(s);
+    final String fileName = env.getFullFileName(className, codesetStr);
+    final String programString = editor.getTextPane().getText();
+    editor.colorize();
+    runner.cancel();
+    runner.submit(profiling ? "Profile" : "Run", 0, new Runnable() {
+      public void run() {
+        Debug.outputStream.println("------- (interpreting at " + new Date() + ") ---");
+        interp.getMachine().resetRuntimeState();
+        resetJavaBindings();
+        interp.setProfiling(profiling);
+        interp.getMachine().pushFileName(fileName);
+        try {
+          interp.handleInput(programString);
+          List<String> buttonFunctionNames = interp.getMachine().getGlobalTable()
+              .getNamesWithAnnotation("button");
+          final List<NamedAction> buttonActions = new ArrayList<NamedAction>();
+          for (String s : buttonFunctionNames) {
+            NamedAction slippyAction = makeSlippyAction(s, "button");
+            if (slippyAction != null) {
+              buttonActions.add(slippyAction);
+            }
+          }
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              for (NamedAction slippyAction : buttonActions) {
+                buttonize(slippyAction);
+              }
+            }
+          });
+          if (profiling) {
+            Debug.outputStream.println(interp.getProfiler().report(20));
+          }
+        } finally {
+          interp.getMachine().popFileName(false); // the false allows future invocations
+          interp.setProfiling(false);
+        }
+        surface.repaint();
       }
-      editor.colorize();
-    } finally {
-      interp.getMachine().popFileName(false); // the false allows future invocations
+    });
+  }
+
+  /**
+   * Stops the running program, along with any button clicks or pen input waiting to be handled.
+   */
+  protected void stop() {
+    if (runner.isBusy()) {
+      runner.cancel();
     }
-    surface.repaint();
   }
 
   /**
-   * Turns a function with the Slippy annotation 'button' into a clickable button in the Olive IDE.
+   * Turns the action made for a function with the Slippy annotation 'button' into a clickable button
+   * in the Olive IDE. This must be called on the event thread.
    */
-  protected void buttonize(String name) {
-    NamedAction slippyAction = makeSlippyAction(name, "button");
+  protected void buttonize(NamedAction slippyAction) {
     JButton b = slippyButtons.get(slippyAction.getName());
     if (b != null) {
       buttons.remove(b);
@@ -544,7 +625,8 @@ public class OliveIDE extends JPanel {
   }
 
   /**
-   * Makes an Action based on the named slippy function. The function must be a global.
+   * Makes an Action based on the named slippy function. The function must be a global. This runs on
+   * the interpreter thread, and so does the action when it is activated.
    * 
    * @param name
    *          the name of a global slippy function that was annotated with 'menu' or 'button'
@@ -563,14 +645,19 @@ public class OliveIDE extends JPanel {
         if (maybeFunction.type == Thing.Type.Function) {
           NamedAction slippyAction = new NamedAction(labelThing.toString()) {
             public void activate() {
-              String fn = slippySourceFiles.get(labelThing.toString());
-              bug("Invoking '" + labelThing.toString() + "', defined originally in " + fn);
-              interp.getMachine().pushFileName(fn);
-              try {
-                interp.invokeFunction((Thing.Function) maybeFunction, new ArrayList<Thing>(), null);
-              } finally {
-                interp.getMachine().popFileName(false);
-              }
+              runner.submit(labelThing.toString(), EVENT_MILLIS, new Runnable() {
+                public void run() {
+                  String fn = slippySourceFiles.get(labelThing.toString());
+                  bug("Invoking '" + labelThing.toString() + "', defined originally in " + fn);
+                  interp.getMachine().pushFileName(fn);
+                  try {
+                    interp.invokeFunction((Thing.Function) maybeFunction, new ArrayList<Thing>(),
+                        null);
+                  } finally {
+                    interp.getMachine().popFileName(false);
+                  }
+                }
+              });
             }
           };
           slippySourceFiles.put(labelThing.toString(), interp.getMachine().getCurrentFile());
@@ -6,28 +6,67 @@ import org.six11.util.Debug;
 import org.six11.util.pen.MouseThing;
 
 /**
- * A mouse motion and click adapter that sends events to an OliveSoup instance.
+ * A mouse motion and click adapter that sends events to an OliveSoup instance. The soup is Slippy
+ * code, so when there is an interpreter thread the events are handed to the soup there, in the
+ * order they happened.
  * 
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
 public class OliveMouseThing extends MouseThing {
 
   private OliveSoup soup;
+  private InterpreterThread runner;
+  private long maxMillis;
 
+  /**
+   * Makes a mouse adapter that calls the soup right away, on the event thread.
+   */
   public OliveMouseThing(OliveSoup soup) {
+    this(soup, null, 0);
+  }
+
+  /**
+   * Makes a mouse adapter that calls the soup on the given interpreter thread, giving each event
+   * at most maxMillis milliseconds.
+   */
+  public OliveMouseThing(OliveSoup soup, InterpreterThread runner, long maxMillis) {
     this.soup = soup;
+    this.runner = runner;
+    this.maxMillis = maxMillis;
   }
 
-  public void mousePressed(MouseEvent ev) {
-    soup.addRawInputBegin(ev.getX(), ev.getY(), ev.getWhen());
+  public void mousePressed(final MouseEvent ev) {
+    handle("Pen down", new Runnable() {
+      public void run() {
+        soup.addRawInputBegin(ev.getX(), ev.getY(), ev.getWhen());
+      }
+    });
   }
 
-  public void mouseDragged(MouseEvent ev) {
-    soup.addRawInputProgress(ev.getX(), ev.getY(), ev.getWhen());
+  public void mouseDragged(final MouseEvent ev) {
+    handle("Pen drag", new Runnable() {
+      public void run() {
+        soup.addRawInputProgress(ev.getX(), ev.getY(), ev.getWhen());
+      }
+    });
   }
 
   public void mouseReleased(MouseEvent ev) {
-    soup.addRawInputEnd();
+    handle("Pen up", new Runnable() {
+      public void run() {
+        soup.addRawInputEnd();
+      }
+    });
+  }
+
+  private void handle(String name, Runnable work) {
+    if (soup == null) {
+      // the soup couldn't be loaded. nothing to tell.
+    } else if (runner == null) {
+      work.run();
+    } else {
+      runner.submit(name, maxMillis, work);
+    }
   }
 
   @SuppressWarnings("unused")
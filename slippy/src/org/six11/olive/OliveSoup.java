@@ -2,29 +2,34 @@ package org.six11.olive;
 
 import java.awt.Shape;
 import java.awt.geom.GeneralPath;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
 
 import org.six11.slippy.SlippyObject;
 import org.six11.slippy.Thing;
 
 /**
- * This is a thin wrapper for a Slippy class of the same name.
+ * This is a thin wrapper for a Slippy class of the same name. It is called from the IDE's
+ * interpreter thread and painted on the event thread, so what painting reads (the current
+ * sequence and the drawing buffers) is only changed in ways that are safe for that.
  * 
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
 public class OliveSoup {
 
   private SlippyObject soup;
-  private List<DrawingBuffer> drawingBuffers;
+  private List<DrawingBuffer> drawingBuffers; // copied on write, so painting can iterate it
 
-  // The currentSeq and last index are for managing the currently-in-progress ink stroke
+  // The currentSeq and last index are for managing the currently-in-progress ink stroke. The
+  // path is only touched on the event thread, the index only on the interpreter thread.
   private GeneralPath currentSeq;
   private int lastCurrentSequenceIdx;
 
   public OliveSoup(SlippyObject impl) {
     soup = impl;
-    drawingBuffers = new ArrayList<DrawingBuffer>();
+    drawingBuffers = new CopyOnWriteArrayList<DrawingBuffer>();
   }
 
   protected Thing getSlippyThing() {
@@ -41,25 +46,39 @@ public class OliveSoup {
    * member that can be resolved to an integer. This is an efficient implementation minimizes the
    * amount of time spent in the drawing routine. It does this by caching the index of the last
    * drawn Pt object. To reset this cache use the forgetCurrentSequence() method.
+   *
+   * The points are read here, and added to the path on the event thread.
    */
   protected void drawCurrentSequence(Thing.Array arr) {
-    for (int i = lastCurrentSequenceIdx; i < arr.size(); i++) {
+    final int first = lastCurrentSequenceIdx;
+    final float[] xy = new float[2 * Math.max(0, arr.size() - first)];
+    for (int i = first; i < arr.size(); i++) {
       Thing t = arr.getSlot(i).getValue();
       if (t.type == Thing.Type.Instance) {
         Thing.Instance inst = (Thing.Instance) t;
         Thing.Num xThing = (Thing.Num) ((Thing.Variable) inst.getMember("x")).getValue();
         Thing.Num yThing = (Thing.Num) ((Thing.Variable) inst.getMember("y")).getValue();
-        float x = xThing.getFloatValue();
-        float y = yThing.getFloatValue();
-        if (i == 0) {
-          currentSeq = new GeneralPath();
-          currentSeq.moveTo(x, y);
-        } else {
-          currentSeq.lineTo(x, y);
-        }
+        xy[2 * (i - first)] = xThing.getFloatValue();
+        xy[2 * (i - first) + 1] = yThing.getFloatValue();
+      } else {
+        xy[2 * (i - first)] = Float.NaN; // not a point; skipped below
       }
       lastCurrentSequenceIdx = i;
     }
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        for (int i = 0; i < xy.length / 2; i++) {
+          if (!Float.isNaN(xy[2 * i])) {
+            if (first + i == 0) {
+              currentSeq = new GeneralPath();
+              currentSeq.moveTo(xy[2 * i], xy[2 * i + 1]);
+            } else if (currentSeq != null) {
+              currentSeq.lineTo(xy[2 * i], xy[2 * i + 1]);
+            }
+          }
+        }
+      }
+    });
   }
 
   /**
@@ -68,7 +87,11 @@ public class OliveSoup {
    */
   protected void forgetCurrentSequence() {
     lastCurrentSequenceIdx = 0;
-    currentSeq = null;
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        currentSeq = null;
+      }
+    });
   }
 
   /**
@@ -121,7 +144,8 @@ public class OliveSoup {
   }
 
   /**
-   * Returns a reference to the currently in-progress scribble, suitable for efficient drawing.
+   * Returns a reference to the currently in-progress scribble, suitable for efficient drawing. Only
+   * call this on the event thread.
    */
   public Shape getCurrentSequence() {
     return currentSeq;
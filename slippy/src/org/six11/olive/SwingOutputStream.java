@@ -0,0 +1,67 @@
+package org.six11.olive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * An output stream that may be written from any thread, and passes what was written on to another
+ * stream on the Swing event thread. That is for text components, which must only be changed there.
+ * Output is collected until the event thread gets around to it, so a program that prints lots of
+ * lines causes a few big appends instead of one event per line.
+ */
+public class SwingOutputStream extends OutputStream {
+
+  private final OutputStream target;
+  private final ByteArrayOutputStream pending;
+  private boolean scheduled; // a drain() is waiting on the event queue
+
+  public SwingOutputStream(OutputStream target) {
+    this.target = target;
+    this.pending = new ByteArrayOutputStream();
+  }
+
+  public synchronized void write(int b) {
+    pending.write(b);
+  }
+
+  public synchronized void write(byte[] b, int off, int len) {
+    pending.write(b, off, len);
+  }
+
+  public void flush() throws IOException {
+    if (SwingUtilities.isEventDispatchThread()) {
+      drain();
+    } else {
+      synchronized (this) {
+        if (!scheduled && pending.size() > 0) {
+          scheduled = true;
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              try {
+                drain();
+              } catch (IOException ex) {
+                ex.printStackTrace();
+              }
+            }
+          });
+        }
+      }
+    }
+  }
+
+  private void drain() throws IOException {
+    byte[] bytes;
+    synchronized (this) {
+      bytes = pending.toByteArray();
+      pending.reset();
+      scheduled = false;
+    }
+    if (bytes.length > 0) {
+      target.write(bytes);
+      target.flush();
+    }
+  }
+}
@@ -3,6 +3,7 @@ package org.six11.olive;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -33,6 +34,8 @@ public class WebEnvironment extends Environment {
   String version;
   String main;
   JApplet applet;
+  String codeBase; // the server's URL for the applet, ending in a slash
+  ModuleSources sources;
 
   public WebEnvironment(JApplet applet) {
     super();
@@ -41,32 +44,78 @@ public class WebEnvironment extends Environment {
     Properties modProps = new Properties();
     try {
       modProps.load(in);
-      this.module = modProps.getProperty("module");
-      this.who = modProps.getProperty("who");
-      this.version = modProps.getProperty("version");
-      this.main = modProps.getProperty("main");
     } catch (IOException ex) {
       ex.printStackTrace();
       bug("Could not load /" + MOD_INFO_PROPS);
     }
+    init("" + applet.getCodeBase(), modProps);
   }
 
+  /**
+   * Makes an environment with no applet for the module version described by 'moduleInfo' (as in
+   * module-info.properties), served from the given code base. Only loading sources works without
+   * an applet. This lets the server be checked from a plain JVM, with openUrl overridden.
+   */
+  public WebEnvironment(String codeBase, Properties moduleInfo) {
+    super();
+    init(codeBase, moduleInfo);
+  }
+
+  private void init(String codeBase, Properties modProps) {
+    this.codeBase = codeBase;
+    this.module = modProps.getProperty("module");
+    this.who = modProps.getProperty("who");
+    this.version = modProps.getProperty("version");
+    this.main = modProps.getProperty("main");
+    this.sources = new ModuleSources(makeCodeUrl("archive", null)) {
+      protected InputStream openArchive(String url) throws IOException {
+        return openUrl(url);
+      }
+    };
+  }
+
+  /**
+   * Opens a URL on the server. Override this to reach the server some other way.
+   */
+  protected InputStream openUrl(String url) throws IOException {
+    return new URL(url).openStream();
+  }
+
+  /**
+   * Gives the URL of the code servlet for this module version.
+   * 
+   * @param fqClass
+   *          the class to ask about, or null to leave it out.
+   */
+  private String makeCodeUrl(String mode, String fqClass) {
+    HttpUtil ht = new HttpUtil();
+    StringBuilder buf = new StringBuilder();
+    ht.setParam("module", module, buf);
+    ht.setParam("version", version, buf);
+    ht.setParam("who", who, buf);
+    if (fqClass != null) {
+      ht.setParam("fqClass", fqClass, buf);
+    }
+    ht.setParam("mode", mode, buf);
+    return codeBase + "code?" + buf.toString();
+  }
+
+  /**
+   * Gives the source from the jar if it is there. Otherwise it comes from the module's sources,
+   * which are all downloaded in one request the first time a class isn't in the jar. Only a class
+   * that isn't in those either (or if they couldn't be downloaded) is fetched on its own.
+   */
   @Override
   public String loadStringFromFile(String fullFileName) throws FileNotFoundException, IOException {
     String ret = "";
     try {
       InputStream in = getClass().getResourceAsStream(fullFileName);
       if (in == null) {
-        String fqClass = SlippyUtils.fileStrToCodestStr(fullFileName);
-        HttpUtil ht = new HttpUtil();
-        StringBuilder buf = new StringBuilder();
-        ht.setParam("module", module, buf);
-        ht.setParam("version", version, buf);
-        ht.setParam("who", who, buf);
-        ht.setParam("fqClass", fqClass, buf);
-        ht.setParam("mode", "download", buf);
-        String u = applet.getCodeBase() + "code?" + buf.toString();
-        ret = ht.downloadUrlToString(u);
+        ret = sources.get(fullFileName);
+        if (ret == null) {
+          String fqClass = SlippyUtils.fileStrToCodestStr(fullFileName);
+          ret = new HttpUtil().downloadUrlToString(makeCodeUrl("download", fqClass));
+        }
       } else {
         ret = StreamUtil.inputStreamToString(in);
       }
@@ -110,7 +159,8 @@ public class WebEnvironment extends Environment {
     w.setParam("fqClass", fqClassName, buffer);
     w.setParam("source", programString, buffer);
     try {
-      w.post(applet.getCodeBase() + "save", buffer);
+      w.post(codeBase + "save", buffer);
+      sources.put(classNameToFileName(fqClassName), programString);
     } catch (IOException ex) {
       ex.printStackTrace();
       bug("Couldn't save!");
@@ -133,8 +183,7 @@ public class WebEnvironment extends Environment {
       HttpUtil ht = new HttpUtil();
       String contentsUriFragment = module + "-" + version + "-" + who + "-contents.txt";
       try {
-        String contents = ht.downloadUrlToString(applet.getCodeBase() + "jar/"
-            + contentsUriFragment);
+        String contents = ht.downloadUrlToString(codeBase + "jar/" + contentsUriFragment);
         StringTokenizer toks = new StringTokenizer(contents, "\n");
         while (toks.hasMoreTokens()) {
           classes.add(toks.nextToken());
@@ -173,7 +222,7 @@ public class WebEnvironment extends Environment {
     w.setParam("who", who, buffer);
     w.setParam("fqClass", fqClassName, buffer);
     try {
-      w.post(applet.getCodeBase() + "bundler", buffer);
+      w.post(codeBase + "bundler", buffer);
       System.out.println(fqClassName + " is now the main class for module " + who + "@" + module);
     } catch (IOException ex) {
       ex.printStackTrace();
@@ -0,0 +1,136 @@
+package org.six11.olive.server;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.six11.slippy.SlippyHtmlSyntaxColorizer;
+import org.six11.util.Debug;
+
+/**
+ * Syntax-colored HTML of Slippy source files, kept in memory so viewing a file again doesn't lex,
+ * parse and colorize it again. An entry is only used while the source file (and the colors file,
+ * if there is one) has the same size and modification time as when it was rendered.
+ *
+ * The cache holds at most a given number of bytes of HTML. When it is full the least recently
+ * viewed files are dropped first.
+ */
+public class HtmlCache {
+
+  public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries;
+  private long bytes;
+
+  public HtmlCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    // access order, so iteration starts at the least recently viewed file.
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  }
+
+  /**
+   * Gives the file as UTF-8 encoded HTML, colorizing it only if it isn't cached or has changed.
+   *
+   * @param colorFile
+   *          a properties file of styles, or null for the colorizer's own styles.
+   */
+  public byte[] getHtml(File slippyFile, File colorFile) throws Exception {
+    String path = slippyFile.getAbsolutePath();
+    String stamp = getStamp(slippyFile, colorFile);
+    byte[] ret = null;
+    synchronized (this) {
+      Entry e = entries.get(path);
+      if (e != null && e.stamp.equals(stamp)) {
+        ret = e.html;
+      }
+    }
+    if (ret == null) {
+      ret = render(slippyFile, colorFile);
+      bug("Rendered " + path + " (" + ret.length + " bytes of html)");
+      put(path, new Entry(stamp, ret));
+    }
+    return ret;
+  }
+
+  private byte[] render(File slippyFile, File colorFile) throws Exception {
+    SlippyHtmlSyntaxColorizer colorizer = new SlippyHtmlSyntaxColorizer();
+    if (colorFile != null) {
+      colorizer.setStyleProperties(colorFile.getAbsolutePath());
+    }
+    return toBytes(colorizer.walk(slippyFile.getAbsolutePath(), true));
+  }
+
+  private synchronized void put(String path, Entry e) {
+    Entry old = entries.remove(path);
+    if (old != null) {
+      bytes -= old.html.length;
+    }
+    if (e.html.length <= maxBytes) {
+      entries.put(path, e);
+      bytes += e.html.length;
+      Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while (bytes > maxBytes && it.hasNext()) {
+        Map.Entry<String, Entry> victim = it.next();
+        bytes -= victim.getValue().html.length;
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * The latest modification time of the source and colors files, for Last-Modified headers.
+   */
+  public static long getLastModified(File slippyFile, File colorFile) {
+    long ret = slippyFile.lastModified();
+    if (colorFile != null) {
+      ret = Math.max(ret, colorFile.lastModified());
+    }
+    return ret;
+  }
+
+  private static String getStamp(File slippyFile, File colorFile) {
+    String ret = slippyFile.length() + ":" + slippyFile.lastModified();
+    if (colorFile != null) {
+      ret = ret + ":" + colorFile.length() + ":" + colorFile.lastModified();
+    }
+    return ret;
+  }
+
+  private static byte[] toBytes(String html) {
+    try {
+      return html.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new RuntimeException("UTF-8 is missing from this JVM", ex);
+    }
+  }
+
+  private static class Entry {
+    final String stamp;
+    final byte[] html;
+
+    Entry(String stamp, byte[] html) {
+      this.stamp = stamp;
+      this.html = html;
+    }
+  }
+
+  private static void bug(String what) {
+    Debug.out("HtmlCache", what);
+  }
+}
@@ -0,0 +1,234 @@
+package org.six11.olive.server;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.six11.util.Debug;
+
+/**
+ * Bundled module jars, kept in the jar vendor's cache directory under a key that is a hash of
+ * everything that goes into them: the module name, version and user, the base olive jar, and every
+ * file of the module's source tree. A jar is only built when no jar with the current key exists,
+ * so asking for an unchanged working copy again costs a hash of its (small) source tree instead of
+ * a rebuild. The key also serves as the jar's ETag.
+ *
+ * When several requests want the same key at once, one of them builds the jar and the others wait
+ * for it and share the result. Jars are handed out as open streams, and superseded jars are only
+ * deleted under the same lock that opens them, so a request never loses its jar to a newer build
+ * between finding it and reading it.
+ */
+public class JarCache {
+
+  private final File cacheDir;
+  private final File moduleDir;
+  private final ConcurrentMap<String, FutureTask<File>> building;
+  private final Map<String, String[]> baseJarHashes; // path -> { length:modified, hash }
+  private final Object removing; // held while opening a jar or deleting stale ones
+
+  public JarCache(File cacheDir, File moduleDir) {
+    this.cacheDir = cacheDir;
+    this.moduleDir = moduleDir;
+    this.building = new ConcurrentHashMap<String, FutureTask<File>>();
+    this.baseJarHashes = new HashMap<String, String[]>();
+    this.removing = new Object();
+  }
+
+  /**
+   * Works out the key of the jar for this module version. The module's source directory must
+   * exist.
+   */
+  public String getKey(String module, String version, String who, File baseJar)
+      throws IOException {
+    File path = new File(moduleDir, SlippyBundler.getPathFragment(module, version, who));
+    MessageDigest md = newDigest();
+    md.update((module + "\n" + version + "\n" + who + "\n").getBytes("UTF-8"));
+    md.update(hashBaseJar(baseJar).getBytes("UTF-8"));
+    digestTree(md, path, "");
+    return toHex(md.digest());
+  }
+
+  /**
+   * Opens the cached jar with the given key, building it first if there isn't one yet. Once it is
+   * open, a newer build may delete the file but the stream can still read it. If the jar was
+   * deleted before it could be opened, it is built again.
+   */
+  public FileInputStream openJar(String module, String version, String who, File baseJar,
+      String key) throws IOException {
+    FileInputStream ret = null;
+    while (ret == null) {
+      File jarFile = getJar(module, version, who, baseJar, key);
+      synchronized (removing) {
+        if (jarFile.exists()) {
+          ret = new FileInputStream(jarFile);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Gives the cached jar with the given key, building it first if there isn't one yet.
+   */
+  private File getJar(final String module, final String version, final String who,
+      final File baseJar, final String key) throws IOException {
+    final File jarFile = getCachedJar(module, version, who, key);
+    File ret = jarFile;
+    if (!jarFile.exists()) {
+      FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+        public File call() throws Exception {
+          if (!jarFile.exists()) { // maybe another request just finished it
+            SlippyBundler bundler = new SlippyBundler(moduleDir);
+            bundler.bundle(module, version, who, baseJar, jarFile);
+            bug("Built " + jarFile.getName());
+            removeStale(module, version, who, key);
+          }
+          return jarFile;
+        }
+      });
+      FutureTask<File> running = building.putIfAbsent(key, task);
+      if (running == null) {
+        running = task;
+        try {
+          task.run();
+        } finally {
+          building.remove(key, task);
+        }
+      }
+      try {
+        ret = running.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for " + jarFile.getName());
+      } catch (ExecutionException ex) {
+        IOException io = new IOException("Couldn't build " + jarFile.getName() + ": "
+            + ex.getCause());
+        io.initCause(ex.getCause());
+        throw io;
+      }
+    }
+    return ret;
+  }
+
+  private File getCachedJar(String module, String version, String who, String key) {
+    String name = SlippyBundler.makeVersionedJarName(module, version, who);
+    return new File(cacheDir, name.substring(0, name.length() - ".jar".length()) + "-" + key
+        + ".jar");
+  }
+
+  /**
+   * Deletes the jars of this module version that were built from older sources. A jar written after
+   * the current one (by a build of newer sources that finished first) is left alone. Deleting
+   * happens under the lock openJar holds, so a jar that is being opened stays until it is open.
+   */
+  private void removeStale(String module, String version, String who, String key) {
+    String name = SlippyBundler.makeVersionedJarName(module, version, who);
+    String prefix = name.substring(0, name.length() - ".jar".length()) + "-";
+    File currentJar = getCachedJar(module, version, who, key);
+    String current = currentJar.getName();
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      synchronized (removing) {
+        for (File f : files) {
+          String n = f.getName();
+          if (n.startsWith(prefix) && !n.equals(current)
+              && n.substring(prefix.length()).matches("[0-9a-f]{40}\\.jar")
+              && f.lastModified() <= currentJar.lastModified()) {
+            f.delete();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives a hash of the base jar's contents. The base jar is big and rarely changes, so the hash is
+   * only worked out again when its size or modification time changes.
+   */
+  private String hashBaseJar(File baseJar) throws IOException {
+    String stamp = baseJar.length() + ":" + baseJar.lastModified();
+    String ret;
+    synchronized (baseJarHashes) {
+      String[] known = baseJarHashes.get(baseJar.getAbsolutePath());
+      if (known != null && known[0].equals(stamp)) {
+        ret = known[1];
+      } else {
+        MessageDigest md = newDigest();
+        digestFile(md, baseJar);
+        ret = toHex(md.digest());
+        baseJarHashes.put(baseJar.getAbsolutePath(), new String[] {
+            stamp, ret
+        });
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Adds each file's relative name and contents to the digest, in name order so the same tree
+   * always gives the same hash. The contents.txt and module-info.properties files are generated by
+   * the bundler, so any left in the tree are skipped.
+   */
+  private static void digestTree(MessageDigest md, File dir, String prefix) throws IOException {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (File f : files) {
+        String name = prefix + f.getName();
+        if (f.isDirectory()) {
+          digestTree(md, f, name + "/");
+        } else if (!name.equals(SlippyBundler.CONTENTS_FILE)
+            && !name.equals(SlippyBundler.MOD_INFO_PROPS)) {
+          md.update((name + "\n" + f.length() + "\n").getBytes("UTF-8"));
+          digestFile(md, f);
+        }
+      }
+    }
+  }
+
+  private static void digestFile(MessageDigest md, File f) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(f));
+    try {
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        md.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException("SHA-1 is missing from this JVM", ex);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder buf = new StringBuilder();
+    for (byte b : bytes) {
+      buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+      buf.append(Character.forDigit(b & 0xf, 16));
+    }
+    return buf.toString();
+  }
+
+  private static void bug(String what) {
+    Debug.out("JarCache", what);
+  }
+}
@@ -1,6 +1,7 @@
 package org.six11.olive.server;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.StringTokenizer;
 
@@ -21,6 +22,8 @@ import org.six11.util.io.StreamUtil;
  */
 public class JarVendor extends SlippyServlet {
 
+  private JarCache jarCache;
+
   public JarVendor() {
     super();
   }
@@ -59,7 +62,7 @@ public class JarVendor extends SlippyServlet {
     String requestedFile = req.getPathInfo().substring(1);
     bug("Requested file: " + requestedFile);
     if (requestedFile.endsWith(".jar")) {
-      giveJar(requestedFile, resp);
+      giveJar(requestedFile, req, resp);
     } else if (requestedFile.endsWith("-contents.txt")) {
       giveContents(requestedFile, resp);
     }
@@ -91,8 +94,13 @@ public class JarVendor extends SlippyServlet {
     resp.getOutputStream().close();
   }
 
-  private void giveJar(String requestedFile, HttpServletResponse resp) throws IOException {
-    File cacheDir = getCacheDir();
+  /**
+   * Gives the jar for a module version, from the jar cache if its sources haven't changed. The
+   * response carries the cache key as an ETag, and a request whose If-None-Match names the current
+   * key gets a 304 with no body (and no build).
+   */
+  private void giveJar(String requestedFile, HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
     File moduleDir = getModuleDir();
 
     requestedFile = requestedFile.replace(".jar", "");
@@ -104,23 +112,17 @@ public class JarVendor extends SlippyServlet {
       who = tokens.nextToken();
     }
 
-    // Conjure the jar to deliver, either from the cache, or by creating/caching it.
-    String targetJarName = SlippyBundler.makeVersionedJarName(module, version, who);
-    File jarFile = new File(cacheDir, targetJarName);
-    if (version.equals("working")) {
-      bug("The user requested a working jar. Building it from disk without looking at the cache.");
-    } else {
-      bug("Ideally I would like to return " + jarFile.getAbsolutePath() + ". Does it exist? "
-          + jarFile.exists());
-    }
-    if (version.equals("working") || !jarFile.exists()) {
-      try {
-        File originalJarFile = getOriginalJarFile();
-        FileUtil.complainIfNotWriteable(originalJarFile);
-
-        SlippyBundler bundler = new SlippyBundler(moduleDir);
-        String lowerPath = SlippyBundler.getPathFragment(module, version, who);
-        File path = new File(moduleDir, lowerPath);
+    FileInputStream jarIn = null;
+    String etag = null;
+    boolean notModified = false;
+    try {
+      File originalJarFile = getOriginalJarFile();
+      FileUtil.complainIfNotWriteable(originalJarFile);
+
+      SlippyBundler bundler = new SlippyBundler(moduleDir);
+      String lowerPath = SlippyBundler.getPathFragment(module, version, who);
+      File path = new File(moduleDir, lowerPath);
+      synchronized (this) { // two first requests for a working copy shouldn't both make it
         if (!path.exists() && version.equals("working")) {
           bug("Making working directory for user " + who + " based on most recent version.");
           // The directory for the working code doesn't exist, so create it.
@@ -132,22 +134,64 @@ public class JarVendor extends SlippyServlet {
           bundler.makeWorking(module, version, who);
           bug("Made working directory for " + path.getAbsolutePath());
         }
-        File bundle = bundler.bundle(module, version, who, originalJarFile);
-        bundle.renameTo(jarFile);
-        bug("Produced bundle: " + bundle.getAbsolutePath());
-      } catch (Exception ex) {
-        bug("Got exception in there.");
-        ex.printStackTrace();
       }
-    } else {
-      bug("Yes!");
+      String key = getJarCache().getKey(module, version, who, originalJarFile);
+      etag = "\"" + key + "\"";
+      if (matches(req.getHeader("If-None-Match"), etag)) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        resp.setHeader("ETag", etag);
+        notModified = true;
+      } else {
+        jarIn = getJarCache().openJar(module, version, who, originalJarFile, key);
+      }
+    } catch (Exception ex) {
+      bug("Got exception in there.");
+      ex.printStackTrace();
     }
 
-    // Write the file to output using the correct content type.
-    String contentType = "application/java-archive";
-    resp.setContentType(contentType);
-    StreamUtil.writeFileToOutputStream(jarFile, resp.getOutputStream());
-    resp.getOutputStream().close();
+    if (jarIn != null) {
+      // Write the file to output using the correct content type.
+      try {
+        String contentType = "application/java-archive";
+        resp.setContentType(contentType);
+        resp.setHeader("ETag", etag);
+        resp.setContentLength((int) jarIn.getChannel().size());
+        StreamUtil.writeInputStreamToOutputStream(jarIn, resp.getOutputStream());
+        resp.getOutputStream().close();
+      } finally {
+        jarIn.close();
+      }
+    } else if (etag == null) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Couldn't make " + requestedFile + ".jar");
+    } else if (!notModified) { // the module is there, but building or opening its jar failed
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Couldn't make "
+          + requestedFile + ".jar");
+    }
+  }
+
+  /**
+   * Tells if an If-None-Match header names the given ETag (or is '*').
+   */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    boolean ret = false;
+    if (ifNoneMatch != null) {
+      StringTokenizer tags = new StringTokenizer(ifNoneMatch, ",");
+      while (!ret && tags.hasMoreTokens()) {
+        String tag = tags.nextToken().trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        ret = tag.equals(etag) || tag.equals("*");
+      }
+    }
+    return ret;
+  }
+
+  private synchronized JarCache getJarCache() {
+    if (jarCache == null) {
+      jarCache = new JarCache(getCacheDir(), getModuleDir());
+    }
+    return jarCache;
   }
 
   private static void bug(String what) {
@@ -1,15 +1,28 @@
 package org.six11.olive.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.six11.slippy.SlippyUtils;
 import org.six11.util.Debug;
@@ -17,7 +30,6 @@ import org.six11.util.args.Arguments;
 import org.six11.util.args.Arguments.ArgType;
 import org.six11.util.args.Arguments.ValueType;
 import org.six11.util.io.FileUtil;
-import org.six11.util.io.StreamUtil;
 import org.six11.util.io.SuffixFileFilter;
 
 /**
@@ -679,25 +691,31 @@ public class SlippyBundler {
   /**
    * Create a jar file that contains the versioned module slippy code. This does NOT look to see if
    * there is a cached version in baseDir.
+   * 
+   * The new jar is written in one pass: every entry of the base jar, then every file in the
+   * module's source tree (which replace base entries with the same name, as 'jar uf' would), then
+   * a generated 'contents.txt' and 'module-info.properties'. It is written next to the target and
+   * renamed into place, so a jar that is being read is never half-written.
    */
   public File bundle(String module, String version, String who, File jarFile)
       throws FileNotFoundException, IOException {
+    return bundle(module, version, who, jarFile, getVersionedJar(module, version, who));
+  }
+
+  /**
+   * Like bundle(module, version, who, jarFile), but writes the jar to the given file.
+   */
+  public File bundle(String module, String version, String who, File jarFile, File targetJar)
+      throws FileNotFoundException, IOException {
     String lowerPath = getPathFragment(module, version, who);
     File path = new File(baseDir, lowerPath);
     FileUtil.complainIfNotReadable(path);
 
-    // Write a 'contents.txt' file that lists each fully-qualified class name, one per line.
-    File contents = new File(path, CONTENTS_FILE);
-    if (contents.exists()) { // overwrite existing contents file from a previous execution
-      contents.delete();
-    }
-    FileOutputStream contentOut = new FileOutputStream(contents);
-    StreamUtil.writeStringToOutputStream(getContentsList(module, version, who), contentOut);
-    contentOut.close();
+    // 'contents.txt' lists each fully-qualified class name, one per line.
+    byte[] contents = getContentsList(module, version, who).getBytes("UTF-8");
 
-    // Write 'module-info.properties', a Properties file that contains information about the
-    // jar file: module name, user name, version, and main slippy class.
-    File modInfo = new File(path, MOD_INFO_PROPS);
+    // 'module-info.properties' is a Properties file that contains information about the jar file:
+    // module name, user name, version, and main slippy class.
     File mainFile = new File(path, MAIN_FILE); // this file might not exist
     String main = null;
     if (mainFile.exists() && mainFile.canRead()) {
@@ -710,25 +728,135 @@ public class SlippyBundler {
     if (main != null) {
       modInfoProps.setProperty("main", main);
     }
-    modInfoProps.store(new FileOutputStream(modInfo), null);
+    ByteArrayOutputStream modInfo = new ByteArrayOutputStream();
+    modInfoProps.store(modInfo, null);
+
+    // Module files, by entry name. The generated files win over any left on disk by older versions.
+    Map<String, File> moduleFiles = new TreeMap<String, File>();
+    findModuleFiles(path, "", moduleFiles);
+    moduleFiles.remove(CONTENTS_FILE);
+    moduleFiles.remove(MOD_INFO_PROPS);
 
-    File targetJar = getVersionedJar(module, version, who);
-    FileUtil.copy(jarFile, targetJar);
-    String cmd = "jar uf " + targetJar.getAbsolutePath() + " -C " + path.getAbsolutePath() + " .";
-    Process process = Runtime.getRuntime().exec(cmd);
-    int result;
+    File tmp = File.createTempFile(targetJar.getName(), ".tmp", targetJar.getParentFile());
+    byte[] buf = new byte[8192];
+    ZipFile base = new ZipFile(jarFile);
+    ZipOutputStream zout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    boolean ok = false;
     try {
-      result = process.waitFor();
-      if (result == 0) {
-        out("Bundled module " + module + ": " + targetJar.getAbsolutePath());
+      zout.setLevel(Deflater.BEST_SPEED);
+      Enumeration<? extends ZipEntry> entries = base.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry e = entries.nextElement();
+        String name = e.getName();
+        if (!moduleFiles.containsKey(name) && !name.equals(CONTENTS_FILE)
+            && !name.equals(MOD_INFO_PROPS)) {
+          ZipEntry copy = new ZipEntry(name);
+          copy.setTime(e.getTime());
+          zout.putNextEntry(copy);
+          InputStream in = base.getInputStream(e);
+          try {
+            copyStream(in, zout, buf);
+          } finally {
+            in.close();
+          }
+          zout.closeEntry();
+        }
+      }
+      for (Map.Entry<String, File> en : moduleFiles.entrySet()) {
+        File f = en.getValue();
+        ZipEntry e = new ZipEntry(en.getKey());
+        e.setTime(f.lastModified());
+        zout.putNextEntry(e);
+        if (!f.isDirectory()) {
+          InputStream in = new BufferedInputStream(new FileInputStream(f));
+          try {
+            copyStream(in, zout, buf);
+          } finally {
+            in.close();
+          }
+        }
+        zout.closeEntry();
+      }
+      zout.putNextEntry(new ZipEntry(CONTENTS_FILE));
+      zout.write(contents);
+      zout.closeEntry();
+      zout.putNextEntry(new ZipEntry(MOD_INFO_PROPS));
+      modInfo.writeTo(zout);
+      zout.closeEntry();
+      ok = true;
+    } finally {
+      zout.close();
+      base.close();
+      if (!ok) {
+        tmp.delete();
+      }
+    }
+    // renameTo replaces the old jar in one step where the platform allows it, so readers never
+    // find no jar at all. Where it won't replace an existing file, delete the old one and retry.
+    if (!tmp.renameTo(targetJar) && !(targetJar.delete() && tmp.renameTo(targetJar))) {
+      tmp.delete();
+      throw new IOException("Couldn't move bundle into place: " + targetJar.getAbsolutePath());
+    }
+    out("Bundled module " + module + ": " + targetJar.getAbsolutePath());
+    return targetJar;
+  }
+
+  /**
+   * Writes every .slippy file of a module version to the stream as a zip archive. Entries are named
+   * as in the module's jar (e.g. 'org/foo/hello/Hello.slippy'), so a client can load all the
+   * module's sources in one request instead of one request per class.
+   */
+  public void writeSourceArchive(String module, String version, String who, OutputStream out)
+      throws FileNotFoundException, IOException {
+    File path = new File(baseDir, getPathFragment(module, version, who));
+    FileUtil.complainIfNotReadable(path);
+    Map<String, File> moduleFiles = new TreeMap<String, File>();
+    findModuleFiles(path, "", moduleFiles);
+    byte[] buf = new byte[8192];
+    ZipOutputStream zout = new ZipOutputStream(out);
+    for (Map.Entry<String, File> en : moduleFiles.entrySet()) {
+      File f = en.getValue();
+      if (!f.isDirectory() && en.getKey().endsWith(".slippy")) {
+        ZipEntry e = new ZipEntry(en.getKey());
+        e.setTime(f.lastModified());
+        zout.putNextEntry(e);
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+          copyStream(in, zout, buf);
+        } finally {
+          in.close();
+        }
+        zout.closeEntry();
       }
-    } catch (InterruptedException ex) {
-      ex.printStackTrace();
     }
+    zout.finish();
+  }
 
-    return targetJar;
+  /**
+   * Collects the files and directories below 'dir', keyed by their jar entry names ('/'
+   * separated, with a trailing '/' for directories).
+   */
+  private static void findModuleFiles(File dir, String prefix, Map<String, File> found) {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          found.put(prefix + f.getName() + "/", f);
+          findModuleFiles(f, prefix + f.getName() + "/", found);
+        } else {
+          found.put(prefix + f.getName(), f);
+        }
+      }
+    }
   }
-  
+
+  private static void copyStream(InputStream in, OutputStream out, byte[] buf) throws IOException {
+    int n;
+    while ((n = in.read(buf)) > 0) {
+      out.write(buf, 0, n);
+    }
+  }
+
   private static void out(String what) {
     if (outputEnabled) {
       System.out.println(what);
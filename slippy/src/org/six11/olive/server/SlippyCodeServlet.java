@@ -1,29 +1,32 @@
 package org.six11.olive.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.six11.slippy.SlippyHtmlSyntaxColorizer;
 import org.six11.slippy.SlippyUtils;
 import org.six11.util.Debug;
 import org.six11.util.io.FileUtil;
 import org.six11.util.io.StreamUtil;
 
 /**
- * A servlet that lets you get lists of slippy files within a module, or actual slippy code. This
- * can be HTML, with full syntax colorization.
+ * A servlet that lets you get lists of slippy files within a module, or actual slippy code (one
+ * class at a time, or all of a module version as a zip archive). A single class can be HTML, with
+ * full syntax colorization. Colorized files are kept in an HtmlCache, so a file is only colorized
+ * again after it changes.
  * 
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
 public class SlippyCodeServlet extends SlippyServlet {
 
+  private HtmlCache htmlCache;
+
   /**
    * 
    */
@@ -51,29 +54,49 @@ public class SlippyCodeServlet extends SlippyServlet {
       }
       String absLoadPath = moduleDir.getAbsolutePath();
       List<File> matches = FileUtil.searchForSuffix(".slippy", moduleDir);
-      OutputStream out = resp.getOutputStream();
-      resp.setContentType("text/html");
+      StringBuilder buf = new StringBuilder();
       for (File m : matches) {
         if (m.getAbsolutePath().startsWith(absLoadPath)) {
           String slippyClass = SlippyUtils.fileStrToCodestStr(m.getAbsolutePath().substring(
               absLoadPath.length()));
-          outputFqClass(slippyClass, html, out, module, version, who, frames ? "codeFrame" : null,
+          outputFqClass(slippyClass, html, buf, module, version, who, frames ? "codeFrame" : null,
               mainClass);
         }
       }
+      byte[] list = buf.toString().getBytes("UTF-8");
+      resp.setContentType("text/html; charset=UTF-8");
+      resp.setContentLength(list.length);
+      resp.getOutputStream().write(list);
     } else if ("view".equals(mode)) {
       doView(resp, module, version, who, fqClass);
     } else if ("download".equals(mode)) {
       doDownload(resp, module, version, who, fqClass);
+    } else if ("archive".equals(mode)) {
+      doArchive(resp, module, version, who);
+    }
+  }
+
+  /**
+   * Sends every source file of the module version in one zip archive.
+   */
+  private void doArchive(HttpServletResponse resp, String module, String version, String who)
+      throws IOException {
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try {
+      new SlippyBundler(getModuleDir()).writeSourceArchive(module, version, who, zip);
+      resp.setContentType("application/zip");
+      resp.setContentLength(zip.size());
+      zip.writeTo(resp.getOutputStream());
+      bug("Archive: " + module + "#" + version + " (" + zip.size() + " bytes)");
+    } catch (IOException ex) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Couldn't archive module " + module + "#"
+          + version + ("working".equals(version) ? "(" + who + ")" : ""));
     }
   }
 
   private void doDownload(HttpServletResponse resp, String module, String version, String who,
       String fqClass) throws IOException {
-    String pathFrag = SlippyBundler.getPathFragment(module, version, who);
-    File moduleDir = new File(getModuleDir(), pathFrag);
-    String slippyFileName = SlippyUtils.codesetStrToFileStr(fqClass);
-    File slippyFile = new File(moduleDir, slippyFileName);
+    File slippyFile = getSlippyFile(module, version, who, fqClass);
     try {
       resp.setContentType("text/plain");
       resp.setContentLength((int) slippyFile.length());
@@ -85,26 +108,67 @@ public class SlippyCodeServlet extends SlippyServlet {
     }
   }
 
-  private void doView(HttpServletResponse resp, String module, String version, String who,
-      String fqClass) throws IOException {
+  /**
+   * Views and downloads are only as new as the file they show (and the colors used to show it),
+   * so conditional GETs for an unchanged file are answered with 304 Not Modified by the container.
+   */
+  protected long getLastModified(HttpServletRequest req) {
+    long ret = -1;
+    String mode = req.getParameter("mode");
+    String fqClass = req.getParameter("fqClass");
+    String version = req.getParameter("version");
+    if (("view".equals(mode) || "download".equals(mode)) && fqClass != null && version != null) {
+      try {
+        File slippyFile = getSlippyFile(req.getParameter("module"), version, req
+            .getParameter("who"), fqClass);
+        if (slippyFile.exists()) {
+          ret = "view".equals(mode) ? HtmlCache.getLastModified(slippyFile, getColorFile())
+              : slippyFile.lastModified();
+        }
+      } catch (FileNotFoundException ex) {
+        // a bad version number. doGet will say so.
+      }
+    }
+    return ret;
+  }
+
+  private File getSlippyFile(String module, String version, String who, String fqClass)
+      throws FileNotFoundException {
     String pathFrag = SlippyBundler.getPathFragment(module, version, who);
     File moduleDir = new File(getModuleDir(), pathFrag);
-    String slippyFileName = SlippyUtils.codesetStrToFileStr(fqClass);
-    File slippyFile = new File(moduleDir, slippyFileName);
+    return new File(moduleDir, SlippyUtils.codesetStrToFileStr(fqClass));
+  }
+
+  private File getColorFile() {
+    String colorFile = getServletContext().getInitParameter(COLORS_PARAM);
+    return (colorFile != null && colorFile.length() > 0) ? new File(colorFile) : null;
+  }
+
+  private synchronized HtmlCache getHtmlCache() {
+    if (htmlCache == null) {
+      long maxBytes = HtmlCache.DEFAULT_MAX_BYTES;
+      String param = getServletContext().getInitParameter(HTML_CACHE_BYTES_PARAM);
+      if (param != null && param.trim().length() > 0) {
+        maxBytes = Long.parseLong(param.trim());
+      }
+      htmlCache = new HtmlCache(maxBytes);
+    }
+    return htmlCache;
+  }
+
+  private void doView(HttpServletResponse resp, String module, String version, String who,
+      String fqClass) throws IOException {
+    File slippyFile = getSlippyFile(module, version, who, fqClass);
 
     boolean success = false;
     if (slippyFile.exists()) {
-      SlippyHtmlSyntaxColorizer colorizer = new SlippyHtmlSyntaxColorizer();
-      String colorFile = getServletContext().getInitParameter("colors");
+      File colorFile = getColorFile();
       try {
-        if (colorFile != null && colorFile.length() > 0) {
-          colorizer.setStyleProperties(colorFile);
-        }
-        String htmlString = colorizer.walk(slippyFile.getAbsolutePath(), true);
-        resp.setContentType("text/html");
-        resp.setContentLength(htmlString.length());
-        StreamUtil.writeStringToOutputStream(htmlString, resp.getOutputStream());
-        bug("View: " + pathFrag + " " + slippyFileName + " (" + slippyFile.length() + " bytes)");
+        byte[] html = getHtmlCache().getHtml(slippyFile, colorFile);
+        resp.setContentType("text/html; charset=UTF-8");
+        resp.setContentLength(html.length);
+        resp.getOutputStream().write(html);
+        bug("View: " + slippyFile.getPath() + " (" + slippyFile.length() + " bytes)");
         success = true;
       } catch (FileNotFoundException ex) {
         bug("Warning: colorizer properties file does not exist: " + colorFile);
@@ -119,8 +183,8 @@ public class SlippyCodeServlet extends SlippyServlet {
     }
   }
 
-  private void outputFqClass(String fqClass, boolean html, OutputStream out, String module,
-      String version, String who, String targetFrame, String mainClass) throws IOException {
+  private void outputFqClass(String fqClass, boolean html, StringBuilder out, String module,
+      String version, String who, String targetFrame, String mainClass) {
     if (html) {
       StringBuilder line = new StringBuilder();
       String contextPath = getServletContext().getContextPath();
@@ -141,9 +205,9 @@ public class SlippyCodeServlet extends SlippyServlet {
         line.append(" *main-class*");
       }
       line.append("</nobr><br />\n");
-      StreamUtil.writeStringToOutputStream(line.toString(), out);
+      out.append(line);
     } else {
-      StreamUtil.writeStringToOutputStream(fqClass + "\n", out);
+      out.append(fqClass + "\n");
     }
   }
 
@@ -15,6 +15,8 @@ public class SlippyServlet extends HttpServlet {
   public final static String MODULE_DIR_PARAM = "moduleDir"; // must agree with web.xml
   public final static String ORIGINAL_JAR_PARAM = "originalJar"; // must agree with web.xml
   public final static String OLIVE_CODE_PARAM = "oliveSlippyCode"; // must agree with web.xml
+  public final static String COLORS_PARAM = "colors"; // must agree with web.xml
+  public final static String HTML_CACHE_BYTES_PARAM = "htmlCacheBytes"; // optional in web.xml
 
 
   public SlippyServlet() {
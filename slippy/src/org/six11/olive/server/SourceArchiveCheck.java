@@ -0,0 +1,303 @@
+package org.six11.olive.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.six11.olive.ModuleSources;
+import org.six11.olive.WebEnvironment;
+import org.six11.util.io.FileUtil;
+
+/**
+ * Checks the module source archive path from end to end, with no web server. It makes a module's
+ * working copy in a temporary directory and puts a SlippyCodeServlet in a small fake container
+ * that hands it stub requests and responses. A WebEnvironment for the module then loads both of
+ * its classes, and its requests go to the servlet's 'archive' mode instead of the network. Both
+ * sources must come back unchanged from one request, and the archive must leave out the module's
+ * other files. Exits with status 1 if anything is wrong.
+ *
+ * <pre>
+ *   java org.six11.olive.server.SourceArchiveCheck
+ * </pre>
+ */
+public class SourceArchiveCheck {
+
+  private static final String CODE_BASE = "http://olive.test/olive/";
+  private static final String MODULE = "hello";
+  private static final String WHO = "tester";
+  private static final String HELLO = "org.foo.hello.Hello";
+  private static final String GREETER = "org.foo.hello.util.Greeter";
+  private static final String NOTES = "notes.txt";
+
+  public static void main(String[] args) throws Exception {
+    File base = File.createTempFile("slippy-archive-", "");
+    base.delete();
+    List<String> problems;
+    try {
+      problems = check(base);
+    } finally {
+      FileUtil.deleteTree(base);
+    }
+    for (String p : problems) {
+      System.out.println("FAIL " + p);
+    }
+    if (problems.isEmpty()) {
+      System.out.println("PASS module sources load through the code servlet's archive mode");
+    } else {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Serves a small module kept under 'base' and loads it through a WebEnvironment, giving a
+   * description of each thing that didn't work as it should.
+   */
+  static List<String> check(File base) throws Exception {
+    List<String> ret = new ArrayList<String>();
+    File dir = new File(base, SlippyBundler.getPathFragment(MODULE, "working", WHO));
+    String hello = "codeset org.foo.hello\n\nclass Hello\n  define greet()\n"
+        + "    print(\"hello\")\n  done\ndone\n";
+    String greeter = "codeset org.foo.hello.util\n\nclass Greeter\ndone\n";
+    write(new File(dir, "org/foo/hello/Hello.slippy"), hello);
+    write(new File(dir, "org/foo/hello/util/Greeter.slippy"), greeter);
+    write(new File(dir, NOTES), "not a source file\n");
+    write(new File(dir, SlippyBundler.MOD_INFO_PROPS), "module=" + MODULE + "\n");
+
+    Map<String, String> params = new HashMap<String, String>();
+    params.put(SlippyServlet.MODULE_DIR_PARAM, base.getAbsolutePath());
+    final FakeContainer container = new FakeContainer(new SlippyCodeServlet(), "code", params);
+    final List<FakeContainer.Response> responses = new ArrayList<FakeContainer.Response>();
+    Properties moduleInfo = new Properties();
+    moduleInfo.setProperty("module", MODULE);
+    moduleInfo.setProperty("version", "working");
+    moduleInfo.setProperty("who", WHO);
+    WebEnvironment env = new WebEnvironment(CODE_BASE, moduleInfo) {
+      protected InputStream openUrl(String url) throws IOException {
+        FakeContainer.Response r = container.get(url);
+        responses.add(r);
+        if (r.status != HttpServletResponse.SC_OK) {
+          throw new IOException("The servlet answered " + r.status + " for " + url);
+        }
+        return new ByteArrayInputStream(r.body.toByteArray());
+      }
+    };
+
+    expect(ret, HELLO, hello, env.loadStringFromFile(env.classNameToFileName(HELLO)));
+    expect(ret, GREETER, greeter, env.loadStringFromFile(env.classNameToFileName(GREETER)));
+    if (responses.size() != 1) {
+      ret.add("loading both classes took " + responses.size() + " requests instead of one");
+    }
+    for (FakeContainer.Response r : responses) {
+      if (!"application/zip".equals(r.contentType)) {
+        ret.add("the archive was sent as " + r.contentType);
+      }
+      if (r.contentLength != r.body.size()) {
+        ret.add("the archive's length was given as " + r.contentLength + " but " + r.body.size()
+            + " bytes were sent");
+      }
+      Map<String, String> entries = new TreeMap<String, String>();
+      ModuleSources.readArchive(new ByteArrayInputStream(r.body.toByteArray()), entries);
+      for (String name : entries.keySet()) {
+        if (!name.endsWith(".slippy")) {
+          ret.add(name + " should not be in the archive");
+        }
+      }
+    }
+    FakeContainer.Response missing = container.get(CODE_BASE
+        + "code?module=nosuchmodule&version=1&mode=archive");
+    if (missing.status != HttpServletResponse.SC_NOT_FOUND) {
+      ret.add("an archive of a missing module got status " + missing.status + " instead of 404");
+    }
+    return ret;
+  }
+
+  private static void expect(List<String> problems, String name, String want, String got) {
+    if (!want.equals(got)) {
+      problems.add(name + (got == null ? " is missing" : " came back changed: " + got));
+    }
+  }
+
+  private static void write(File f, String contents) {
+    f.getParentFile().mkdirs();
+    FileUtil.writeStringToFile(f, contents, false);
+  }
+
+  /**
+   * Just enough of a servlet container to send GET requests to one servlet: its init parameters,
+   * and requests whose parameters come from a URL's query string. Any other method of the stub
+   * request, response or context gives null, zero or false.
+   */
+  static class FakeContainer {
+
+    private final javax.servlet.http.HttpServlet servlet;
+    private final String path;
+
+    FakeContainer(javax.servlet.http.HttpServlet servlet, String path,
+        final Map<String, String> initParams) throws ServletException {
+      this.servlet = servlet;
+      this.path = path;
+      final ServletContext context = stub(ServletContext.class, new Answer() {
+        public Object answer(String method, Object[] args) {
+          return method.equals("getInitParameter") ? initParams.get(args[0]) : null;
+        }
+      });
+      servlet.init(stub(ServletConfig.class, new Answer() {
+        public Object answer(String method, Object[] args) {
+          Object ret = null;
+          if (method.equals("getServletContext")) {
+            ret = context;
+          } else if (method.equals("getInitParameterNames")) {
+            ret = Collections.enumeration(new ArrayList<String>());
+          }
+          return ret;
+        }
+      }));
+    }
+
+    /**
+     * Sends a GET for the URL to the servlet, which must be at this container's path.
+     */
+    Response get(String url) throws IOException {
+      int q = url.indexOf('?');
+      String where = (q < 0) ? url : url.substring(0, q);
+      if (!where.endsWith("/" + path)) {
+        throw new IOException("Nothing is at " + where);
+      }
+      final Map<String, String> params = new HashMap<String, String>();
+      if (q >= 0) {
+        for (String pair : url.substring(q + 1).split("&")) {
+          int eq = pair.indexOf('=');
+          if (eq > 0) {
+            params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair
+                .substring(eq + 1), "UTF-8"));
+          }
+        }
+      }
+      HttpServletRequest req = stub(HttpServletRequest.class, new Answer() {
+        public Object answer(String method, Object[] args) {
+          Object ret = null;
+          if (method.equals("getParameter")) {
+            ret = params.get(args[0]);
+          } else if (method.equals("getMethod")) {
+            ret = "GET";
+          } else if (method.equals("getProtocol")) {
+            ret = "HTTP/1.1";
+          } else if (method.equals("getDateHeader")) {
+            ret = -1L;
+          }
+          return ret;
+        }
+      });
+      final Response ret = new Response();
+      final ServletOutputStream body = new ServletOutputStream() {
+        public void write(int b) {
+          ret.body.write(b);
+        }
+      };
+      HttpServletResponse resp = stub(HttpServletResponse.class, new Answer() {
+        public Object answer(String method, Object[] args) {
+          if (method.equals("setStatus") || method.equals("sendError")) {
+            ret.status = (Integer) args[0];
+          } else if (method.equals("setContentType")) {
+            ret.contentType = (String) args[0];
+          } else if (method.equals("setContentLength")) {
+            ret.contentLength = (Integer) args[0];
+          }
+          return method.equals("getOutputStream") ? body : null;
+        }
+      });
+      try {
+        servlet.service(req, resp);
+      } catch (ServletException ex) {
+        IOException io = new IOException("The servlet failed: " + ex.getMessage());
+        io.initCause(ex);
+        throw io;
+      }
+      return ret;
+    }
+
+    /**
+     * What the servlet sent back.
+     */
+    static class Response {
+      int status = HttpServletResponse.SC_OK;
+      String contentType;
+      int contentLength = -1;
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    }
+
+    interface Answer {
+      Object answer(String method, Object[] args);
+    }
+
+    /**
+     * Makes an object of the interface whose methods are answered by 'answer'. A null answer to a
+     * method that returns a primitive becomes that primitive's zero (or false).
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, final Answer answer) {
+      return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {
+        type
+      }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method m, Object[] args) {
+          Object ret;
+          if (m.getName().equals("equals")) {
+            ret = (proxy == args[0]);
+          } else if (m.getName().equals("hashCode")) {
+            ret = System.identityHashCode(proxy);
+          } else if (m.getName().equals("toString")) {
+            ret = "stub " + m.getDeclaringClass().getSimpleName();
+          } else {
+            ret = answer.answer(m.getName(), args);
+            if (ret == null && m.getReturnType().isPrimitive()) {
+              ret = zero(m.getReturnType());
+            }
+          }
+          return ret;
+        }
+      });
+    }
+
+    private static Object zero(Class<?> type) {
+      Object ret = null;
+      if (type == Boolean.TYPE) {
+        ret = Boolean.FALSE;
+      } else if (type == Integer.TYPE) {
+        ret = 0;
+      } else if (type == Long.TYPE) {
+        ret = 0L;
+      } else if (type == Double.TYPE) {
+        ret = 0.0;
+      } else if (type == Float.TYPE) {
+        ret = 0f;
+      } else if (type == Short.TYPE) {
+        ret = (short) 0;
+      } else if (type == Byte.TYPE) {
+        ret = (byte) 0;
+      } else if (type == Character.TYPE) {
+        ret = (char) 0;
+      }
+      return ret;
+    }
+  }
+}
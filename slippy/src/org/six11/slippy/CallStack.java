@@ -0,0 +1,75 @@
+package org.six11.slippy;
+
+/**
+ * The interpreter's stack of function calls. A call only records the node it was made from, the
+ * file that was current and the function being called, in plain arrays. SlippyLocation objects
+ * (and their strings) are made only when somebody asks for a stack trace, which is rare compared
+ * to calling functions.
+ *
+ * This is not synchronized. Each interpreter has its own, used by the thread running it.
+ */
+class CallStack {
+
+  private Node[] sites;
+  private String[] files;
+  private String[] functions;
+  private int depth;
+
+  CallStack() {
+    sites = new Node[32];
+    files = new String[32];
+    functions = new String[32];
+    depth = 0;
+  }
+
+  void push(Node site, String file, String function) {
+    if (depth == sites.length) {
+      grow();
+    }
+    sites[depth] = site;
+    files[depth] = file;
+    functions[depth] = function;
+    depth++;
+  }
+
+  void pop() {
+    depth--;
+    sites[depth] = null; // don't hold on to the caller's tree
+    files[depth] = null;
+    functions[depth] = null;
+  }
+
+  private void grow() {
+    int n = sites.length * 2;
+    Node[] s = new Node[n];
+    String[] f = new String[n];
+    String[] fn = new String[n];
+    System.arraycopy(sites, 0, s, 0, depth);
+    System.arraycopy(files, 0, f, 0, depth);
+    System.arraycopy(functions, 0, fn, 0, depth);
+    sites = s;
+    files = f;
+    functions = fn;
+  }
+
+  int size() {
+    return depth;
+  }
+
+  /**
+   * The name of the function now running, or null at the top level of a file.
+   */
+  String getCurrentFunction() {
+    return depth == 0 ? null : functions[depth - 1];
+  }
+
+  /**
+   * Makes the location of the given call (0 is the oldest): the file and function it was made from,
+   * and where the call-site node is in that file.
+   */
+  SlippyLocation getLocation(int i) {
+    Node site = sites[i];
+    return new SlippyLocation(files[i], i == 0 ? null : functions[i - 1], site == null ? 0 : site
+        .getLine(), site == null ? 0 : site.getCharPositionInLine());
+  }
+}
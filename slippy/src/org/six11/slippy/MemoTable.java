@@ -0,0 +1,221 @@
+package org.six11.slippy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.antlr.runtime.tree.Tree;
+
+/**
+ * Remembered results of one @cacheable function, for one context (the instance or class the
+ * function runs in, or none for a global function). Lookups hash the argument list once. When the
+ * table is full the least recently used (LRU) or least frequently used (LFU) entry is dropped.
+ *
+ * Numbers, strings, booleans and nil are compared by value. Instances, functions and the like are
+ * compared by identity. A call with an array or map argument isn't remembered at all: the same
+ * array could have different contents next time, and comparing contents would mean walking them on
+ * every call.
+ *
+ * The capacity and policy come from the annotation: @cacheable, @cacheable(50) or
+ * @cacheable(50, "lfu").
+ */
+public class MemoTable {
+
+  public static enum Policy {
+    LRU, LFU
+  }
+
+  public static final int DEFAULT_CAPACITY = 10;
+
+  private final String name;
+  private final int capacity;
+  private final Policy policy;
+  private final LinkedHashMap<Key, Entry> entries;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long skipped; // calls not remembered because an argument was an array or map
+
+  public MemoTable(String name, int capacity, Policy policy) {
+    this.name = name;
+    this.capacity = Math.max(1, capacity);
+    this.policy = policy;
+    // access order, so iteration starts at the least recently used entry.
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  }
+
+  /**
+   * Gives the remembered result for these arguments, or null if there isn't one. Note that nil is
+   * a perfectly good result, so callers must check for null, not Thing.NIL.
+   */
+  public Thing get(List<Thing> argVals) {
+    Thing ret = null;
+    Entry e = null;
+    if (!canRemember(argVals)) {
+      skipped++;
+    } else {
+      e = entries.get(new Key(argVals));
+    }
+    if (e != null) {
+      e.uses++;
+      hits++;
+      ret = e.value;
+    } else if (canRemember(argVals)) {
+      misses++;
+    }
+    return ret;
+  }
+
+  public void put(List<Thing> argVals, Thing value) {
+    if (canRemember(argVals)) {
+      Key key = new Key(argVals);
+      if (!entries.containsKey(key) && entries.size() >= capacity) {
+        evict();
+      }
+      entries.put(key, new Entry(value));
+    }
+  }
+
+  /**
+   * Tells if a result for these arguments can be remembered, which it can't if any of them is an
+   * array or map (they can change between calls without becoming a different object).
+   */
+  static boolean canRemember(List<Thing> argVals) {
+    boolean ret = true;
+    for (int i = 0; ret && i < argVals.size(); i++) {
+      Thing.Type type = SlippyUtils.dereference(argVals.get(i)).type;
+      ret = type != Thing.Type.Array && type != Thing.Type.Map;
+    }
+    return ret;
+  }
+
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    if (policy == Policy.LRU) {
+      it.next();
+      it.remove();
+    } else {
+      // the first entry with the fewest uses is also the least recently used of those.
+      Entry victim = null;
+      while (it.hasNext()) {
+        Entry e = it.next();
+        if (victim == null || e.uses < victim.uses) {
+          victim = e;
+        }
+      }
+      entries.values().remove(victim);
+    }
+    evictions++;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getSkipped() {
+    return skipped;
+  }
+
+  public String toString() {
+    return name + ": " + hits + " hits, " + misses + " misses, " + evictions + " evictions, "
+        + entries.size() + "/" + capacity + " entries (" + policy + ")"
+        + (skipped > 0 ? ", " + skipped + " calls not remembered (array or map arguments)" : "");
+  }
+
+  private static class Entry {
+    final Thing value;
+    int uses;
+
+    Entry(Thing value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * An argument list with its hash worked out once.
+   */
+  private static class Key {
+    private final Thing[] args;
+    private final int hash;
+
+    Key(List<Thing> argVals) {
+      args = argVals.toArray(new Thing[argVals.size()]);
+      int h = 1;
+      for (Thing t : args) {
+        h = 31 * h + (isValue(t) ? t.hashCode() : System.identityHashCode(t));
+      }
+      hash = h;
+    }
+
+    private static boolean isValue(Thing t) {
+      return t.type == Thing.Type.Number || t.type == Thing.Type.String
+          || t.type == Thing.Type.Boolean || t.type == Thing.Type.Nil;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object other) {
+      boolean ret = false;
+      if (other instanceof Key) {
+        Thing[] them = ((Key) other).args;
+        ret = (them.length == args.length);
+        for (int i = 0; ret && i < args.length; i++) {
+          ret = (args[i] == them[i]) || (isValue(args[i]) && args[i].equals(them[i]));
+        }
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * Reads the optional capacity and policy from a @cacheable annotation.
+   */
+  static MemoTable make(String name, Thing.Annotation ann, SlippyInterpreter interp) {
+    int capacity = DEFAULT_CAPACITY;
+    Policy policy = Policy.LRU;
+    List<Tree> expressions = ann.getExpressions();
+    if (expressions.size() > 0) {
+      Thing cap = interp.eval(expressions.get(0));
+      if (cap.type == Thing.Type.Number) {
+        capacity = SlippyUtils.toInt(cap);
+      }
+    }
+    if (expressions.size() > 1) {
+      String p = interp.eval(expressions.get(1)).toString();
+      if (p.equalsIgnoreCase("lfu")) {
+        policy = Policy.LFU;
+      }
+    }
+    return new MemoTable(name, capacity, policy);
+  }
+}
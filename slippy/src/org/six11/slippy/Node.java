@@ -0,0 +1,844 @@
+package org.six11.slippy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.runtime.tree.Tree;
+
+/**
+ * A compiled piece of a Slippy program. SlippyCompiler builds a tree of Nodes from the ANTLR parse
+ * tree once per file, with token text already turned into names, numbers and strings and with the
+ * shape of each construct already checked. The interpreter then runs the Nodes directly instead of
+ * switching on tree node types every time a statement or expression comes around.
+ *
+ * Each node knows its source tree so errors and stack traces can still point at a line and column.
+ * The behavior itself lives in SlippyInterpreter; nodes only dispatch to the right method.
+ */
+public class Node {
+
+  final Tree tree;
+
+  Node(Tree tree) {
+    this.tree = tree;
+  }
+
+  /**
+   * Evaluates this node as an expression. Nodes that are not expressions complain and give nil.
+   */
+  Thing eval(SlippyInterpreter interp) {
+    interp.cantEval(this);
+    return Thing.NIL;
+  }
+
+  /**
+   * Executes this node as a statement. Nodes that are not statements complain.
+   */
+  void exec(SlippyInterpreter interp) {
+    interp.cantExec(this);
+  }
+
+  /**
+   * Finds the symbol this node refers to in the given table. Only identifiers, member
+   * expressions, indexed expressions and function calls can be resolved.
+   */
+  @SuppressWarnings("unused")
+  ResolveData resolveWithTable(SlippyInterpreter interp, boolean insertMissing, SymbolTable table) {
+    return new ResolveData();
+  }
+
+  /**
+   * The resolver pass. Declares the names this node can create in the given scope and registers
+   * identifiers for slot binding. 'scope' is null in file and class bodies, whose symbols are
+   * dynamic. 'inFrame' is false for the parts of a member expression that are looked up in another
+   * object's table rather than the current frame.
+   */
+  @SuppressWarnings("unused")
+  void resolve(Scope scope, boolean inFrame) {
+  }
+
+  static void resolveChildren(Node[] nodes, Scope scope) {
+    for (int i = 0; i < nodes.length; i++) {
+      if (nodes[i] != null) {
+        nodes[i].resolve(scope, true);
+      }
+    }
+  }
+
+  static void resolveChild(Node node, Scope scope) {
+    if (node != null) {
+      node.resolve(scope, true);
+    }
+  }
+
+  public int getLine() {
+    return tree.getLine();
+  }
+
+  public int getCharPositionInLine() {
+    return tree.getCharPositionInLine();
+  }
+
+  public String toString() {
+    return tree.getText();
+  }
+
+  // ----------------------------------------------------------------------------- statements
+
+  /**
+   * A program, block or statement list: runs each statement in order.
+   */
+  static class Block extends Node {
+    final Node[] statements;
+
+    Block(Tree tree, Node[] statements) {
+      super(tree);
+      this.statements = statements;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      for (int i = 0; i < statements.length; i++) {
+        interp.exec(statements[i]);
+      }
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChildren(statements, scope);
+    }
+  }
+
+  /**
+   * An expression used as a statement. Its value becomes the machine's return value.
+   */
+  static class ExprStmt extends Node {
+    final Node expr;
+
+    ExprStmt(Tree tree, Node expr) {
+      super(tree);
+      this.expr = expr;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.getMachine().setReturnValue(interp.eval(expr));
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(expr, scope);
+    }
+  }
+
+  static class ClassDef extends Node {
+    final String name;
+    final Node superCodeset; // null if the class doesn't extend anything
+    final String superName;
+    final Node[] mixers;
+    final Node[] members;
+
+    ClassDef(Tree tree, String name, Node superCodeset, String superName, Node[] mixers,
+        Node[] members) {
+      super(tree);
+      this.name = name;
+      this.superCodeset = superCodeset;
+      this.superName = superName;
+      this.mixers = mixers;
+      this.members = members;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.stashClass(this);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      // the class body gets its own dynamic table, which becomes the class's symbols.
+      resolveChild(superCodeset, null);
+      resolveChildren(mixers, null);
+      resolveChildren(members, null);
+    }
+  }
+
+  static class FieldDef extends Node {
+    final String name;
+    final Node value; // null if the field has no initial value
+    final List<Tree> annotations;
+
+    FieldDef(Tree tree, String name, Node value, List<Tree> annotations) {
+      super(tree);
+      this.name = name;
+      this.value = value;
+      this.annotations = annotations;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.stashField(this);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(value, scope);
+      if (scope != null) {
+        scope.declare(name);
+      }
+    }
+  }
+
+  static class FunctionDef extends Node {
+    final String name;
+    final Lambda lambda;
+    final List<Tree> annotations;
+
+    FunctionDef(Tree tree, String name, Lambda lambda, List<Tree> annotations) {
+      super(tree);
+      this.name = name;
+      this.lambda = lambda;
+      this.annotations = annotations;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.stashFunction(this);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      lambda.resolve(scope, inFrame);
+      if (scope != null) {
+        scope.declare(name);
+      }
+    }
+  }
+
+  static class Import extends Node {
+    final String[] codesets;
+    final String[] classNames;
+
+    Import(Tree tree, String[] codesets, String[] classNames) {
+      super(tree);
+      this.codesets = codesets;
+      this.classNames = classNames;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      for (int i = 0; i < classNames.length; i++) {
+        interp.importFromFile(classNames[i], codesets[i]);
+      }
+    }
+  }
+
+  static class While extends Node {
+    final Node condition;
+    final Node body; // null for an empty loop
+
+    While(Tree tree, Node condition, Node body) {
+      super(tree);
+      this.condition = condition;
+      this.body = body;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.doWhile(this);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(condition, scope);
+      resolveChild(body, scope);
+    }
+  }
+
+  /**
+   * An if/else-if/else chain. The else clause is null if there isn't one, and so is the body of a
+   * condition with an empty block.
+   */
+  static class If extends Node {
+    final Node[] conditions;
+    final Node[] bodies;
+    final Node elseBody;
+
+    If(Tree tree, Node[] conditions, Node[] bodies, Node elseBody) {
+      super(tree);
+      this.conditions = conditions;
+      this.bodies = bodies;
+      this.elseBody = elseBody;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.doIf(this);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChildren(conditions, scope);
+      resolveChildren(bodies, scope);
+      resolveChild(elseBody, scope);
+    }
+  }
+
+  /**
+   * loop (x : numberOrArray) ... done
+   */
+  static class LoopEach extends Node {
+    final String varName;
+    final Node collection;
+    final Node body;
+    Scope scope; // each iteration gets a table with this layout
+    int varSlot;
+
+    LoopEach(Tree tree, String varName, Node collection, Node body) {
+      super(tree);
+      this.varName = varName;
+      this.collection = collection;
+      this.body = body;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.doLoop(this);
+    }
+
+    void resolve(Scope outer, boolean inFrame) {
+      resolveChild(collection, outer); // evaluated before the iteration's table is pushed
+      scope = new Scope(outer);
+      varSlot = scope.declare(varName);
+      resolveChild(body, scope);
+      scope.close();
+    }
+  }
+
+  /**
+   * loop (numberOrBoolean) ... done
+   */
+  static class LoopCond extends Node {
+    final Node condition;
+    final Node body;
+    Scope scope; // one table with this layout for the whole loop
+
+    LoopCond(Tree tree, Node condition, Node body) {
+      super(tree);
+      this.condition = condition;
+      this.body = body;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.doLoop(this);
+    }
+
+    void resolve(Scope outer, boolean inFrame) {
+      scope = new Scope(outer);
+      resolveChild(condition, scope);
+      resolveChild(body, scope);
+      scope.close();
+    }
+  }
+
+  // ---------------------------------------------------------------------------- expressions
+
+  /**
+   * A codeset, either as an expression or (when 'decl' is true) as the codeset declaration at the
+   * top of a file.
+   */
+  static class Codeset extends Node {
+    final String codesetStr;
+    final boolean decl;
+
+    Codeset(Tree tree, String codesetStr, boolean decl) {
+      super(tree);
+      this.codesetStr = codesetStr;
+      this.decl = decl;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      Thing ret = Thing.NIL;
+      if (decl) {
+        ret = super.eval(interp);
+      } else {
+        ret = interp.doCodesetExpr(this);
+      }
+      return ret;
+    }
+
+    void exec(SlippyInterpreter interp) {
+      if (decl) {
+        interp.doCodesetExpr(this);
+      } else {
+        super.exec(interp);
+      }
+    }
+  }
+
+  static class Arith extends Node {
+    final char op;
+    final Node left;
+    final Node right;
+
+    Arith(Tree tree, char op, Node left, Node right) {
+      super(tree);
+      this.op = op;
+      this.left = left;
+      this.right = right;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doArithmeticExpr(left, right, op);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(left, scope);
+      resolveChild(right, scope);
+    }
+  }
+
+  /**
+   * Comparisons. The op is one of < [ > ] = ! for <, <=, >, >=, == and !=.
+   */
+  static class Equality extends Node {
+    final char op;
+    final Node left;
+    final Node right;
+
+    Equality(Tree tree, char op, Node left, Node right) {
+      super(tree);
+      this.op = op;
+      this.left = left;
+      this.right = right;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doEqualityExpr(left, right, op);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(left, scope);
+      resolveChild(right, scope);
+    }
+  }
+
+  static class AndOr extends Node {
+    final boolean and;
+    final Node left;
+    final Node right;
+
+    AndOr(Tree tree, boolean and, Node left, Node right) {
+      super(tree);
+      this.and = and;
+      this.left = left;
+      this.right = right;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doAndOr(and, left, right);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(left, scope);
+      resolveChild(right, scope);
+    }
+  }
+
+  static class Assign extends Node {
+    final Node left;
+    final Node right;
+
+    Assign(Tree tree, Node left, Node right) {
+      super(tree);
+      this.left = left;
+      this.right = right;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doAssignmentExpr(this);
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.eval(this); // can happen in class discovery
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(right, scope);
+      if (scope != null && left instanceof Id) {
+        scope.declare(((Id) left).name); // a missing variable is created in the current table
+      }
+      resolveChild(left, scope);
+    }
+  }
+
+  static class Neg extends Node {
+    final Node operand;
+
+    Neg(Tree tree, Node operand) {
+      super(tree);
+      this.operand = operand;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doNegate(operand);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(operand, scope);
+    }
+  }
+
+  static class Not extends Node {
+    final Node operand;
+
+    Not(Tree tree, Node operand) {
+      super(tree);
+      this.operand = operand;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return Thing.Bool.valueOf(!interp.eval(operand).isTrue());
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(operand, scope);
+    }
+  }
+
+  static class Pos extends Node {
+    final Node operand;
+
+    Pos(Tree tree, Node operand) {
+      super(tree);
+      this.operand = operand;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.eval(operand);
+    }
+
+    void exec(SlippyInterpreter interp) {
+      interp.initializeVariable(operand, false); // can happen in class discovery
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      if (scope != null && operand instanceof Id) {
+        scope.declare(((Id) operand).name);
+      }
+      resolveChild(operand, scope);
+    }
+  }
+
+  /**
+   * Literals make their (immutable) value once, when the file is compiled.
+   */
+  static class Num extends Node {
+    final Thing.Num value;
+
+    Num(Tree tree, double value) {
+      super(tree);
+      this.value = Thing.Num.valueOf(value);
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return value;
+    }
+  }
+
+  static class Str extends Node {
+    final Thing.Str value;
+
+    Str(Tree tree, String value) {
+      super(tree);
+      this.value = new Thing.Str(value);
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return value;
+    }
+  }
+
+  static class Bool extends Node {
+    final Thing.Bool value;
+
+    Bool(Tree tree, boolean value) {
+      super(tree);
+      this.value = Thing.Bool.valueOf(value);
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return value;
+    }
+  }
+
+  static class Lambda extends Node {
+    final List<String> paramNames;
+    final Tree block; // the uncompiled body, null for an empty function
+    final Node body;
+    Scope scope; // layout of the frame pushed for each call
+    int[] paramSlots;
+
+    Lambda(Tree tree, List<String> paramNames, Tree block, Node body) {
+      super(tree);
+      this.paramNames = paramNames;
+      this.block = block;
+      this.body = body;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doLambdaDecl(this);
+    }
+
+    /**
+     * A function body is a new activation. It can't see the variables of the code that made it, so
+     * its scope has no parent.
+     */
+    void resolve(Scope outer, boolean inFrame) {
+      scope = new Scope(null);
+      paramSlots = new int[paramNames.size()];
+      for (int i = 0; i < paramSlots.length; i++) {
+        paramSlots[i] = scope.declare(paramNames.get(i));
+      }
+      resolveChild(body, scope);
+      scope.close();
+    }
+  }
+
+  static class ArrayInit extends Node {
+    final Node[] elements;
+
+    ArrayInit(Tree tree, Node[] elements) {
+      super(tree);
+      this.elements = elements;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      Thing.Array ret = new Thing.Array(interp);
+      for (int i = 0; i < elements.length; i++) {
+        ret.addValue(interp.eval(elements[i]));
+      }
+      return ret;
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChildren(elements, scope);
+    }
+  }
+
+  static class MapInit extends Node {
+    final Node[] keys;
+    final Node[] values;
+
+    MapInit(Tree tree, Node[] keys, Node[] values) {
+      super(tree);
+      this.keys = keys;
+      this.values = values;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      Thing.Map ret = new Thing.Map();
+      for (int i = 0; i < keys.length; i++) {
+        Thing left = interp.eval(keys[i]);
+        Thing right = interp.eval(values[i]);
+        ret.put(left, right);
+      }
+      return ret;
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChildren(keys, scope);
+      resolveChildren(values, scope);
+    }
+  }
+
+  static class FQClassName extends Node {
+    final Node codeset;
+    final String name;
+
+    FQClassName(Tree tree, Node codeset, String name) {
+      super(tree);
+      this.codeset = codeset;
+      this.name = name;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      Thing ret = Thing.NIL;
+      Thing cs = interp.eval(codeset);
+      if (cs.toString().length() > 0) {
+        ret = new Thing.Str(cs.toString() + "." + name);
+      } else {
+        ret = new Thing.Str(name);
+      }
+      return ret;
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      resolveChild(codeset, scope);
+    }
+  }
+
+  static class Constructor extends Node {
+    final String className;
+    final Node[] args; // null if there was no argument list
+
+    Constructor(Tree tree, String className, Node[] args) {
+      super(tree);
+      this.className = className;
+      this.args = args;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doConstructorExpr(this);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      if (args != null) {
+        resolveChildren(args, scope);
+      }
+    }
+  }
+
+  static class Id extends Node {
+    final String name;
+    Scope scope; // innermost scope this identifier is used in, if it is looked up in the frame
+    // the enclosing scopes that have a slot for this name, innermost first. null means the
+    // identifier is only ever found by name (globals, members, file-level code).
+    Scope[] slotScopes;
+    int[] slotDepths;
+    int[] slotIndexes;
+
+    Id(Tree tree, String name) {
+      super(tree);
+      this.name = name;
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      if (inFrame && scope != null) {
+        scope.use(this);
+      }
+    }
+
+    /**
+     * Works out which enclosing scopes have a slot for this name. Called once every declaration in
+     * the activation is known.
+     */
+    void bind() {
+      List<Scope> scopes = new ArrayList<Scope>();
+      List<Integer> depths = new ArrayList<Integer>();
+      List<Integer> indexes = new ArrayList<Integer>();
+      int depth = 0;
+      for (Scope s = scope; s != null; s = s.parent) {
+        int idx = s.indexOf(name);
+        if (idx >= 0) {
+          scopes.add(s);
+          depths.add(depth);
+          indexes.add(idx);
+        }
+        depth++;
+      }
+      if (scopes.size() > 0) {
+        slotScopes = scopes.toArray(new Scope[scopes.size()]);
+        slotDepths = new int[depths.size()];
+        slotIndexes = new int[indexes.size()];
+        for (int i = 0; i < slotDepths.length; i++) {
+          slotDepths[i] = depths.get(i);
+          slotIndexes[i] = indexes.get(i);
+        }
+      }
+    }
+
+    /**
+     * Looks for this identifier in the slots of the given frame and its enclosing loop and function
+     * tables, innermost first, the same order a by-name search would use. Gives null if the name
+     * has no slot that is set, or if the frame isn't laid out the way the resolver expected; the
+     * caller then searches by name.
+     */
+    Thing lookupSlot(SymbolTable frame) {
+      Thing ret = null;
+      if (slotScopes != null) {
+        for (int i = 0; i < slotScopes.length; i++) {
+          SymbolTable table = frame.getAncestor(slotDepths[i]);
+          if (table == null || table.scope != slotScopes[i]) {
+            break;
+          }
+          ret = table.slots[slotIndexes[i]];
+          if (ret != null) {
+            break;
+          }
+        }
+      }
+      return ret;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doIdentifierEval(this);
+    }
+
+    ResolveData resolveWithTable(SlippyInterpreter interp, boolean insertMissing,
+        SymbolTable table) {
+      return interp.resolveId(this, insertMissing, table);
+    }
+
+    public String toString() {
+      return name;
+    }
+  }
+
+  static class Member extends Node {
+    final Node left;
+    final Node right;
+
+    Member(Tree tree, Node left, Node right) {
+      super(tree);
+      this.left = left;
+      this.right = right;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.evalMemberExpr(this);
+    }
+
+    ResolveData resolveWithTable(SlippyInterpreter interp, boolean insertMissing,
+        SymbolTable table) {
+      return interp.resolveMember(this, insertMissing, table);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      left.resolve(scope, inFrame);
+      right.resolve(scope, false); // looked up in the left side's table
+    }
+  }
+
+  static class ArrayIndex extends Node {
+    final Node target;
+    final Node index;
+
+    ArrayIndex(Tree tree, Node target, Node index) {
+      super(tree);
+      this.target = target;
+      this.index = index;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doIndexedArrayExpr(target, index);
+    }
+
+    ResolveData resolveWithTable(SlippyInterpreter interp, boolean insertMissing,
+        SymbolTable table) {
+      return interp.resolveArrayIndex(this, table);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      target.resolve(scope, inFrame);
+      resolveChild(index, scope);
+    }
+  }
+
+  static class FuncCall extends Node {
+    final Node target;
+    final Node[] args;
+
+    FuncCall(Tree tree, Node target, Node[] args) {
+      super(tree);
+      this.target = target;
+      this.args = args;
+    }
+
+    Thing eval(SlippyInterpreter interp) {
+      return interp.doFunctionCallExpr(this);
+    }
+
+    ResolveData resolveWithTable(SlippyInterpreter interp, boolean insertMissing,
+        SymbolTable table) {
+      return interp.resolveFunctionCall(this, table);
+    }
+
+    void resolve(Scope scope, boolean inFrame) {
+      target.resolve(scope, inFrame);
+      resolveChildren(args, scope);
+    }
+  }
+}
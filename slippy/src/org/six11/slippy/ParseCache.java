@@ -0,0 +1,107 @@
+package org.six11.slippy;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.antlr.runtime.tree.Tree;
+
+/**
+ * Parse trees of Slippy source texts, keyed by a hash of the text, so running an unchanged file
+ * again (re-running a program in the IDE, or importing a class after the machine was reset) skips
+ * lexing and parsing. Trees are never changed once parsed, so one tree can be compiled any number
+ * of times, by any number of interpreters.
+ *
+ * The cache holds trees for at most a given number of characters of source. When it is full the
+ * least recently used trees are dropped first.
+ */
+public class ParseCache {
+
+  public static final long DEFAULT_MAX_CHARS = 4 * 1024 * 1024;
+
+  private final long maxChars;
+  private final LinkedHashMap<String, Entry> entries;
+  private long chars;
+
+  public ParseCache(long maxChars) {
+    this.maxChars = maxChars;
+    // access order, so iteration starts at the least recently used tree.
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  }
+
+  /**
+   * Gives the key a source text is cached under, a hash of the text. Work it out once and pass it
+   * to both get and put.
+   */
+  public static String key(String source) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes("UTF-8"));
+      StringBuilder buf = new StringBuilder();
+      for (byte b : digest) {
+        buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+        buf.append(Character.forDigit(b & 0xf, 16));
+      }
+      return buf.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException("SHA-1 is missing from this JVM", ex);
+    } catch (UnsupportedEncodingException ex) {
+      throw new RuntimeException("UTF-8 is missing from this JVM", ex);
+    }
+  }
+
+  /**
+   * Gives the tree parsed from the source text with the given key, or null if there isn't one.
+   */
+  public synchronized Tree get(String key) {
+    Entry e = entries.get(key);
+    return (e == null) ? null : e.tree;
+  }
+
+  /**
+   * Remembers the tree parsed from the source text with the given key and length. Only trees of
+   * sources that parsed without errors should be put here, since a cached tree is used without
+   * reporting anything.
+   */
+  public synchronized void put(String key, int sourceChars, Tree tree) {
+    Entry old = entries.remove(key);
+    if (old != null) {
+      chars -= old.chars;
+    }
+    if (sourceChars <= maxChars) {
+      entries.put(key, new Entry(tree, sourceChars));
+      chars += sourceChars;
+      Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while (chars > maxChars && it.hasNext()) {
+        Map.Entry<String, Entry> victim = it.next();
+        chars -= victim.getValue().chars;
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    chars = 0;
+  }
+
+  public synchronized long getChars() {
+    return chars;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private static class Entry {
+    final Tree tree;
+    final int chars;
+
+    Entry(Tree tree, int chars) {
+      this.tree = tree;
+      this.chars = chars;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package org.six11.slippy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts calls to Slippy functions and times them. The interpreter tells the profiler when each
+ * function call starts and ends (only while profiling is on, see
+ * SlippyInterpreter.setProfiling). Calls and time are added up both per function and per source
+ * line the call was made from.
+ *
+ * Total time includes the functions a function calls; self time does not. A recursive function's
+ * total time is only counted for its outermost call, so it isn't counted twice.
+ */
+public class Profiler {
+
+  private Map<String, Entry> functions;
+  private Map<String, Entry> lines;
+  private Entry[] functionStack;
+  private Entry[] lineStack;
+  private long[] starts;
+  private long[] childTime; // time spent in calls made by each call on the stack
+  private int depth;
+
+  public Profiler() {
+    functionStack = new Entry[64];
+    lineStack = new Entry[64];
+    starts = new long[64];
+    childTime = new long[64];
+    reset();
+  }
+
+  /**
+   * Forgets everything counted so far.
+   */
+  public void reset() {
+    functions = new HashMap<String, Entry>();
+    lines = new HashMap<String, Entry>();
+    depth = 0;
+  }
+
+  void enter(Thing.Function function, String file, Node site) {
+    if (depth == starts.length) {
+      grow();
+    }
+    String functionName = function.sourceFileName + ":" + function.name;
+    String line = file + ":" + (site == null ? 0 : site.getLine());
+    Entry f = getEntry(functions, functionName);
+    Entry l = getEntry(lines, line);
+    f.calls++;
+    f.active++;
+    l.calls++;
+    l.active++;
+    functionStack[depth] = f;
+    lineStack[depth] = l;
+    childTime[depth] = 0;
+    starts[depth] = System.nanoTime();
+    depth++;
+  }
+
+  void exit() {
+    if (depth > 0) {
+      depth--;
+      long elapsed = System.nanoTime() - starts[depth];
+      Entry f = functionStack[depth];
+      Entry l = lineStack[depth];
+      f.selfNanos += elapsed - childTime[depth];
+      f.active--;
+      if (f.active == 0) {
+        f.totalNanos += elapsed;
+      }
+      l.active--;
+      if (l.active == 0) {
+        l.totalNanos += elapsed;
+      }
+      if (depth > 0) {
+        childTime[depth - 1] += elapsed;
+      }
+      functionStack[depth] = null;
+      lineStack[depth] = null;
+    }
+  }
+
+  private void grow() {
+    int n = starts.length * 2;
+    Entry[] fs = new Entry[n];
+    Entry[] ls = new Entry[n];
+    long[] s = new long[n];
+    long[] c = new long[n];
+    System.arraycopy(functionStack, 0, fs, 0, depth);
+    System.arraycopy(lineStack, 0, ls, 0, depth);
+    System.arraycopy(starts, 0, s, 0, depth);
+    System.arraycopy(childTime, 0, c, 0, depth);
+    functionStack = fs;
+    lineStack = ls;
+    starts = s;
+    childTime = c;
+  }
+
+  private static Entry getEntry(Map<String, Entry> map, String name) {
+    Entry ret = map.get(name);
+    if (ret == null) {
+      ret = new Entry(name);
+      map.put(name, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Gives the functions that were called, those with the most self time first.
+   */
+  public List<Entry> getFunctions() {
+    List<Entry> ret = new ArrayList<Entry>(functions.values());
+    Collections.sort(ret, new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+        return a.selfNanos == b.selfNanos ? 0 : (a.selfNanos > b.selfNanos ? -1 : 1);
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * Gives the lines calls were made from, those with the most total time first.
+   */
+  public List<Entry> getLines() {
+    List<Entry> ret = new ArrayList<Entry>(lines.values());
+    Collections.sort(ret, new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+        return a.totalNanos == b.totalNanos ? 0 : (a.totalNanos > b.totalNanos ? -1 : 1);
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * Makes a table of the busiest functions and call sites, at most 'limit' rows of each.
+   */
+  public String report(int limit) {
+    StringBuilder buf = new StringBuilder();
+    buf.append(String.format("%10s %12s %12s  %s%n", "calls", "self ms", "total ms", "function"));
+    appendRows(buf, getFunctions(), limit, true);
+    buf.append(String.format("%n%10s %12s %12s  %s%n", "calls", "", "total ms", "called from"));
+    appendRows(buf, getLines(), limit, false);
+    return buf.toString();
+  }
+
+  private static void appendRows(StringBuilder buf, List<Entry> entries, int limit, boolean self) {
+    for (int i = 0; i < entries.size() && i < limit; i++) {
+      Entry e = entries.get(i);
+      buf.append(String.format("%10d %12s %12.3f  %s%n", e.calls, self ? String.format("%.3f",
+          e.getSelfMillis()) : "", e.getTotalMillis(), e.name));
+    }
+  }
+
+  /**
+   * Call counts and times for one function or one calling line.
+   */
+  public static class Entry {
+    final String name;
+    long calls;
+    long selfNanos;
+    long totalNanos;
+    int active; // calls of this entry now on the stack
+
+    Entry(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCalls() {
+      return calls;
+    }
+
+    public double getSelfMillis() {
+      return selfNanos / 1000000.0;
+    }
+
+    public double getTotalMillis() {
+      return totalNanos / 1000000.0;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package org.six11.slippy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The slot layout of a function body or loop body, worked out by the resolver pass in
+ * SlippyCompiler. Every name that can be created in that kind of scope (parameters, loop
+ * variables, plain assignments, nested function definitions) gets an index, and the SymbolTable
+ * pushed for the scope at runtime keeps those variables in an array instead of a HashMap.
+ *
+ * A scope's parent is the enclosing loop or function body in the same activation. Function scopes
+ * have no parent because a call's symbol table hangs off the instance or class, not the caller.
+ * File and class bodies have no Scope at all: their symbols are dynamic and live in HashMaps.
+ */
+class Scope {
+
+  final Scope parent;
+  private List<String> names;
+  private String[] nameArray; // fixed once the resolver is finished with this scope
+  private List<Node.Id> unbound; // identifiers waiting for the outermost scope to close
+
+  Scope(Scope parent) {
+    this.parent = parent;
+    this.names = new ArrayList<String>();
+    this.unbound = (parent == null) ? new ArrayList<Node.Id>() : parent.unbound;
+  }
+
+  /**
+   * Gives the slot for the name, adding one if this scope doesn't have it yet.
+   */
+  int declare(String name) {
+    int ret = names.indexOf(name);
+    if (ret < 0) {
+      ret = names.size();
+      names.add(name);
+    }
+    return ret;
+  }
+
+  /**
+   * Remembers an identifier that reads or writes through the current frame. It is bound once all
+   * declarations of the activation are known, because the runtime search checks every enclosing
+   * scope that could hold the name, whether it was assigned before or after this spot.
+   */
+  void use(Node.Id id) {
+    id.scope = this;
+    unbound.add(id);
+  }
+
+  /**
+   * Called when the resolver leaves this scope. Leaving the outermost scope of an activation binds
+   * every identifier used inside it.
+   */
+  void close() {
+    nameArray = names.toArray(new String[names.size()]);
+    if (parent == null) {
+      for (Node.Id id : unbound) {
+        id.bind();
+      }
+      unbound.clear();
+    }
+  }
+
+  int size() {
+    return names.size();
+  }
+
+  String getName(int slot) {
+    return nameArray[slot];
+  }
+
+  /**
+   * Gives the slot of the given name, or -1. This is only used by by-name lookups (globals,
+   * members, debugging), so a short linear scan is fine.
+   */
+  int indexOf(String name) {
+    int ret = -1;
+    int h = name.hashCode();
+    for (int i = 0; i < nameArray.length; i++) {
+      if (nameArray[i].hashCode() == h && nameArray[i].equals(name)) {
+        ret = i;
+        break;
+      }
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,227 @@
+package org.six11.slippy;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.runtime.tree.Tree;
+import org.six11.olive.DiskEnvironment;
+import org.six11.util.Debug;
+import org.six11.util.args.Arguments;
+import org.six11.util.args.Arguments.ArgType;
+import org.six11.util.args.Arguments.ValueType;
+import org.six11.util.io.FileUtil;
+
+/**
+ * Runs Slippy workloads in-process and reports how many times per second each one runs. A
+ * workload is a .slippy file that defines a function called run(). The file is interpreted once,
+ * then run() is called over and over: first for some warmup rounds (so the JVM has compiled the
+ * interpreter), then for the measured rounds. Output the workload prints while running is thrown
+ * away.
+ *
+ * The workloads that come with Slippy are in bench/slippy/workloads:
+ *
+ * <pre>
+ *   java org.six11.slippy.SlippyBenchmark bench/slippy/workloads
+ *   java org.six11.slippy.SlippyBenchmark --rounds=10 --profile bench/slippy/workloads/loops.slippy
+ * </pre>
+ */
+public class SlippyBenchmark {
+
+  public static final String DEFAULT_WORKLOADS = "bench/slippy/workloads";
+
+  public static void main(String[] args) throws Exception {
+    Arguments arguments = new Arguments();
+    arguments.addFlag("warmup", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "Number of warmup rounds (default 3)");
+    arguments.addFlag("rounds", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "Number of measured rounds (default 5)");
+    arguments.addFlag("round-ms", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "How long each round lasts, in milliseconds (default 1000)");
+    arguments.addFlag("profile", ArgType.ARG_OPTIONAL, ValueType.VALUE_IGNORED,
+        "Profile the measured rounds and show the busiest functions of each workload");
+    arguments.addPositional(0, "workloads", ValueType.VALUE_OPTIONAL,
+        "A .slippy workload, or a directory of them (default " + DEFAULT_WORKLOADS + ")");
+    arguments.parseArguments(args);
+    arguments.validate();
+
+    SlippyBenchmark bench = new SlippyBenchmark();
+    if (arguments.hasValue("warmup")) {
+      bench.warmupRounds = Integer.parseInt(arguments.getValue("warmup"));
+    }
+    if (arguments.hasValue("rounds")) {
+      bench.rounds = Integer.parseInt(arguments.getValue("rounds"));
+    }
+    if (arguments.hasValue("round-ms")) {
+      bench.roundMillis = Long.parseLong(arguments.getValue("round-ms"));
+    }
+    bench.profiling = arguments.hasFlag("profile");
+    String where = arguments.hasValue("workloads") ? arguments.getValue("workloads")
+        : DEFAULT_WORKLOADS;
+
+    PrintStream out = System.out;
+    out.println(String.format("%-24s %14s %14s %14s %12s", "workload", "ops/sec", "min", "max",
+        "ms/op"));
+    for (File workload : findWorkloads(new File(where))) {
+      Result r = bench.run(workload);
+      out.println(r);
+      if (r.profile != null) {
+        out.println(r.profile.report(15));
+      }
+    }
+  }
+
+  /**
+   * Gives the file itself, or the .slippy files in the directory in alphabetical order.
+   */
+  static List<File> findWorkloads(File where) {
+    List<File> ret = new ArrayList<File>();
+    if (where.isDirectory()) {
+      File[] files = where.listFiles();
+      Arrays.sort(files);
+      for (File f : files) {
+        if (f.getName().endsWith(".slippy")) {
+          ret.add(f);
+        }
+      }
+    } else {
+      ret.add(where);
+    }
+    return ret;
+  }
+
+  private int warmupRounds = 3;
+  private int rounds = 5;
+  private long roundMillis = 1000;
+  private boolean profiling = false;
+
+  /**
+   * Loads the workload into a fresh interpreter and measures its run() function.
+   */
+  public Result run(File workload) throws Exception {
+    Result ret = new Result(workload.getName());
+    PrintStream slippyOut = SlippyMachine.outputStream;
+    PrintStream debugOut = Debug.outputStream;
+    PrintStream quiet = new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+    });
+    SlippyMachine.outputStream = quiet;
+    Debug.outputStream = quiet;
+    try {
+      SlippyInterpreter interp = load(workload);
+      Node call = compileCall(interp, "run()");
+      for (int i = 0; i < warmupRounds; i++) {
+        round(interp, call);
+      }
+      interp.setProfiling(profiling);
+      for (int i = 0; i < rounds; i++) {
+        ret.add(round(interp, call));
+      }
+      ret.profile = interp.getProfiler();
+      interp.setProfiling(false);
+    } finally {
+      SlippyMachine.outputStream = slippyOut;
+      Debug.outputStream = debugOut;
+    }
+    return ret;
+  }
+
+  /**
+   * Calls run() until the round's time is up, and gives the calls per second.
+   */
+  private double round(SlippyInterpreter interp, Node call) {
+    long ops = 0;
+    long start = System.nanoTime();
+    long end = start + roundMillis * 1000000L;
+    long now;
+    do {
+      interp.eval(call);
+      ops++;
+      now = System.nanoTime();
+    } while (now < end);
+    return ops / ((now - start) / 1e9);
+  }
+
+  /**
+   * Makes an interpreter and runs the given program in it, so its functions are defined. Other
+   * classes are loaded from the program's directory.
+   */
+  public static SlippyInterpreter load(File program) throws Exception {
+    SlippyInterpreter ret = new SlippyInterpreter();
+    ret.getMachine().setEnvironment(new DiskEnvironment(FileUtil.getPath(program.getPath())));
+    ret.getMachine().pushFileName(program.getPath());
+    ret.interpret(FileUtil.loadStringFromFile(program.getPath()));
+    return ret;
+  }
+
+  /**
+   * Parses a one-line program and compiles just its function call, leaving out the codeset and
+   * import statements the parser wraps around it.
+   */
+  public static Node compileCall(SlippyInterpreter interp, String expr) throws Exception {
+    return SlippyCompiler.compile(findCall(interp.makeTree(expr)));
+  }
+
+  private static Tree findCall(Tree t) {
+    Tree ret = null;
+    if (t.getType() == SlippyParser.EXPR_FUNC_CALL) {
+      ret = t;
+    }
+    for (int i = 0; ret == null && i < t.getChildCount(); i++) {
+      ret = findCall(t.getChild(i));
+    }
+    return ret;
+  }
+
+  /**
+   * The measured rounds of one workload.
+   */
+  public static class Result {
+    final String name;
+    List<Double> opsPerSecond;
+    Profiler profile;
+
+    Result(String name) {
+      this.name = name;
+      this.opsPerSecond = new ArrayList<Double>();
+    }
+
+    void add(double ops) {
+      opsPerSecond.add(ops);
+    }
+
+    public double getMean() {
+      double sum = 0;
+      for (double d : opsPerSecond) {
+        sum += d;
+      }
+      return opsPerSecond.isEmpty() ? 0 : sum / opsPerSecond.size();
+    }
+
+    public double getMin() {
+      double ret = Double.MAX_VALUE;
+      for (double d : opsPerSecond) {
+        ret = Math.min(ret, d);
+      }
+      return opsPerSecond.isEmpty() ? 0 : ret;
+    }
+
+    public double getMax() {
+      double ret = 0;
+      for (double d : opsPerSecond) {
+        ret = Math.max(ret, d);
+      }
+      return ret;
+    }
+
+    public String toString() {
+      double mean = getMean();
+      return String.format("%-24s %14.2f %14.2f %14.2f %12.4f", name, mean, getMin(), getMax(),
+          mean == 0 ? 0 : 1000 / mean);
+    }
+  }
+}
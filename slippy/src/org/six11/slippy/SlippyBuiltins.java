@@ -29,7 +29,7 @@ public abstract class SlippyBuiltins {
             buf.append(t.toString() + " ");
           }
         }
-        SlippyMachine.outputStream.println(buf.toString().trim());
+        machine.getOut().println(buf.toString().trim());
         return Thing.NIL;
       }
     });
@@ -37,11 +37,20 @@ public abstract class SlippyBuiltins {
         "SlippyMachine.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
         for (Thing t : paramValues) {
-          SlippyUtils.printMembers(t);
+          SlippyUtils.printMembers(t, machine.getOut());
         }
         if (paramValues.size() == 0) {
-          SlippyMachine.outputStream.println("Global symbols:");
-          SlippyMachine.outputStream.println(globalTable.getDebug());
+          machine.getOut().println("Global symbols:");
+          machine.getOut().println(globalTable.getDebug());
+        }
+        return Thing.NIL;
+      }
+    });
+    globalTable.setThing("printCacheStats", new Thing.Function("printCacheStats", mkList(),
+        "SlippyMachine.java") {
+      public Thing eval(List<Thing> paramValues, SymbolTable context) {
+        for (MemoTable memo : machine.getMemoTables()) {
+          machine.getOut().println(memo);
         }
         return Thing.NIL;
       }
@@ -99,13 +108,13 @@ public abstract class SlippyBuiltins {
         double retDouble = Math.pow(base.v, exponent.v);
         ret = new Thing.Num(retDouble);
         } catch (Exception ex) {
-          SlippyMachine.outputStream.println("Got " + ex);
-          SlippyMachine.outputStream.println("param 1 class: " + paramValues.get(0).getClass());
-          SlippyMachine.outputStream.println("param 1 slippy type: " + paramValues.get(0).type);
-          SlippyMachine.outputStream.println("param 1 slippy as string: " + paramValues.get(0));
-          SlippyMachine.outputStream.println("param 2 class: " + paramValues.get(1).getClass());
-          SlippyMachine.outputStream.println("param 2 slippy type: " + paramValues.get(1).type);
-          SlippyMachine.outputStream.println("param 2 slippy as string: " + paramValues.get(1));
+          machine.getOut().println("Got " + ex);
+          machine.getOut().println("param 1 class: " + paramValues.get(0).getClass());
+          machine.getOut().println("param 1 slippy type: " + paramValues.get(0).type);
+          machine.getOut().println("param 1 slippy as string: " + paramValues.get(0));
+          machine.getOut().println("param 2 class: " + paramValues.get(1).getClass());
+          machine.getOut().println("param 2 slippy type: " + paramValues.get(1).type);
+          machine.getOut().println("param 2 slippy as string: " + paramValues.get(1));
         }
         return ret;
       }
@@ -205,14 +214,14 @@ public abstract class SlippyBuiltins {
         "SlippyMachine.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
         if (context != null) {
-          SlippyMachine.outputStream.println("Using context symbol table:");
-          context.printDebugFull();
+          machine.getOut().println("Using context symbol table:");
+          context.printDebugFull(machine.getOut());
           // SlippyMachine.outputStream
           // .println("For grins, here is the machine's current symbol table:");
-          machine.getSymbolTable().printDebugFull();
+          machine.getSymbolTable().printDebugFull(machine.getOut());
         } else {
-          SlippyMachine.outputStream.println("Using machine's current symbol table:");
-          machine.getSymbolTable().printDebugFull();
+          machine.getOut().println("Using machine's current symbol table:");
+          machine.getSymbolTable().printDebugFull(machine.getOut());
         }
         return Thing.NIL;
       }
@@ -221,7 +230,7 @@ public abstract class SlippyBuiltins {
         "SlippyMachine.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
         String st = interp.getStacktrace();
-        SlippyMachine.outputStream.println(st);
+        machine.getOut().println(st);
         return Thing.NIL;
       }
     });
@@ -0,0 +1,15 @@
+package org.six11.slippy;
+
+/**
+ * Thrown out of the interpreter when a running program is stopped, either because somebody called
+ * SlippyInterpreter.cancel() or because the program went over the limits given to
+ * SlippyInterpreter.setLimits(). The message says which.
+ */
+public class SlippyCancelledException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SlippyCancelledException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,322 @@
+package org.six11.slippy;
+
+import static org.six11.slippy.SlippyParser.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.runtime.tree.Tree;
+
+/**
+ * Turns an ANTLR parse tree into a tree of executable Nodes. This happens once per file (and once
+ * per annotation expression), so the interpreter never has to re-dispatch on token types, re-read
+ * token text or re-parse numeric literals while a program runs. Function bodies are compiled along
+ * with the rest of the file and carried by the Thing.Function values made from them.
+ *
+ * Compiling never fails. Trees the interpreter doesn't understand become plain Nodes that complain
+ * when (and only when) they are run, just like the old tree-walking interpreter did.
+ */
+public abstract class SlippyCompiler {
+
+  /**
+   * Compiles a whole file or a free-standing expression, then runs the resolver pass over it so
+   * local variables and parameters are addressed by slot. The given tree is treated as file-level
+   * code: its own variables are dynamic, but function and loop bodies inside it get slots.
+   */
+  public static Node compile(Tree t) {
+    Node ret = build(t);
+    if (ret != null) {
+      ret.resolve(null, true);
+    }
+    return ret;
+  }
+
+  /**
+   * Builds the node for the given tree. A null tree (e.g. a missing optional block) gives null.
+   */
+  private static Node build(Tree t) {
+    Node ret = null;
+    if (t != null) {
+      ret = buildTree(t);
+    }
+    return ret;
+  }
+
+  private static Node buildTree(Tree t) {
+    Node ret = null;
+    switch (t.getType()) {
+      case PROG:
+      case BLOCK:
+        ret = new Node.Block(t, compileChildren(t, 0));
+        break;
+      case STMT:
+        if (t.getChildCount() == 1) {
+          ret = build(t.getChild(0));
+        } else {
+          ret = new Node.Block(t, compileChildren(t, 0));
+        }
+        break;
+      case DEF_CLASS:
+        ret = compileClass(t);
+        break;
+      case DEF_FIELD:
+        ret = compileField(t);
+        break;
+      case DEF_FUNCTION:
+        ret = compileFunction(t);
+        break;
+      case EXPR:
+        ret = new Node.ExprStmt(t, build(t.getChild(0)));
+        break;
+      case STMT_CODESET_DECL:
+        ret = new Node.Codeset(t, joinChildText(t), true);
+        break;
+      case STMT_CODESET:
+        ret = new Node.Codeset(t, joinChildText(t), false);
+        break;
+      case STMT_IMPORT:
+        ret = compileImport(t);
+        break;
+      case STMT_WHILE:
+        ret = new Node.While(t, build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case STMT_IF:
+        ret = compileIf(t);
+        break;
+      case STMT_LOOP:
+        ret = compileLoop(t);
+        break;
+      case EXPR_ADD:
+        ret = new Node.Arith(t, '+', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_MINUS:
+        ret = new Node.Arith(t, '-', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_MULT:
+        ret = new Node.Arith(t, '*', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_DIV:
+        ret = new Node.Arith(t, '/', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_MODULO:
+        ret = new Node.Arith(t, '%', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_EQ:
+        ret = new Node.Equality(t, '=', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_NEQ:
+        ret = new Node.Equality(t, '!', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_LT:
+        ret = new Node.Equality(t, '<', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_LTEQ:
+        ret = new Node.Equality(t, '[', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_GT:
+        ret = new Node.Equality(t, '>', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_GTEQ:
+        ret = new Node.Equality(t, ']', build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_AND:
+        ret = new Node.AndOr(t, true, build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_OR:
+        ret = new Node.AndOr(t, false, build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_ASSIGN:
+        ret = new Node.Assign(t, build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_UNARY_NEG:
+        ret = new Node.Neg(t, build(t.getChild(0)));
+        break;
+      case EXPR_UNARY_NOT:
+        ret = new Node.Not(t, build(t.getChild(0)));
+        break;
+      case EXPR_UNARY_POS:
+        ret = new Node.Pos(t, build(t.getChild(0)));
+        break;
+      case EXPR_ARRAY_INDEX:
+        ret = new Node.ArrayIndex(t, build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_ARRAY_INIT:
+        ret = new Node.ArrayInit(t, compileChildren(t, 0));
+        break;
+      case EXPR_MAP_INIT:
+        ret = compileMap(t);
+        break;
+      case EXPR_CONSTRUCTOR:
+        ret = new Node.Constructor(t, t.getChild(0).getText(), compileList(t.getChild(1)));
+        break;
+      case EXPR_FQ_CLASS_NAME:
+        ret = new Node.FQClassName(t, build(t.getChild(0)), t.getChild(1).getText());
+        break;
+      case EXPR_LAMBDA:
+        ret = compileLambda(t, t.getChild(0), t.getChild(1));
+        break;
+      case EXPR_MEMBER:
+        ret = new Node.Member(t, build(t.getChild(0)), build(t.getChild(1)));
+        break;
+      case EXPR_FUNC_CALL:
+        Node[] args = compileList(t.getChild(1));
+        ret = new Node.FuncCall(t, build(t.getChild(0)), args == null ? new Node[0] : args);
+        break;
+      case ID:
+        ret = new Node.Id(t, t.getText());
+        break;
+      case NUM:
+        ret = new Node.Num(t, SlippyUtils.toFloat(t.getText()));
+        break;
+      case STR_LITERAL:
+        ret = new Node.Str(t, SlippyUtils.stripQuotes(t.getText()));
+        break;
+      case TRUE:
+        ret = new Node.Bool(t, true);
+        break;
+      case FALSE:
+        ret = new Node.Bool(t, false);
+        break;
+      default:
+        ret = new Node(t);
+    }
+    return ret;
+  }
+
+  private static Node[] compileChildren(Tree t, int start) {
+    Node[] ret = new Node[Math.max(0, t.getChildCount() - start)];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = build(t.getChild(start + i));
+    }
+    return ret;
+  }
+
+  /**
+   * Compiles an EXPR_LIST into an array of expressions, or gives null if there is no list.
+   */
+  private static Node[] compileList(Tree t) {
+    Node[] ret = null;
+    if (t != null) {
+      ret = compileChildren(t, 0);
+    }
+    return ret;
+  }
+
+  private static String joinChildText(Tree t) {
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < t.getChildCount(); i++) {
+      if (i > 0) {
+        buf.append(".");
+      }
+      buf.append(t.getChild(i).getText());
+    }
+    return buf.toString();
+  }
+
+  private static List<Tree> getAnnotations(Tree t, int start) {
+    List<Tree> ret = new ArrayList<Tree>();
+    for (int i = start; i < t.getChildCount(); i++) {
+      if (t.getChild(i).getType() == ANNOTATION) {
+        ret.add(t.getChild(i));
+      }
+    }
+    return ret;
+  }
+
+  private static Node compileClass(Tree t) {
+    Node superCodeset = null;
+    String superName = null;
+    List<Node> mixers = new ArrayList<Node>();
+    List<Node> members = new ArrayList<Node>();
+    for (int i = 1; i < t.getChildCount(); i++) {
+      Tree part = t.getChild(i);
+      if (part.getType() == EXPR_CLASS_EXTENDS) {
+        superCodeset = build(part.getChild(0).getChild(0));
+        superName = part.getChild(0).getChild(1).toString();
+      } else if (part.getType() == EXPR_CLASS_MIXES) {
+        for (int j = 0; j < part.getChildCount(); j++) {
+          mixers.add(build(part.getChild(j)));
+        }
+      } else {
+        members.add(build(part));
+      }
+    }
+    return new Node.ClassDef(t, t.getChild(0).getText(), superCodeset, superName, mixers
+        .toArray(new Node[0]), members.toArray(new Node[0]));
+  }
+
+  private static Node compileField(Tree t) {
+    Node value = null;
+    for (int i = 1; i < t.getChildCount(); i++) {
+      if (t.getChild(i).getType() != ANNOTATION) {
+        value = build(t.getChild(1));
+      }
+    }
+    return new Node.FieldDef(t, t.getChild(0).getText(), value, getAnnotations(t, 1));
+  }
+
+  private static Node compileFunction(Tree t) {
+    Node.Lambda lambda = compileLambda(t, t.getChild(1), t.getChild(2));
+    return new Node.FunctionDef(t, t.getChild(0).getText(), lambda, getAnnotations(t, 3));
+  }
+
+  private static Node.Lambda compileLambda(Tree t, Tree paramTree, Tree blockTree) {
+    List<String> paramNames = new ArrayList<String>();
+    for (int i = 0; i < paramTree.getChildCount(); i++) {
+      paramNames.add(paramTree.getChild(i).getText());
+    }
+    return new Node.Lambda(t, paramNames, blockTree, build(blockTree));
+  }
+
+  private static Node compileImport(Tree t) {
+    String[] codesets = new String[t.getChildCount()];
+    String[] classNames = new String[t.getChildCount()];
+    for (int i = 0; i < t.getChildCount(); i++) {
+      // each child is a classID: the dot-separated codeset, then the classname.
+      codesets[i] = joinChildText(t.getChild(i).getChild(0));
+      classNames[i] = t.getChild(i).getChild(1).getText();
+    }
+    return new Node.Import(t, codesets, classNames);
+  }
+
+  private static Node compileIf(Tree t) {
+    List<Node> conditions = new ArrayList<Node>();
+    List<Node> bodies = new ArrayList<Node>();
+    Node elseBody = null;
+    for (int i = 0; i < t.getChildCount(); i++) {
+      Tree child = t.getChild(i);
+      if (child.getType() == STMT_CONDITION_BLOCK) {
+        conditions.add(build(child.getChild(0)));
+        bodies.add(build(child.getChild(1)));
+      } else if (child.getType() == BLOCK && elseBody == null) {
+        elseBody = build(child);
+      }
+    }
+    return new Node.If(t, conditions.toArray(new Node[0]), bodies.toArray(new Node[0]), elseBody);
+  }
+
+  private static Node compileLoop(Tree t) {
+    Node ret;
+    if (t.getChildCount() == 3) {
+      // this is loop( x : thing ) block-of-code done
+      ret = new Node.LoopEach(t, t.getChild(0).getText(), build(t.getChild(1)), build(t
+          .getChild(2)));
+    } else {
+      // this is loop (expr) block-of-code done
+      Tree conditionalBlock = t.getChild(0);
+      ret = new Node.LoopCond(t, build(conditionalBlock.getChild(0)), build(conditionalBlock
+          .getChild(1)));
+    }
+    return ret;
+  }
+
+  private static Node compileMap(Tree t) {
+    Node[] keys = new Node[t.getChildCount()];
+    Node[] values = new Node[t.getChildCount()];
+    for (int i = 0; i < t.getChildCount(); i++) {
+      keys[i] = build(t.getChild(i).getChild(0));
+      values[i] = build(t.getChild(i).getChild(1));
+    }
+    return new Node.MapInit(t, keys, values);
+  }
+}
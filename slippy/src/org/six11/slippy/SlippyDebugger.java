@@ -1,7 +1,7 @@
 package org.six11.slippy;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.antlr.runtime.ANTLRFileStream;
 import org.antlr.runtime.CharStream;
@@ -32,7 +32,7 @@ public class SlippyDebugger {
     processTree(root, 1);
   }
 
-  public static Map<Integer, String> spaceMap = new HashMap<Integer, String>();
+  public static Map<Integer, String> spaceMap = new ConcurrentHashMap<Integer, String>();
 
   public static String spaces(int n) {
     if (!spaceMap.containsKey(n)) {
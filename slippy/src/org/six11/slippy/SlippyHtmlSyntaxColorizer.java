@@ -16,7 +16,8 @@ import org.six11.util.io.FileUtil;
 
 /**
  * This is a fairly straightforward syntax colorizer for Slippy. It generates HTML output with CSS
- * style statements.
+ * style statements. Each style becomes a CSS class, written once in a style sheet at the top of
+ * the output, so a token only carries a short class name instead of its whole style.
  * 
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
@@ -208,20 +209,24 @@ public class SlippyHtmlSyntaxColorizer {
       }
     }
 
-    StringBuilder buf = new StringBuilder();
+    StringBuilder buf = new StringBuilder(programString.length() * 2);
     if (preamble) {
-      buf.append("<html><head><title>" + inFile + "</title></head><body>\n");
+      buf.append("<html><head><title>" + escape(inFile) + "</title>\n");
+      buf.append(getStyleSheet());
+      buf.append("</head><body>\n");
+    } else {
+      buf.append(getStyleSheet());
     }
     buf.append("<pre style=\"color: #000\">");
     for (int i = 0; i < toks.size(); i++) {
       CommonToken t = toks.get(i);
       if (tokenTypes.containsKey(i)) {
-        String styleString = styles.getProperty(tokenTypes.get(i));
-        if (styleString != null) {
-          buf.append("<span style=\"" + styleString + "\">" + t.getText() + "</span>");
+        String styleName = tokenTypes.get(i);
+        if (styles.getProperty(styleName) != null) {
+          appendSpan(buf, styleName, t.getText());
         } else {
           bug("No color (yet) for special token type " + t.getType());
-          buf.append(t.getText());
+          buf.append(escape(t.getText()));
         }
       } else {
         buf.append(getColoredToken(t));
@@ -240,15 +245,70 @@ public class SlippyHtmlSyntaxColorizer {
   }
 
   public String getColoredToken(CommonToken t) {
-    String ret = "";
+    StringBuilder buf = new StringBuilder();
     String tokenName = SlippySyntaxWalker.tokenNames[t.getType()];
-    String styleString = styles.getProperty(tokenName);
-    if (styleString != null) {
-      ret = "<span style=\"" + styleString + "\">" + t.getText() + "</span>";
+    if (styles.getProperty(tokenName) != null) {
+      appendSpan(buf, tokenName, t.getText());
     } else {
-      ret = t.getText();
+      buf.append(escape(t.getText()));
     }
-    return ret;
+    return buf.toString();
+  }
+
+  private void appendSpan(StringBuilder buf, String styleName, String text) {
+    buf.append("<span class=\"");
+    buf.append(getClassName(styleName));
+    buf.append("\">");
+    buf.append(escape(text));
+    buf.append("</span>");
+  }
+
+  /**
+   * Gives a style element with one CSS class per style, in name order.
+   */
+  public String getStyleSheet() {
+    StringBuilder buf = new StringBuilder("<style type=\"text/css\">\n");
+    for (String name : new TreeSet<String>(styles.stringPropertyNames())) {
+      buf.append("." + getClassName(name) + " { " + styles.getProperty(name) + " }\n");
+    }
+    buf.append("</style>\n");
+    return buf.toString();
+  }
+
+  /**
+   * Turns a style name like "function name" or "STR_LITERAL" into a CSS class name like
+   * "sl-function-name" or "sl-STR_LITERAL".
+   */
+  public static String getClassName(String styleName) {
+    StringBuilder buf = new StringBuilder("sl-");
+    for (int i = 0; i < styleName.length(); i++) {
+      char c = styleName.charAt(i);
+      buf.append(Character.isLetterOrDigit(c) || c == '_' ? c : '-');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Escapes the characters HTML gives a meaning to, so code like "a < b" shows up as written.
+   */
+  public static String escape(String text) {
+    StringBuilder buf = null;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      String rep = (c == '<') ? "&lt;" : (c == '>') ? "&gt;" : (c == '&') ? "&amp;" : null;
+      if (rep != null && buf == null) {
+        buf = new StringBuilder(text.length() + 16);
+        buf.append(text, 0, i);
+      }
+      if (buf != null) {
+        if (rep != null) {
+          buf.append(rep);
+        } else {
+          buf.append(c);
+        }
+      }
+    }
+    return buf == null ? text : buf.toString();
   }
 
   public static void bug(String what) {
@@ -1,27 +1,23 @@
 package org.six11.slippy;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EmptyStackException;
 import java.util.List;
-import java.util.Stack;
 
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
 import org.antlr.runtime.tree.CommonTree;
-import org.antlr.runtime.tree.CommonTreeNodeStream;
 import org.antlr.runtime.tree.Tree; // import org.six11.slippy.Thing.Function;
 import org.six11.olive.DiskEnvironment;
 import org.six11.util.Debug;
 import org.six11.util.args.Arguments;
 import org.six11.util.args.Arguments.ArgType;
 import org.six11.util.args.Arguments.ValueType;
-import org.six11.util.io.FileUtil; // import static org.six11.slippy.SlippyLexer.*;
-import static org.six11.slippy.SlippyParser.*;
+import org.six11.util.io.FileUtil;
 
 /**
  * 
@@ -39,6 +35,12 @@ public class SlippyInterpreter {
         "Shows the abstract syntax tree");
     arguments.addFlag("quit", ArgType.ARG_OPTIONAL, ValueType.VALUE_IGNORED,
         "Quit the interpreter after showing the AST");
+    arguments.addFlag("profile", ArgType.ARG_OPTIONAL, ValueType.VALUE_IGNORED,
+        "Counts and times function calls, and prints the busiest ones when the program ends");
+    arguments.addFlag("max-steps", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "Stops the program after this many loop iterations and function calls");
+    arguments.addFlag("max-ms", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "Stops the program after this many milliseconds");
     arguments.addFlag("load-path", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
         "The load path to slippy code (defaults to path of main Slippy file)");
     arguments.addPositional(0, "file", ValueType.VALUE_REQUIRED, "The main Slippy source file");
@@ -48,10 +50,21 @@ public class SlippyInterpreter {
     interp.useArguments(arguments);
   }
 
+  private static final ParseCache parseCache = new ParseCache(ParseCache.DEFAULT_MAX_CHARS);
+
   private SlippyMachine machine;
   List<Thing> noArgs = new ArrayList<Thing>();
-  private Tree lastEvalTree = null;
-  private Stack<SlippyLocation> executionStack = new Stack<SlippyLocation>();
+  private Node lastEvalNode = null;
+  private Thing.Array arrayReceiver = null; // the array whose method is about to be called
+  private CallStack callStack = new CallStack();
+  private Profiler profiler = null; // only made while profiling
+  private volatile String stopReason = null; // set by cancel(), from any thread
+  private long maxSteps = 0; // loop iterations and function calls allowed per run, 0 for no limit
+  private long maxMillis = 0; // time allowed per run, 0 for no limit
+  private long steps;
+  private long deadline;
+  private int inputDepth; // handleInput calls under way; imports make it more than one
+  private int arrayCount; // arrays made so far, to number their symbol tables
 
   public SlippyInterpreter() {
     machine = new SlippyMachine(this);
@@ -71,22 +84,46 @@ public class SlippyInterpreter {
     new Affine(this);
     machine.pushFileName(file);
     if (!args.hasFlag("quit")) {
+      setProfiling(args.hasFlag("profile"));
+      setLimits(args.hasValue("max-steps") ? Long.parseLong(args.getValue("max-steps")) : 0, args
+          .hasValue("max-ms") ? Long.parseLong(args.getValue("max-ms")) : 0);
+      startRun();
       handleInput(program);
+      if (profiler != null) {
+        machine.getOut().println(profiler.report(20));
+      }
     }
   }
 
+  /**
+   * Gives the parse tree of the program. Trees of programs that parsed cleanly are kept in a cache
+   * shared by all interpreters, so the same source text is only lexed and parsed once. Programs with
+   * syntax errors are parsed every time, so the errors are reported every time.
+   */
   public Tree makeTree(String programString) throws Exception {
-    CharStream cs = new ANTLRStringStream(programString);
-    SlippyLexer myLexer = new SlippyLexer(cs);
-    CommonTokenStream tokens = new CommonTokenStream(myLexer);
-    SlippyParser myParser = new SlippyParser(tokens);
-
-    SlippyParser.prog_return r = myParser.prog();
-    CommonTree root = ((CommonTree) r.tree);
+    String key = ParseCache.key(programString);
+    Tree ret = parseCache.get(key);
+    if (ret == null) {
+      CharStream cs = new ANTLRStringStream(programString);
+      SlippyLexer myLexer = new SlippyLexer(cs);
+      CommonTokenStream tokens = new CommonTokenStream(myLexer);
+      SlippyParser myParser = new SlippyParser(tokens);
+
+      SlippyParser.prog_return r = myParser.prog();
+      CommonTree root = ((CommonTree) r.tree);
+      if (myLexer.getNumberOfSyntaxErrors() == 0 && myParser.getNumberOfSyntaxErrors() == 0) {
+        parseCache.put(key, programString.length(), root);
+      }
+      ret = root;
+    }
+    return ret;
+  }
 
-    CommonTreeNodeStream nodes = new CommonTreeNodeStream(root);
-    nodes.setTokenStream(tokens);
-    return root;
+  /**
+   * Gives the parse tree cache that makeTree uses.
+   */
+  public static ParseCache getParseCache() {
+    return parseCache;
   }
 
   public void runFile(String fileName) throws FileNotFoundException, IOException {
@@ -97,11 +134,19 @@ public class SlippyInterpreter {
   }
 
   public void handleInput(String input) {
+    inputDepth++;
     try {
       interpret(input);
+    } catch (SlippyCancelledException ex) {
+      if (inputDepth > 1) {
+        throw ex; // an import; the whole run stops.
+      }
+      machine.report("SlippyInterpreter", ex.getMessage());
     } catch (Exception ex) {
-      Debug.out("SlippyInterpreter", "Caught exception, consuming it and staying alive.");
-      ex.printStackTrace(Debug.outputStream);
+      machine.report("SlippyInterpreter", "Caught exception, consuming it and staying alive.");
+      ex.printStackTrace(machine.getReportStream());
+    } finally {
+      inputDepth--;
     }
   }
 
@@ -110,57 +155,27 @@ public class SlippyInterpreter {
       return;
 
     Tree root = makeTree(programString);
-    discover(root);
+    exec(SlippyCompiler.compile(root));
   }
 
-  private void discover(Tree t) {
-    switch (t.getType()) {
-      case PROG:
-      case BLOCK:
-      case STMT:
-        discoverAllChildren(t);
-        break;
-      case DEF_CLASS:
-        stashClass(t);
-        break;
-      case DEF_FIELD:
-        stashField(t);
-        break;
-      case DEF_FUNCTION:
-        stashFunction(t);
-        break;
-      case EXPR:
-        Thing ret = eval(t.getChild(0));
-        machine.setReturnValue(ret);
-        break;
-      case EXPR_ASSIGN: // can happen in class discovery
-        eval(t);
-        break;
-      case EXPR_UNARY_POS:
-        initializeVariable(t.getChild(0), false); // can happen in class discovery
-        break;
-      case STMT_CODESET_DECL:
-        ret = doCodesetExpr(t);
-        break;
-      case STMT_IMPORT:
-        importAll(t);
-        break;
-      case STMT_WHILE:
-        doWhile(t);
-        break;
-      case STMT_IF:
-        doIf(t);
-        break;
-      case STMT_LOOP:
-        doLoop(t);
-        break;
-      default:
-        err("Unknown tree node in discover(): " + SlippyDebugger.bug(t, true));
-    }
+  /**
+   * Runs a compiled statement.
+   */
+  void exec(Node n) {
+    n.exec(this);
+  }
+
+  void cantExec(Node n) {
+    err("Unknown tree node in discover(): " + SlippyDebugger.bug(n.tree, true));
+  }
+
+  void cantEval(Node n) {
+    err(bugLocation(n) + ": Unable to eval tree: " + SlippyDebugger.bug(n.tree, true));
+    err(SlippyDebugger.bug(n.tree, true));
   }
 
-  private static void bug(String what) {
-    Debug.out("SlippyInterpreter", what);
+  private void bug(String what) {
+    machine.report("SlippyInterpreter", what);
   }
 
   private void bug(String where, Tree t) {
@@ -168,12 +183,16 @@ public class SlippyInterpreter {
     SlippyDebugger.processTree(t, 0);
   }
 
-  private String bugLocationShort(Tree t) {
+  private String bugLocationShort(Node n) {
     String f = machine.getCurrentFile();
     if (f.lastIndexOf('/') > 0 && (f.lastIndexOf('/') + 1) < f.length()) {
       f = f.substring(f.lastIndexOf('/') + 1);
     }
-    return f + ":" + t.getLine() + ":" + t.getCharPositionInLine();
+    return f + ":" + n.getLine() + ":" + n.getCharPositionInLine();
+  }
+
+  private String bugLocation(Node n) {
+    return bugLocation(n.tree);
   }
 
   private String bugLocation(Tree t) {
@@ -181,39 +200,7 @@ public class SlippyInterpreter {
   }
 
   private void err(String what) {
-    Debug.out("> SlippyInterpreter", what);
-  }
-
-  /**
-   * This handles a file's import statements.
-   */
-  private void importAll(Tree t) {
-    for (int i = 0; i < t.getChildCount(); i++) {
-      importFromTree(t.getChild(i));
-    }
-  }
-
-  /**
-   * Imports a single fully-qualified class based on the contents of the tree.
-   */
-  private void importFromTree(Tree t) {
-    StringBuilder pathBuf = new StringBuilder();
-    StringBuilder codesetBuf = new StringBuilder();
-
-    // the first child is the dot-separated codeset, up to but not including the classname
-    Tree codeSet = t.getChild(0);
-    for (int i = 0; i < codeSet.getChildCount(); i++) {
-      pathBuf.append(File.separator + codeSet.getChild(i).getText());
-      if (i > 0) {
-        codesetBuf.append(".");
-      }
-      codesetBuf.append(codeSet.getChild(i).getText());
-    }
-
-    // second child is simply the classname
-    String baseName = t.getChild(1).getText();
-
-    importFromFile(baseName, codesetBuf.toString());
+    machine.report("> SlippyInterpreter", what);
   }
 
   public Thing importFromFile(String className, String codesetStr) {
@@ -226,6 +213,8 @@ public class SlippyInterpreter {
           machine.pushFileName(fullFileName);
           String program = machine.getEnvironment().loadStringFromFile(fullFileName); // machine.loadStringFromFile(fullFileName);
           handleInput(program);
+        } catch (SlippyCancelledException ex) {
+          throw ex;
         } catch (Exception ex) {
           String callingFile = machine.getCallingFile();
           err("Can't load source file '" + fullFileName + "'"
@@ -246,49 +235,30 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  private Thing doCodesetExpr(Tree t) {
-    Thing ret = Thing.NIL;
-    if (t.getType() == STMT_CODESET_DECL || t.getType() == STMT_CODESET) {
-      StringBuilder codesetStr = new StringBuilder();
-      StringBuilder pathStr = new StringBuilder();
-      for (int i = 0; i < t.getChildCount(); i++) {
-        if (i > 0) {
-          codesetStr.append(".");
-          pathStr.append(File.separator);
-        }
-        codesetStr.append(t.getChild(i).getText());
-        pathStr.append(t.getChild(i).getText());
-      }
-      ret = machine.getCodeset(codesetStr.toString());// new Thing.Codeset(codesetStr.toString(),
-      if (t.getType() == STMT_CODESET_DECL) {
-        // this refers to the codeset for the current file.
-        machine.setCodeset((Thing.Codeset) ret); // maps current file with codeset
-      }
+  Thing doCodesetExpr(Node.Codeset t) {
+    Thing ret = machine.getCodeset(t.codesetStr);
+    if (t.decl) {
+      // this refers to the codeset for the current file.
+      machine.setCodeset((Thing.Codeset) ret); // maps current file with codeset
     }
     return ret;
-
   }
 
-  private void stashClass(Tree t) {
-    Thing.Clazz c = new Thing.Clazz(t.getChild(0).getText(), machine.getCodeset(), machine
-        .getCurrentFile());
+  void stashClass(Node.ClassDef t) {
+    Thing.Clazz c = new Thing.Clazz(t.name, machine.getCodeset(), machine.getCurrentFile());
     machine.getCodeset().addClass(c);
     machine.addImport(machine.getCurrentFile(), c);
     machine.pushSymbolTable(new SymbolTable());
-    for (int i = 1; i < t.getChildCount(); i++) {
-      Tree part = t.getChild(i);
-      if (part.getType() == EXPR_CLASS_EXTENDS) {
-        String otherClassName = eval(part.getChild(0).getChild(0)).toString()
-            + part.getChild(0).getChild(1).toString();
-        c.superClassName = otherClassName;
-      } else if (part.getType() == EXPR_CLASS_MIXES) {
-        for (int j = 0; j < part.getChildCount(); j++) {
-          String mixer = eval(part.getChild(j)).toString();// part.getChild(j).getText();
-          c.mixedClassNames.add(mixer);
-        }
-      } else {
-        discover(part);
-      }
+    if (t.superCodeset != null) {
+      String otherClassName = eval(t.superCodeset).toString() + t.superName;
+      c.superClassName = otherClassName;
+    }
+    for (int i = 0; i < t.mixers.length; i++) {
+      String mixer = eval(t.mixers[i]).toString();
+      c.mixedClassNames.add(mixer);
+    }
+    for (int i = 0; i < t.members.length; i++) {
+      exec(t.members[i]);
     }
     c.symbols = SlippyUtils.shallowCopy(machine.getSymbolTable());
     c.symbols.setName("Symbol table for class " + c.name);
@@ -300,197 +270,122 @@ public class SlippyInterpreter {
     // }
   }
 
-  private Thing.Function stashFunction(Tree t) {
-    String symbolName = t.getChild(0).getText();
-    Thing.Function lambda = doLambdaDecl(t.getChild(1), t.getChild(2));
-    lambda.name = symbolName;
-    for (int i = 3; i < t.getChildCount(); i++) {
-      if (t.getChild(i).getType() == ANNOTATION) {
-        recordAnnotation(symbolName, t.getChild(i));
+  Thing.Function stashFunction(Node.FunctionDef t) {
+    Thing.Function lambda = doLambdaDecl(t.lambda);
+    lambda.name = t.name;
+    for (Tree annotation : t.annotations) {
+      Thing.Annotation ann = recordAnnotation(t.name, annotation);
+      if (ann.getName().equals("cacheable")) {
+        lambda.cacheable = ann;
       }
     }
-    machine.set(symbolName, lambda);
+    machine.set(t.name, lambda);
     return lambda;
   }
 
-  private Thing.Function doLambdaDecl(Tree paramTree, Tree blockTree) {
-    List<String> paramNames = new ArrayList<String>();
-    for (int i = 0; i < paramTree.getChildCount(); i++) {
-      paramNames.add(paramTree.getChild(i).getText());
-    }
-    Thing.Function f = new Thing.Function("lambda", paramNames, machine.getCurrentFile());
-    f.block = blockTree;
+  Thing.Function doLambdaDecl(Node.Lambda t) {
+    Thing.Function f = new Thing.Function("lambda", t.paramNames, machine.getCurrentFile());
+    f.block = t.block;
+    f.code = t;
     return f;
   }
 
-  private void stashField(Tree t) {
-    String symbolName = t.getChild(0).getText();
-    Thing.Variable rval = new Thing.Variable(symbolName);
-
+  void stashField(Node.FieldDef t) {
+    Thing.Variable rval = new Thing.Variable(t.name);
+    if (t.value != null) {
+      rval.value = SlippyUtils.dereference(eval(t.value));
+    }
     // record the field's annotations.
-    for (int i = 1; i < t.getChildCount(); i++) {
-      Tree child = t.getChild(i);
-      if (child.getType() == ANNOTATION) {
-        recordAnnotation(symbolName, child);
-      } else {
-        rval.value = SlippyUtils.dereference(eval(t.getChild(1)));
-      }
+    for (Tree annotation : t.annotations) {
+      recordAnnotation(t.name, annotation);
     }
-    machine.set(symbolName, rval);
+    machine.set(t.name, rval);
   }
 
+  /**
+   * Compiles and evaluates a single expression tree, such as an annotation's argument.
+   */
   public Thing eval(Tree t) {
-    this.lastEvalTree = t; // Save this location for stacktraces
+    return eval(SlippyCompiler.compile(t));
+  }
+
+  Thing eval(Node t) {
+    this.lastEvalNode = t; // Save this location for stacktraces
     Thing ret = Thing.NIL;
     try {
-      switch (t.getType()) {
-        case EXPR_ADD:
-          ret = doArithmeticExpr(t.getChild(0), t.getChild(1), '+');
-          break;
-        case EXPR_AND:
-          ret = doAndOr("and", t.getChild(0), t.getChild(1));
-          break;
-        case EXPR_ASSIGN:
-          ret = doAssignmentExpr(t);
-          break;
-        case EXPR_ARRAY_INDEX:
-          ret = doIndexedArrayExpr(t.getChild(0), t.getChild(1));
-          break;
-        case EXPR_ARRAY_INIT:
-          ret = doArrayInitExpr(t);
-          break;
-        case STMT_CODESET:
-          ret = doCodesetExpr(t);
-          break;
-        case EXPR_CONSTRUCTOR:
-          ret = doConstructorExpr(t);
-          break;
-        case EXPR_DIV:
-          ret = doArithmeticExpr(t.getChild(0), t.getChild(1), '/');
-          break;
-        case EXPR_EQ:
-          ret = doEqualityExpr(t.getChild(0), t.getChild(1), '=');
-          break;
-        case EXPR_FQ_CLASS_NAME:
-          ret = getFullyQualifiedClassName(t);
-          break;
-        case EXPR_GT:
-          ret = doEqualityExpr(t.getChild(0), t.getChild(1), '>');
-          break;
-        case EXPR_GTEQ:
-          ret = doEqualityExpr(t.getChild(0), t.getChild(1), ']');
-          break;
-        case EXPR_LAMBDA:
-          ret = doLambdaDecl(t.getChild(0), t.getChild(1));
-          break;
-        case EXPR_LT:
-          ret = doEqualityExpr(t.getChild(0), t.getChild(1), '<');
-          break;
-        case EXPR_LTEQ:
-          ret = doEqualityExpr(t.getChild(0), t.getChild(1), '[');
-          break;
-        case EXPR_MAP_INIT:
-          ret = doMapInitExpr(t);
-          break;
-        case EXPR_MEMBER:
-          ret = evalMemberExpr(t);
-          break;
-        case EXPR_MINUS:
-          ret = doArithmeticExpr(t.getChild(0), t.getChild(1), '-');
-          break;
-        case EXPR_MODULO:
-          ret = doArithmeticExpr(t.getChild(0), t.getChild(1), '%');
-          break;
-        case EXPR_MULT:
-          ret = doArithmeticExpr(t.getChild(0), t.getChild(1), '*');
-          break;
-        case EXPR_NEQ:
-          ret = doEqualityExpr(t.getChild(0), t.getChild(1), '!');
-          break;
-        case EXPR_UNARY_NEG:
-          ret = new Thing.Num("-" + eval(t.getChild(0)));
-          break;
-        case EXPR_OR:
-          ret = doAndOr("or", t.getChild(0), t.getChild(1));
-          break;
-        case EXPR_UNARY_NOT:
-          ret = new Thing.Bool(!SlippyUtils.isThingTrue(eval(t.getChild(0))));
-          break;
-        case EXPR_UNARY_POS:
-          ret = eval(t.getChild(0));
-          break;
-        case FALSE:
-          ret = new Thing.Bool(false);
-          break;
-        case EXPR_FUNC_CALL:
-          ret = doFunctionCallExpr(t);
-          break;
-        case ID:
-          ret = doIdentifierEval(t);
-          break;
-        case NUM:
-          ret = new Thing.Num(t.getText());
-          break;
-        case STR_LITERAL:
-          ret = new Thing.Str(SlippyUtils.stripQuotes(t.getText()));
-          break;
-        case TRUE:
-          ret = new Thing.Bool(true);
-          break;
-        default:
-          err(bugLocation(t) + ": Unable to eval tree: " + SlippyDebugger.bug(t, true));
-          err(SlippyDebugger.bug(t, true));
-      }
+      ret = t.eval(this);
+    } catch (SlippyCancelledException ex) {
+      throw ex;
     } catch (Exception ex) {
       err(bugLocationShort(t) + ": " + ex.getMessage());
-      ex.printStackTrace(SlippyMachine.outputStream);
+      ex.printStackTrace(machine.getOut());
     }
     return ret;
   }
 
-  private Thing doAndOr(String string, Tree child, Tree child2) {
+  /**
+   * Evaluates an operand of an arithmetic or comparison expression. Literals and variables that
+   * live in frame slots are read directly, without the bookkeeping of eval(); anything else (or a
+   * slot that holds nil, which may name a class) takes the normal route.
+   */
+  private Thing evalOperand(Node n) {
+    Thing ret = null;
+    if (n instanceof Node.Num) {
+      ret = ((Node.Num) n).value;
+    } else if (n instanceof Node.Id) {
+      Thing slot = ((Node.Id) n).lookupSlot(machine.getSymbolTable());
+      if (slot != null) {
+        ret = SlippyUtils.dereference(slot);
+      }
+    }
+    if (ret == null || ret == Thing.NIL) {
+      ret = eval(n);
+    } else {
+      lastEvalNode = n;
+    }
+    return ret;
+  }
+
+  Thing doAndOr(boolean and, Node child, Node child2) {
     Thing ret = Thing.NIL;
     Thing left = eval(child);
-    boolean leftVal = SlippyUtils.isThingTrue(left);
-    if (string.equals("and")) {
+    boolean leftVal = left.isTrue();
+    if (and) {
       if (leftVal == false) {
-        ret = new Thing.Bool(false);
+        ret = Thing.Bool.FALSE;
       } else {
         Thing right = eval(child2);
-        boolean rightVal = SlippyUtils.isThingTrue(right);
-        ret = new Thing.Bool(rightVal && leftVal);
+        boolean rightVal = right.isTrue();
+        ret = Thing.Bool.valueOf(rightVal && leftVal);
       }
-    } else if (string.equals("or")) {
+    } else {
       if (!leftVal) { // left val is true, no need to perform right side.
         Thing right = eval(child2);
-        boolean rightVal = SlippyUtils.isThingTrue(right);
-        ret = new Thing.Bool(rightVal || leftVal);
+        boolean rightVal = right.isTrue();
+        ret = Thing.Bool.valueOf(rightVal || leftVal);
       } else {
-        ret = new Thing.Bool(true);
+        ret = Thing.Bool.TRUE;
       }
-    } else {
-      err(bugLocation(child) + ": invalid boolean operator: " + string);
     }
     return ret;
   }
 
-  private Thing getFullyQualifiedClassName(Tree t) {
-    Thing ret = Thing.NIL;
-    Thing cs = eval(t.getChild(0));
-    String name = t.getChild(1).getText();
-    if (cs.toString().length() > 0) {
-      ret = new Thing.Str(cs.toString() + "." + name);
+  Thing doNegate(Node operand) {
+    Thing ret;
+    Thing value = eval(operand);
+    if (value.type == Thing.Type.Number && ((Thing.Num) value).v >= 0) {
+      ret = Thing.Num.valueOf((float) -((Thing.Num) value).v);
     } else {
-      ret = new Thing.Str(name);
+      ret = new Thing.Num("-" + value);
     }
     return ret;
   }
 
-  private Thing initializeVariable(Tree t, boolean shadowAllowed) {
+  Thing initializeVariable(Node t, boolean shadowAllowed) {
     Thing ret = Thing.NIL;
-    if (t.getType() == ID) {
+    if (t instanceof Node.Id) {
       Thing value = eval(t);
-      String name = t.getChild(0).getText();
+      String name = ((Node.Id) t).name;
       if (value == Thing.NIL && !shadowAllowed) { // do not
         ret = machine.initializeVariable(name);
       } else {
@@ -499,7 +394,7 @@ public class SlippyInterpreter {
     } else {
       // TODO: can't create a variable with this name. examine tree for more info.
       err("Can't create a variable for this tree:");
-      SlippyDebugger.processTree(t, 0);
+      SlippyDebugger.processTree(t.tree, 0);
     }
     return ret;
   }
@@ -508,8 +403,9 @@ public class SlippyInterpreter {
     ResolveData ret = new ResolveData();
     SymbolTable cursor = table;
     while (cursor != null) {
-      if (cursor.symbols.get(name) != null) {
-        ret = new ResolveData(cursor.symbols.get(name), table);
+      Thing local = cursor.getLocal(name);
+      if (local != null) {
+        ret = new ResolveData(local, table);
         break;
       }
       cursor = cursor.parent;
@@ -517,14 +413,14 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  private ResolveData resolve(Tree t, boolean insertMissing, boolean checkGlobal,
+  private ResolveData resolve(Node t, boolean insertMissing, boolean checkGlobal,
       boolean complainOnError) {
     ResolveData ret = new ResolveData();
     String firstError = null;
-    ret = resolveWithTable(t, insertMissing, machine.getSymbolTable());
+    ret = t.resolveWithTable(this, insertMissing, machine.getSymbolTable());
     firstError = ret.error;
     if (!ret.valid && checkGlobal && machine.getSymbolTable() != machine.getGlobalTable()) {
-      ret = resolveWithTable(t, insertMissing, machine.getGlobalTable());
+      ret = t.resolveWithTable(this, insertMissing, machine.getGlobalTable());
     }
     if (complainOnError && firstError != null && ret.error != null) {
       err(ret.error);
@@ -532,93 +428,131 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  private ResolveData resolveWithTable(Tree t, boolean insertMissing, SymbolTable table) {
+  ResolveData resolveMember(Node.Member t, boolean insertMissing, SymbolTable table) {
     ResolveData ret = new ResolveData();
-    ResolveData left, right;
-    switch (t.getType()) {
-      case EXPR_MEMBER:
-        left = resolveWithTable(t.getChild(0), false, table); // insertMissing = false on purpose.
-        if (!left.valid) {
-          // Perhaps it is a class?
-          if (t.getChild(0).getType() == ID) {
-            try {
-              Thing.Clazz maybeClass = machine.findClass(t.getChild(0).getText());
-              left = new ResolveData(maybeClass, SlippyUtils.getSymbolTable(maybeClass, null));
-            } catch (RuntimeException ignore) {
-            }
-          }
-        }
-        if (left.valid) {
-          SymbolTable lvalTable = SlippyUtils.getSymbolTable(left.getDeref(), null);
-          if (lvalTable == null) {
-            ret.error = bugLocation(t.getChild(0)) + ": no members for type "
-                + left.getDeref().type;
-          } else {
-            right = resolveWithTable(t.getChild(1), insertMissing, lvalTable);
-            ret = right;
-          }
-        } else {
-          ret.error = bugLocationShort(t.getChild(0)) + ": Null reference";
-        }
-        break;
-      case ID:
-        String name = t.getText();
-        ret = searchTable(name, table);
-        if (!ret.valid && insertMissing) {
-          table.setThing(name, new Thing.Variable(name));
-          ret = new ResolveData(table.getThing(name), table);
-        }
-        break;
-      case EXPR_ARRAY_INDEX:
-        left = resolveWithTable(t.getChild(0), false, table);
-        if (left.valid) {
-          if (left.getDeref().type == Thing.Type.Array) {
-            int idx = SlippyUtils.toInt(eval(t.getChild(1)).toString());
-            Thing.Array arr = (Thing.Array) left.getDeref();
-            arr.accommodate(idx);
-            Thing rVal = arr.getSlot(idx);
-            ret = new ResolveData(rVal, SlippyUtils.getSymbolTable(rVal, machine.getSymbolTable()));
-          } else if (left.getDeref().type == Thing.Type.Map) {
-            Thing idx = eval(t.getChild(1));
-            Thing.Map m = (Thing.Map) left.getDeref();
-            Thing rVal = m.getSlot(idx);
-            ret = new ResolveData(rVal, SlippyUtils.getSymbolTable(rVal, machine.getSymbolTable()));
-          }
-        } else {
-          left.error = bugLocation(t.getChild(0)) + ": symbol not found";
-        }
-        break;
-      case EXPR_FUNC_CALL:
-        left = resolveWithTable(t.getChild(0), false, table);
-        if (left.getDeref().type == Thing.Type.Function) {
-          SymbolTable funcContext = machine.getSymbolTable();
-          if (left.valid && left.table.isInstance()) {
-            funcContext = left.table.getInstance().symbols;
-          } else if (left.valid && left.table.isSlippyClass()) {
-            funcContext = left.table.getSlippyClass().symbols;
-          }
-          Thing response = invokeFunction((Thing.Function) left.getDeref(), t.getChild(1),
-              funcContext);
-          ret = new ResolveData(response, SlippyUtils.getSymbolTable(response, machine
-              .getSymbolTable()));
-        } else {
-          ret.error = bugLocationShort(t) + ": not a function";
+    // insertMissing = false on purpose.
+    ResolveData left = t.left.resolveWithTable(this, false, table);
+    if (!left.valid) {
+      // Perhaps it is a class?
+      if (t.left instanceof Node.Id) {
+        try {
+          Thing.Clazz maybeClass = machine.findClass(((Node.Id) t.left).name);
+          left = new ResolveData(maybeClass, SlippyUtils.getSymbolTable(maybeClass, null));
+        } catch (SlippyCancelledException ex) {
+          throw ex;
+        } catch (RuntimeException ignore) {
         }
-        break;
-      default:
+      }
+    }
+    if (left.valid && left.getDeref().type == Thing.Type.Array) {
+      ret = resolveArrayMember((Thing.Array) left.getDeref(), t.right, insertMissing);
+    } else if (left.valid) {
+      SymbolTable lvalTable = SlippyUtils.getSymbolTable(left.getDeref(), null);
+      if (lvalTable == null) {
+        ret.error = bugLocation(t.left) + ": no members for type " + left.getDeref().type;
+      } else {
+        ret = t.right.resolveWithTable(this, insertMissing, lvalTable);
+      }
+    } else {
+      ret.error = bugLocationShort(t.left) + ": Null reference";
+    }
+    return ret;
+  }
+
+  /**
+   * Resolves a member of an array. Builtin methods are shared by all arrays, so the array is handed
+   * to a method call through arrayReceiver, or bound to the method if it is used as a value. A
+   * member is only put in the array's own table when a script assigns one.
+   */
+  private ResolveData resolveArrayMember(Thing.Array arr, Node right, boolean insertMissing) {
+    ResolveData ret;
+    SymbolTable table = insertMissing ? arr.getSymbols() : arr.getMembers();
+    if (right instanceof Node.FuncCall) {
+      arrayReceiver = arr; // resolveFunctionCall takes it before doing anything else
+      ret = right.resolveWithTable(this, insertMissing, table);
+    } else {
+      ret = right.resolveWithTable(this, insertMissing, table);
+      if (ret.getThing() instanceof Thing.Array.Method) {
+        ret = new ResolveData(((Thing.Array.Method) ret.getThing()).bind(arr), ret.table);
+      }
+    }
+    return ret;
+  }
+
+  ResolveData resolveId(Node.Id t, boolean insertMissing, SymbolTable table) {
+    ResolveData ret;
+    Thing slot = (table == machine.getSymbolTable()) ? t.lookupSlot(table) : null;
+    if (slot != null) {
+      ret = new ResolveData(slot, table);
+    } else {
+      ret = searchTable(t.name, table);
+      if (!ret.valid && insertMissing) {
+        Thing.Variable var = new Thing.Variable(t.name);
+        table.setThing(t.name, var);
+        ret = new ResolveData(var, table);
+      }
+    }
+    return ret;
+  }
+
+  ResolveData resolveArrayIndex(Node.ArrayIndex t, SymbolTable table) {
+    ResolveData ret = new ResolveData();
+    ResolveData left = t.target.resolveWithTable(this, false, table);
+    if (left.valid) {
+      if (left.getDeref().type == Thing.Type.Array) {
+        int idx = SlippyUtils.toInt(eval(t.index));
+        Thing.Array arr = (Thing.Array) left.getDeref();
+        arr.accommodate(idx);
+        Thing rVal = arr.getSlot(idx);
+        ret = new ResolveData(rVal, SlippyUtils.getSymbolTable(rVal, machine.getSymbolTable()));
+      } else if (left.getDeref().type == Thing.Type.Map) {
+        Thing idx = eval(t.index);
+        Thing.Map m = (Thing.Map) left.getDeref();
+        Thing rVal = m.getSlot(idx);
+        ret = new ResolveData(rVal, SlippyUtils.getSymbolTable(rVal, machine.getSymbolTable()));
+      }
+    } else {
+      left.error = bugLocation(t.target) + ": symbol not found";
     }
     return ret;
   }
 
-  private Thing doConstructorExpr(Tree t) {
+  ResolveData resolveFunctionCall(Node.FuncCall t, SymbolTable table) {
+    ResolveData ret = new ResolveData();
+    Thing.Array receiver = arrayReceiver;
+    arrayReceiver = null;
+    ResolveData left = t.target.resolveWithTable(this, false, table);
+    if (left.getDeref().type == Thing.Type.Function) {
+      Thing.Function function = (Thing.Function) left.getDeref();
+      if (receiver != null && function instanceof Thing.Array.Method) {
+        function = ((Thing.Array.Method) function).bind(receiver);
+      }
+      // a plain function gets no context, as in doFunctionCallExpr. The caller's frame would give
+      // every call site its own memo table. Builtins (e.g. each) hand it on to their lambdas.
+      SymbolTable funcContext = null;
+      if (left.valid && left.table.isInstance()) {
+        funcContext = left.table.getInstance().symbols;
+      } else if (left.valid && left.table.isSlippyClass()) {
+        funcContext = left.table.getSlippyClass().symbols;
+      } else if (function.isBuiltin()) {
+        funcContext = machine.getSymbolTable();
+      }
+      Thing response = invokeFunction(function, t.args, funcContext);
+      ret = new ResolveData(response, SlippyUtils.getSymbolTable(response, machine
+          .getSymbolTable()));
+    } else {
+      ret.error = bugLocationShort(t) + ": not a function";
+    }
+    return ret;
+  }
+
+  Thing doConstructorExpr(Node.Constructor t) {
     Thing ret = Thing.NIL;
-    String className = t.getChild(0).getText();
-    Thing maybeClazz = machine.findClass(className);
+    Thing maybeClazz = machine.findClass(t.className);
     if (maybeClazz != null && maybeClazz.type == Thing.Type.Class) {
       Thing.Clazz c = (Thing.Clazz) maybeClazz;
       Thing.Instance retAsInst = new Thing.Instance(c);
-      Tree params = t.getChild(1);
-      maybeDoFunction(retAsInst.symbols.getThing("init"), c, retAsInst, params);
+      maybeDoFunction(retAsInst.symbols.getThing("init"), c, retAsInst, t.args);
       for (Thing.Clazz m : c.mixedClasses) {
         maybeDoFunction(m.symbols.getThing("mix"), m, retAsInst, null);
       }
@@ -631,7 +565,7 @@ public class SlippyInterpreter {
    * This is apparently only called for constructors.
    */
   private void maybeDoFunction(Thing targetFunction, Thing.Clazz declaringClass,
-      Thing.Instance inst, Tree params) {
+      Thing.Instance inst, Node[] params) {
     if (targetFunction.type != Thing.Type.Function) {
       return;
     }
@@ -640,6 +574,8 @@ public class SlippyInterpreter {
     boolean error = false;
     try {
       invokeFunction((Thing.Function) targetFunction, params, inst.symbols);
+    } catch (SlippyCancelledException ex) {
+      throw ex;
     } catch (Exception ex) {
       ex.printStackTrace();
       error = true;
@@ -653,44 +589,32 @@ public class SlippyInterpreter {
 
   }
 
-  private Thing doAssignmentExpr(Tree t) {
+  Thing doAssignmentExpr(Node.Assign t) {
     Thing ret = Thing.NIL;
-    Thing rVal = eval(t.getChild(1));
-    Tree left = t.getChild(0);
-    ResolveData res = resolve(left, true, true, true);
-    Thing lVal = res.getThing(); // need the variable itself, so don't use deref()
+    Thing rVal = eval(t.right);
+    Thing lVal = null;
+    if (t.left instanceof Node.Id) {
+      // a local that already exists can be assigned without building a ResolveData
+      lVal = ((Node.Id) t.left).lookupSlot(machine.getSymbolTable());
+    }
+    if (lVal == null) {
+      ResolveData res = resolve(t.left, true, true, true);
+      lVal = res.getThing(); // need the variable itself, so don't use deref()
+    }
     if (lVal.type == Thing.Type.Variable) {
       ((Thing.Variable) lVal).value = rVal;
       ret = rVal;
     } else {
-      bug("Tree associated with forthcoming error: ", t);
+      bug("Tree associated with forthcoming error: ", t.tree);
       err(bugLocation(t) + ": Can't assign into item of type " + lVal.type);
     }
     return ret;
   }
 
-  private Thing doArrayInitExpr(Tree t) {
-    Thing.Array ret = new Thing.Array(this);
-    for (int i = 0; i < t.getChildCount(); i++) {
-      ret.addValue(eval(t.getChild(i)));
-    }
-    return ret;
-  }
-
-  private Thing doMapInitExpr(Tree t) {
-    Thing.Map ret = new Thing.Map();
-    for (int i = 0; i < t.getChildCount(); i++) {
-      Thing left = eval(t.getChild(i).getChild(0));
-      Thing right = eval(t.getChild(i).getChild(1));
-      ret.put(left, right);
-    }
-    return ret;
-  }
-
-  private Thing doArithmeticExpr(Tree a, Tree b, char op) {
+  Thing doArithmeticExpr(Node a, Node b, char op) {
     Thing ret = Thing.NIL;
-    Thing ra = eval(a);
-    Thing rb = eval(b);
+    Thing ra = evalOperand(a);
+    Thing rb = evalOperand(b);
     if (ra.type == rb.type && ra.type == Thing.Type.Number) {
       double aVal = ((Thing.Num) ra).v;
       double bVal = ((Thing.Num) rb).v;
@@ -712,9 +636,9 @@ public class SlippyInterpreter {
           result = ((int) aVal) % ((int) bVal);
           break;
         default:
-          Debug.out("SlippyInterpreter", "Unknown arithmetic operator: " + op);
+          machine.report("SlippyInterpreter", "Unknown arithmetic operator: " + op);
       }
-      ret = new Thing.Num(result);
+      ret = Thing.Num.valueOf(result);
       // TODO: see if there is a user-defined operator for these two things.
       // } else if (operatorExists(ra, rb, op)) {
     } else if (op == '+') {
@@ -749,19 +673,12 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  private Thing doFunctionCallExpr(Tree t) {
+  Thing doFunctionCallExpr(Node.FuncCall t) {
     Thing ret = Thing.NIL;
-    ResolveData res = resolve(t.getChild(0), false, true, true);
+    ResolveData res = resolve(t.target, false, true, true);
     if (res.valid && res.getDeref().type == Thing.Type.Function) {
       Thing.Function function = (Thing.Function) res.getDeref();
-      Tree params = t.getChild(1);
-      List<Thing> argVals = new ArrayList<Thing>();
-      if (params != null) {
-        for (int i = 0; i < params.getChildCount(); i++) {
-          Thing thing = SlippyUtils.dereference(eval(params.getChild(i)).copy());
-          argVals.add(thing);
-        }
-      }
+      List<Thing> argVals = evalArgs(t.args);
       SymbolTable funcContext = null;
       if (res.table.isInstance()) {
         funcContext = res.table.getInstance().symbols;
@@ -780,18 +697,33 @@ public class SlippyInterpreter {
   }
 
   /**
-   * This defers to another invokeFunction method.
+   * Evaluates argument expressions into the values a function receives. A null list of
+   * expressions gives no arguments.
+   *
+   * Passing an argument never copies anything: numbers, strings and booleans are immutable, and
+   * arrays, maps and instances are shared with the caller (a function that adds to an array it was
+   * given changes the caller's array, but assigning a new array to the parameter does not). The
+   * only thing made per argument is the parameter's Variable, in invokeFunction.
+   *
+   * Afterwards lastEvalNode is the call again, not the last thing evaluated in an argument.
    */
-  private Thing invokeFunction(Thing.Function function, Tree params, SymbolTable context) {
-    List<Thing> argVals = new ArrayList<Thing>();
+  private List<Thing> evalArgs(Node[] params) {
+    List<Thing> argVals = new ArrayList<Thing>(params == null ? 0 : params.length);
     if (params != null) {
-      for (int i = 0; i < params.getChildCount(); i++) {
-        Thing thing = SlippyUtils.dereference(eval(params.getChild(i)).copy());
-        argVals.add(thing);
+      Node site = lastEvalNode; // the call itself, which stack traces and the profiler report
+      for (int i = 0; i < params.length; i++) {
+        argVals.add(SlippyUtils.dereference(eval(params[i])));
       }
+      lastEvalNode = site;
     }
+    return argVals;
+  }
 
-    return invokeFunction(function, argVals, context);
+  /**
+   * This defers to another invokeFunction method.
+   */
+  private Thing invokeFunction(Thing.Function function, Node[] params, SymbolTable context) {
+    return invokeFunction(function, evalArgs(params), context);
   }
 
   public Thing invokeFunction(Thing.Function function, List<Thing> argVals, SymbolTable context) {
@@ -799,73 +731,159 @@ public class SlippyInterpreter {
     // Debug.dumpStack("SlippyInterpreter", "calling function " + function + " using context:\n"
     // + bugger);
     Thing ret = Thing.NIL;
-    pushStacktraceLocation();
-    machine.pushFunctionName(function.name);
-    if (function.isBuiltin()) {
-      if (context != null) {
+    checkpoint();
+    callStack.push(lastEvalNode, machine.getCurrentFile(), function.name);
+    if (profiler != null) {
+      profiler.enter(function, machine.getCurrentFile(), lastEvalNode);
+    }
+    try {
+      MemoTable memo = machine.getMemoTable(function, context); // null unless @cacheable
+      Thing cached = (memo == null) ? null : memo.get(argVals);
+      if (function.isBuiltin()) {
         SymbolTable funcTable = machine.pushSymbolTable(context);
-        funcTable.setName("Function '" + function.name + "'");
-      } else {
-        SymbolTable funcTable = machine.pushSymbolTable(null);
-        funcTable.setName("Function '" + function.name + "'");
-      }
-      try {
-        ret = function.eval(argVals, context);
-      } finally {
-        machine.popSymbolTable();
-      }
-    } else if (machine.hasCachedVersion(function, argVals, context)) {
-      ret = machine.getCachedVersion(function, argVals, context);
-    } else {
-      if (function.paramNames.size() == argVals.size()) {
-        if (context != null) {
-          SymbolTable funcTable = machine.pushSymbolTable(context);
-          funcTable.setName("Function '" + function.name + "'");
-        } else {
-          SymbolTable funcTable = machine.pushSymbolTable(null);
-          funcTable.setName("Function '" + function.name + "'");
-        }
-        for (int i = 0; i < function.paramNames.size(); i++) {
-          String name = function.paramNames.get(i);
-          Thing value = new Thing.Variable(argVals.get(i));
-          machine.set(name, value);
-        }
+        funcTable.setFunction(function);
         try {
-          machine.pushFileName(function.sourceFileName);
-          discover(function.block);
+          ret = function.eval(argVals, context);
         } finally {
-          machine.popFileName(false);
+          machine.popSymbolTable();
         }
-        ret = machine.getReturnValue();
-        machine.popSymbolTable();
-        machine.setCachedVersion(function, argVals, context, ret);
+      } else if (cached != null) {
+        ret = cached;
       } else {
-        err("Error: wrong number of params for function: " + function + " (you provided "
-            + Debug.num(argVals, ", ") + ").");
+        if (function.paramNames.size() == argVals.size()) {
+          Node.Lambda code = function.code;
+          SymbolTable funcTable = machine.pushSymbolTable(context, code.scope);
+          try {
+            funcTable.setFunction(function);
+            for (int i = 0; i < code.paramSlots.length; i++) {
+              funcTable.slots[code.paramSlots[i]] = new Thing.Variable(argVals.get(i));
+            }
+            machine.pushFileName(function.sourceFileName);
+            try {
+              exec(code.body);
+            } finally {
+              machine.popFileName(false);
+            }
+            ret = machine.getReturnValue();
+          } finally {
+            machine.popSymbolTable();
+          }
+          if (memo != null) {
+            memo.put(argVals, ret);
+          }
+        } else {
+          err("Error: wrong number of params for function: " + function + " (you provided "
+              + Debug.num(argVals, ", ") + ").");
+        }
       }
+    } finally {
+      // also when a call is cancelled, so the stacks are right for whatever runs next.
+      if (profiler != null) {
+        profiler.exit();
+      }
+      callStack.pop();
     }
-    machine.popFunctionName();
-    popStacktraceLocation();
     return ret;
   }
 
-  private SlippyLocation popStacktraceLocation() {
-    return executionStack.pop();
+  /**
+   * Turns the profiler on (with fresh counts) or off. While it is on, every function call is
+   * counted and timed; see getProfiler().
+   */
+  public void setProfiling(boolean on) {
+    profiler = on ? new Profiler() : null;
+  }
+
+  /**
+   * Gives the profiler, or null if profiling is off.
+   */
+  public Profiler getProfiler() {
+    return profiler;
+  }
+
+  /**
+   * Limits how much work each run may do: at most maxSteps loop iterations and function calls, and
+   * at most maxMillis milliseconds. Zero means no limit. A run that goes over is stopped with a
+   * SlippyCancelledException. The limits count from the last call to startRun().
+   */
+  public void setLimits(long maxSteps, long maxMillis) {
+    this.maxSteps = maxSteps;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * Starts counting steps and time for a new run, and forgets an earlier cancel().
+   */
+  public void startRun() {
+    stopReason = null;
+    steps = 0;
+    deadline = (maxMillis > 0) ? System.nanoTime() + maxMillis * 1000000L : 0;
+  }
+
+  /**
+   * Asks the running program to stop. This may be called from any thread. The program stops at
+   * the next loop iteration or function call, by throwing a SlippyCancelledException out of
+   * whatever method of this interpreter is running it.
+   */
+  public void cancel() {
+    stopReason = "Stopped.";
   }
 
-  private void pushStacktraceLocation() {
-    executionStack.push(makeStacktraceLocation());
+  /**
+   * Puts the interpreter back the way a new one is, so it can run an unrelated program: the
+   * machine's runtime state is reset and it forgets its environment, output and message bus, and
+   * the limits, profiler and call stack are cleared. Parse trees stay in the shared parse cache.
+   */
+  public void reset() {
+    lastEvalNode = null;
+    arrayReceiver = null;
+    callStack = new CallStack();
+    profiler = null;
+    stopReason = null;
+    maxSteps = 0;
+    maxMillis = 0;
+    steps = 0;
+    deadline = 0;
+    inputDepth = 0;
+    arrayCount = 0;
+    machine.resetRuntimeState();
+    machine.setEnvironment(null);
+    machine.setOut(null);
+    machine.setMessageBus(null);
   }
 
+  int nextArrayId() {
+    return arrayCount++;
+  }
+
+  /**
+   * Called at each loop iteration and function call. It is cheap unless the run has to stop: the
+   * clock is only read every 1024 steps. Once a run is stopped every later checkpoint throws too,
+   * until startRun(), so code that catches the exception can't carry on for long.
+   */
+  private void checkpoint() {
+    steps++;
+    if (maxSteps > 0 && steps > maxSteps) {
+      stopReason = "Stopped after " + maxSteps + " steps.";
+    } else if (deadline != 0 && (steps & 1023) == 0 && System.nanoTime() > deadline) {
+      stopReason = "Stopped after " + maxMillis + " ms.";
+    }
+    if (stopReason != null) {
+      throw new SlippyCancelledException(stopReason);
+    }
+  }
+
+  /**
+   * Gives the location of the innermost function call, or null outside of any function.
+   */
   public SlippyLocation getStacktraceLocation() {
-    return executionStack.peek();
+    return callStack.size() == 0 ? null : callStack.getLocation(callStack.size() - 1);
   }
 
   public String getStacktrace() {
     StringBuilder buf = new StringBuilder();
-    for (int i = executionStack.size() - 1; i >= 0; i--) {
-      SlippyLocation loc = executionStack.get(i);
-      buf.append("  " + loc);
+    for (int i = callStack.size() - 1; i >= 0; i--) {
+      buf.append("  " + callStack.getLocation(i));
       if (i > 0) {
         buf.append("\n");
       }
@@ -873,22 +891,31 @@ public class SlippyInterpreter {
     return buf.toString();
   }
 
-  private SlippyLocation makeStacktraceLocation() {
-    return new SlippyLocation(machine.getCurrentFile(), machine.getCurrentFunction(), lastEvalTree
-        .getLine(), lastEvalTree.getCharPositionInLine());
+  /**
+   * The name of the function now running, or null at the top level of a file.
+   */
+  String getCurrentFunction() {
+    return callStack.getCurrentFunction();
   }
 
-  private Thing doIdentifierEval(Tree t) {
+  Thing doIdentifierEval(Node.Id t) {
     Thing ret = Thing.NIL;
-    String name = t.getText();
-    ResolveData res = resolve(t, false, true, true); // machine.find(name);
-    ret = res.getDeref();
+    String name = t.name;
+    Thing slot = t.lookupSlot(machine.getSymbolTable());
+    if (slot != null) {
+      ret = SlippyUtils.dereference(slot);
+    } else {
+      ResolveData res = resolve(t, false, true, true); // machine.find(name);
+      ret = res.getDeref();
+    }
     if (ret == Thing.NIL) {
       try {
         if (Character.isUpperCase(name.charAt(0))) {
           Thing maybeClass = machine.findClass(name);
           ret = maybeClass;
         }
+      } catch (SlippyCancelledException ex) {
+        throw ex;
       } catch (Exception ignore) {
         // No big deal. It just means the identifier is unknown. That could be part of the
         // hacker's plan, for example: if(someUndeclaredVariable)
@@ -897,7 +924,7 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  private Thing evalMemberExpr(Tree t) {
+  Thing evalMemberExpr(Node.Member t) {
     Thing ret = Thing.NIL;
     ResolveData res = resolve(t, false, true, true); // TODO: maybe change complain to false?
     if (res.valid) {
@@ -907,23 +934,19 @@ public class SlippyInterpreter {
 
   }
 
-  private void discoverAllChildren(Tree t) {
-    for (int i = 0; i < t.getChildCount(); i++) {
-      discover(t.getChild(i));
-    }
-  }
-
-  public Thing doEqualityExpr(Tree at, Tree bt, char op) {
-    Thing regA = eval(at);
-    Thing regB = eval(bt);
+  Thing doEqualityExpr(Node at, Node bt, char op) {
+    Thing regA = evalOperand(at);
+    Thing regB = evalOperand(bt);
     return equate(regA, regB, op);
   }
 
+
   public Thing equate(Thing regA, Thing regB, char op) {
     boolean result = false;
     if (regA.type == regB.type && regA.type == Thing.Type.Number) {
-      float a = SlippyUtils.toFloat(regA.toString());
-      float b = SlippyUtils.toFloat(regB.toString());
+      // compared at float precision, as they always have been
+      float a = (float) ((Thing.Num) regA).v;
+      float b = (float) ((Thing.Num) regB).v;
       switch (op) {
         case '<':
           result = a < b;
@@ -1001,7 +1024,7 @@ public class SlippyInterpreter {
       // + " at " + at.getLine() + ":" + at.getCharPositionInLine());
     }
 
-    return new Thing.Bool(result);
+    return Thing.Bool.valueOf(result);
   }
 
   private boolean equateInstances(Thing.Instance a, Thing.Instance b, char op) {
@@ -1010,14 +1033,15 @@ public class SlippyInterpreter {
     Thing result = invokeInstanceFunction((Thing.Instance) a, "equals", otherList);
     boolean ret;
     if (op == '=') {
-      ret = SlippyUtils.isThingTrue(result);
+      ret = result.isTrue();
     } else {
-      ret = !SlippyUtils.isThingTrue(result);
+      ret = !result.isTrue();
     }
     return ret;
   }
 
-  private Thing doIndexedArrayExpr(Tree symT, Tree idxT) {
+
+  Thing doIndexedArrayExpr(Node symT, Node idxT) {
     Thing ret = Thing.NIL;
     Thing sym = eval(symT);
     if (sym.type == Thing.Type.Array || sym.type == Thing.Type.Map) {
@@ -1029,10 +1053,10 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  private Thing doIndexedArrayAccess(Thing sym, Tree idxT) {
+  private Thing doIndexedArrayAccess(Thing sym, Node idxT) {
     Thing ret = Thing.NIL;
     if (sym.type == Thing.Type.Array) {
-      int idx = SlippyUtils.toInt(eval(idxT).toString());
+      int idx = SlippyUtils.toInt(eval(idxT));
       Thing.Array arr = (Thing.Array) sym;
       if (arr.size() >= idx) {
         ret = arr.getValue(idx);
@@ -1052,93 +1076,98 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  public void doWhile(Tree t) {
-    while (SlippyUtils.toTruth(eval(t.getChild(0)).toString())) {
-      if (t.getChildCount() > 1) {
-        discoverAllChildren(t.getChild(1));
+  void doWhile(Node.While t) {
+    while (eval(t.condition).isTrue()) {
+      checkpoint();
+      if (t.body != null) {
+        exec(t.body);
       }
     }
   }
 
-  private void doIf(Tree t) {
-    Tree child;
-    boolean didSomething = false;
-    for (int i = 0; i < t.getChildCount(); i++) {
-      child = t.getChild(i);
-      if (child.getType() == STMT_CONDITION_BLOCK) {
-        if (SlippyUtils.isThingTrue(eval(child.getChild(0)))) {
-          if (child.getChildCount() > 1) {
-            discover(child.getChild(1));
-            didSomething = true;
-          }
-          break;
+  void doIf(Node.If t) {
+    boolean tookBranch = false;
+    for (int i = 0; i < t.conditions.length; i++) {
+      if (eval(t.conditions[i]).isTrue()) {
+        if (t.bodies[i] != null) {
+          exec(t.bodies[i]);
         }
-      } else if (child.getType() == BLOCK && !didSomething) {
-        // child is the else clause. It is not
-        discover(child);
+        tookBranch = true;
+        break;
       }
     }
+    if (!tookBranch && t.elseBody != null) {
+      exec(t.elseBody);
+    }
   }
 
-  private void doLoop(Tree t) {
-    if (t.getChildCount() == 3) {
-      // this is loop( x : thing ) block-of-code done
-      String varName = t.getChild(0).getText();
-      int numIterations = 0;
-      while (true) {
-        Thing numOrList = eval(t.getChild(1));
-        if (numOrList.type == Thing.Type.Array && numIterations >= ((Thing.Array) numOrList).size()) {
-          break;
-        } else if (numOrList.type == Thing.Type.Number
-            && numIterations >= SlippyUtils.toInt(numOrList.toString())) {
-          break;
-        } else if (!(numOrList.type == Thing.Type.Number || numOrList.type == Thing.Type.Array)) {
-          err("Invalid loop expression at " + bugLocation(t.getChild(1)) + ": found " + numOrList
-              + " (type " + numOrList.type + ")");
-          break;
-        }
-        machine.pushSymbolTable();
+  void doLoop(Node.LoopEach t) {
+    // this is loop( x : thing ) block-of-code done
+    int numIterations = 0;
+    while (true) {
+      Thing numOrList = eval(t.collection);
+      if (numOrList.type == Thing.Type.Array && numIterations >= ((Thing.Array) numOrList).size()) {
+        break;
+      } else if (numOrList.type == Thing.Type.Number
+          && numIterations >= SlippyUtils.toInt(numOrList)) {
+        break;
+      } else if (!(numOrList.type == Thing.Type.Number || numOrList.type == Thing.Type.Array)) {
+        err("Invalid loop expression at " + bugLocation(t.collection) + ": found " + numOrList
+            + " (type " + numOrList.type + ")");
+        break;
+      }
+      checkpoint();
+      SymbolTable iteration = machine.pushSymbolTable(machine.getSymbolTable(), t.scope);
+      try {
         if (numOrList.type == Thing.Type.Array) {
           Thing value = ((Thing.Array) numOrList).getValue(numIterations);
-          machine.set(varName, value);
+          iteration.slots[t.varSlot] = value;
         } else {
-          Thing value = new Thing.Num(numIterations);
-          machine.set(varName, value);
+          Thing value = Thing.Num.valueOf(numIterations);
+          iteration.slots[t.varSlot] = value;
+        }
+        if (t.body != null) {
+          exec(t.body);
         }
-        discover(t.getChild(2));
+      } finally {
         machine.popSymbolTable();
-        numIterations++;
       }
+      numIterations++;
+    }
+  }
 
-    } else {
-      // this is loop (expr) block-of-code done
-      // expr could be anything: a number, a boolean, something else...
-      Tree conditionalBlock = t.getChild(0);
-      Tree conditionTree = conditionalBlock.getChild(0);
-      Tree block = conditionalBlock.getChild(1);
-
-      machine.pushSymbolTable();
+  void doLoop(Node.LoopCond t) {
+    // this is loop (expr) block-of-code done
+    // expr could be anything: a number, a boolean, something else...
+    machine.pushSymbolTable(machine.getSymbolTable(), t.scope);
+    try {
       int numIterations = 0;
       while (true) {
-        Thing condition = eval(conditionTree);
+        Thing condition = eval(t.condition);
         if (condition.type == Thing.Type.Number
-            && SlippyUtils.toInt(condition.toString()) <= numIterations) {
+            && SlippyUtils.toInt(condition) <= numIterations) {
           break;
         } else if (condition.type == Thing.Type.Boolean
-            && !SlippyUtils.toTruth(condition.toString())) {
+            && !condition.isTrue()) {
           break;
-        } else if (!(condition.type == Thing.Type.Number || condition.type == Thing.Type.Boolean)) {
-          err("Invalid loop expression at " + bugLocation(conditionTree) + ": found " + condition
+        } else if (!(condition.type == Thing.Type.Number
+            || condition.type == Thing.Type.Boolean)) {
+          err("Invalid loop expression at " + bugLocation(t.condition) + ": found " + condition
               + " (type " + condition.type + ")");
           break;
         }
-        discover(block);
+        checkpoint();
+        if (t.body != null) {
+          exec(t.body);
+        }
         numIterations++;
       }
+    } finally {
       machine.popSymbolTable();
     }
   }
 
+
   public SlippyMachine getMachine() {
     return machine;
   }
@@ -1158,7 +1187,7 @@ public class SlippyInterpreter {
     return ret;
   }
 
-  public void recordAnnotation(String symbolName, Tree annoteTree) {
+  public Thing.Annotation recordAnnotation(String symbolName, Tree annoteTree) {
     String annName = annoteTree.getChild(0).getText();
     Thing.Annotation annotation = new Thing.Annotation(annName);
     if (annoteTree.getChildCount() == 2) {
@@ -1168,5 +1197,6 @@ public class SlippyInterpreter {
       }
     }
     machine.addAnnotation(symbolName, annotation);
+    return annotation;
   }
 }
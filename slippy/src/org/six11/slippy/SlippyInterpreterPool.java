@@ -0,0 +1,80 @@
+package org.six11.slippy;
+
+import java.io.PrintStream;
+import java.util.LinkedList;
+
+/**
+ * Interpreters for running many Slippy programs at once in one JVM, e.g. one per request in a
+ * servlet. Each interpreter has a machine of its own, and machines share nothing that a program can
+ * change: symbol tables, codesets, classes, memo tables and counters all belong to one machine.
+ * The few tables they do share, like the builtin array methods, are only ever read.
+ * Programs also print to the output stream they were given rather than to the shared
+ * SlippyMachine.outputStream, and so do the interpreter's errors about them (bad array arguments,
+ * calling something that isn't a function, strings that aren't numbers, ...). A few messages are
+ * made where no machine is at hand: syntax errors, which the parser prints to System.err, and a
+ * Thing that doesn't override copy() or isTrue() or an array method called without an array,
+ * which go to Debug.outputStream.
+ *
+ * An interpreter and its machine must only be used by one thread at a time. acquire() gives one to
+ * the caller; release() resets it and keeps it for the next caller, which is cheaper than making a
+ * new one and lets later programs reuse the parse trees of earlier ones.
+ */
+public class SlippyInterpreterPool {
+
+  public static final int DEFAULT_MAX_IDLE = 8;
+
+  private final int maxIdle;
+  private final LinkedList<SlippyInterpreter> idle;
+
+  public SlippyInterpreterPool() {
+    this(DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * @param maxIdle
+   *          how many released interpreters to keep for reuse. More can be in use at once.
+   */
+  public SlippyInterpreterPool(int maxIdle) {
+    this.maxIdle = maxIdle;
+    this.idle = new LinkedList<SlippyInterpreter>();
+  }
+
+  /**
+   * Gives an interpreter that nobody else is using, set up to load classes from the given
+   * environment and print to the given stream. Hand it back with release() when the program is
+   * done.
+   */
+  public SlippyInterpreter acquire(Environment env, PrintStream out) {
+    SlippyInterpreter ret;
+    synchronized (idle) {
+      ret = idle.poll();
+    }
+    if (ret == null) {
+      ret = new SlippyInterpreter();
+    }
+    ret.getMachine().setEnvironment(env);
+    ret.getMachine().setOut(out);
+    return ret;
+  }
+
+  /**
+   * Resets the interpreter and keeps it for reuse, unless enough are being kept already. The caller
+   * must not use it afterwards.
+   */
+  public void release(SlippyInterpreter interp) {
+    interp.reset();
+    synchronized (idle) {
+      if (idle.size() < maxIdle) {
+        idle.add(interp);
+      }
+    }
+  }
+
+  public int getIdleCount() {
+    int ret;
+    synchronized (idle) {
+      ret = idle.size();
+    }
+    return ret;
+  }
+}
@@ -14,15 +14,20 @@ import org.six11.util.Debug;
  */
 public class SlippyMachine {
 
+  /**
+   * Where programs print, for machines that weren't given an output stream of their own.
+   */
   public static PrintStream outputStream = System.out;
 
-  private Stack<SymbolTable> symbolStack;
-  private Stack<String> fileNames;
-  private Stack<String> functionNames;
+  private PrintStream out; // this machine's own output, or null to use outputStream
+
+  private List<SymbolTable> symbolStack; // the top is the last element
+  private List<String> fileNames; // the same
   private Set<String> loadedFiles;
   private Map<String, Thing.Codeset> namedCodesets;
   private Map<String, Map<String, Thing.Clazz>> importedClasses; // maps files to a list of imports
-  private Map<Annotation, Map<SymbolTable, Map<List<Thing>, Thing>>> caches;
+  private Map<Function, Map<SymbolTable, MemoTable>> caches; // for @cacheable functions
+  private List<MemoTable> memoTables; // the same tables, in the order they were made
 
   boolean debugging = false; // set to false to supress table printouts.
 
@@ -58,20 +63,55 @@ public class SlippyMachine {
   public void resetRuntimeState() {
     globalTable = new SymbolTable();
     globalTable.setName("Global symbol table");
-    symbolStack = new Stack<SymbolTable>();
-    fileNames = new Stack<String>();
-    functionNames = new Stack<String>();
+    symbolStack = new ArrayList<SymbolTable>();
+    fileNames = new ArrayList<String>();
     loadedFiles = new HashSet<String>();
     fileToCodeset = new HashMap<String, Thing.Codeset>();
     namedCodesets = new HashMap<String, Thing.Codeset>();
     importedClasses = new HashMap<String, Map<String, Thing.Clazz>>();
-    caches = new HashMap<Annotation, Map<SymbolTable, Map<List<Thing>, Thing>>>();
+    caches = new IdentityHashMap<Function, Map<SymbolTable, MemoTable>>();
+    memoTables = new ArrayList<MemoTable>();
 
     pushFileName("__default__");
     SlippyBuiltins.initBuiltins(interp, this, globalTable);
 
     popFileName(true);
-    symbolStack.push(globalTable);
+    symbolStack.add(globalTable);
+  }
+
+  /**
+   * Gives the stream this machine's programs print to: its own, if it was given one, or else the
+   * shared SlippyMachine.outputStream.
+   */
+  public PrintStream getOut() {
+    return (out == null) ? outputStream : out;
+  }
+
+  /**
+   * Gives the machine an output stream of its own, or takes it away again (with null). A machine
+   * with its own output also writes the interpreter's error messages there instead of to the shared
+   * Debug stream, so programs running side by side in one JVM never mix their output.
+   */
+  public void setOut(PrintStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Gives the stream for the interpreter's error messages and stack traces.
+   */
+  PrintStream getReportStream() {
+    return (out == null) ? Debug.outputStream : out;
+  }
+
+  /**
+   * Reports a message from the interpreter (or machine) on the report stream.
+   */
+  void report(String who, String what) {
+    if (out == null) {
+      Debug.out(who, what);
+    } else {
+      out.println(who + ": " + what);
+    }
   }
 
   public void setMessageBus(MessageBus bus) {
@@ -83,7 +123,7 @@ public class SlippyMachine {
   }
 
   private void bug(String what) {
-    Debug.out("SlippyMachine", what);
+    report("SlippyMachine", what);
   }
 
   // private void err(String what) {
@@ -202,56 +242,36 @@ public class SlippyMachine {
     getSymbolTable().addAnnotation(symbolName, annotation);
   }
 
-  @SuppressWarnings("unchecked")
-  public void setCachedVersion(Function function, List<Thing> argVals, SymbolTable context,
-      Thing val) {
-    if (context != null) {
-      Thing.Annotation ann = context.getAnnotation(function.name, "cacheable");
-      if (ann != null) {
-        if (!caches.containsKey(ann)) {
-          caches.put(ann, new HashMap<SymbolTable, Map<List<Thing>, Thing>>());
-        }
-        if (!caches.get(ann).containsKey(context)) {
-          caches.get(ann).put(context, new HashMap<List<Thing>, Thing>());
-        }
-        Map<List<Thing>, Thing> values = caches.get(ann).get(context);
-        if (values.size() > 10) {
-          // TODO: the values should be chronologically ordered.
-          List<Thing> removeMe = (List<Thing>) values.keySet().toArray()[10];
-          values.remove(removeMe);
-        }
-        values.put(argVals, val);
+  /**
+   * Gives the memo table for calls to a @cacheable function in the given context (the instance or
+   * class symbols it runs with, or null for a global function), making it on first use. Gives null
+   * if the function isn't @cacheable. Contexts are told apart by identity, since a table's hash
+   * changes whenever one of its symbols does.
+   */
+  public MemoTable getMemoTable(Function function, SymbolTable context) {
+    MemoTable ret = null;
+    if (function.cacheable != null) {
+      Map<SymbolTable, MemoTable> byContext = caches.get(function);
+      if (byContext == null) {
+        byContext = new IdentityHashMap<SymbolTable, MemoTable>();
+        caches.put(function, byContext);
       }
-    }
-  }
-
-  public Thing getCachedVersion(Function function, List<Thing> argVals, SymbolTable context) {
-    Thing ret = null;
-    if (context != null) {
-      Thing.Annotation ann = context.getAnnotation(function.name, "cacheable");
-      if (ann != null && caches.get(ann) != null && caches.get(ann).get(context) != null) {
-        Map<List<Thing>, Thing> pastResults = caches.get(ann).get(context);
-        for (List<Thing> params : pastResults.keySet()) {
-          boolean ok = true;
-          for (int i = 0; i < params.size(); i++) {
-            if (!params.get(i).equals(argVals.get(i))) {
-              ok = false;
-              break;
-            }
-          }
-          if (ok) {
-            ret = pastResults.get(params);
-            break;
-          }
-        }
+      ret = byContext.get(context);
+      if (ret == null) {
+        String name = function.name + (context == null ? "" : " (" + context.getName() + ")");
+        ret = MemoTable.make(name, function.cacheable, interp);
+        byContext.put(context, ret);
+        memoTables.add(ret);
       }
     }
     return ret;
   }
 
-  public boolean hasCachedVersion(Function function, List<Thing> argVals, SymbolTable context) {
-    Thing cachedVersion = getCachedVersion(function, argVals, context);
-    return cachedVersion != null;
+  /**
+   * Gives every memo table made so far, e.g. to look at hit and miss counts.
+   */
+  public List<MemoTable> getMemoTables() {
+    return new ArrayList<MemoTable>(memoTables);
   }
 
   public void showSymbolTables_() {
@@ -260,25 +280,26 @@ public class SlippyMachine {
 
   public void showTables(String when) {
     if (debugging) {
-      outputStream.println(" /~");
+      getOut().println(" /~");
       showSymbolTables(when);
-      outputStream.println(" \\_");
+      getOut().println(" \\_");
     }
   }
 
   public void showSymbolTables(String when) {
     SymbolTable top = getSymbolTable();
-    outputStream.println("     Symbol Tables " + (when == null ? "" : " < " + when + " >"));
+    PrintStream out = getOut();
+    out.println("     Symbol Tables " + (when == null ? "" : " < " + when + " >"));
     for (SymbolTable st : symbolStack) {
-      outputStream.println("--- " + st.hashCode() + " --------" + (st == top ? " (top)" : "------")
+      out.println("--- " + st.hashCode() + " --------" + (st == top ? " (top)" : "------")
           + (st.parent == null ? "(no parent)" : "(parent: " + st.parent.hashCode() + ")"));
-      st.printDebug();
-      outputStream.println("----------------------------------------------------");
+      st.printDebug(out);
+      out.println("----------------------------------------------------");
     }
   }
 
   public SymbolTable getSymbolTable() {
-    return symbolStack.peek();
+    return symbolStack.get(symbolStack.size() - 1);
   }
 
   /**
@@ -288,9 +309,19 @@ public class SlippyMachine {
    * 'print' live in the global table.)
    */
   public SymbolTable pushSymbolTable(SymbolTable parent) {
-    SymbolTable newSymbols = new SymbolTable(parent);
-    symbolStack.push(newSymbols);
-    showTables("after symbol push");
+    return pushSymbolTable(parent, null);
+  }
+
+  /**
+   * Pushes a table whose lexically known variables are kept in slots laid out by the given scope.
+   * This is used for function frames and loop bodies.
+   */
+  SymbolTable pushSymbolTable(SymbolTable parent, Scope scope) {
+    SymbolTable newSymbols = new SymbolTable(parent, scope);
+    symbolStack.add(newSymbols);
+    if (debugging) {
+      showTables("after symbol push");
+    }
     return newSymbols;
   }
 
@@ -304,11 +335,13 @@ public class SlippyMachine {
   }
 
   public void popSymbolTable() {
-    symbolStack.pop();
+    symbolStack.remove(symbolStack.size() - 1);
     if (symbolStack.isEmpty()) {
       Debug.dumpStack("SlippyMachine", "Symbol stack is now empty. That should not happen.");
     }
-    showTables("after symbol pop");
+    if (debugging) {
+      showTables("after symbol pop");
+    }
   }
 
   public void setReturnValue(Thing ret) {
@@ -319,7 +352,7 @@ public class SlippyMachine {
     if (n == null) {
       Debug.dumpStack("SlippyMachine", "you shouldn't push a null file name. Where am I?");
     }
-    fileNames.push(n);
+    fileNames.add(n);
   }
 
   /**
@@ -327,7 +360,7 @@ public class SlippyMachine {
    * won't be re-loaded unless you jump through hoops.
    */
   public String popFileName(boolean load) {
-    String fileLoaded = fileNames.pop();
+    String fileLoaded = fileNames.remove(fileNames.size() - 1);
     if (load) {
       loadedFiles.add(fileLoaded);
     }
@@ -346,7 +379,10 @@ public class SlippyMachine {
   }
 
   public String getCurrentFile() {
-    return fileNames.peek();
+    if (fileNames.isEmpty()) {
+      throw new EmptyStackException(); // as it did when this was a java.util.Stack
+    }
+    return fileNames.get(fileNames.size() - 1);
   }
 
   public String getCallingFile() {
@@ -395,16 +431,12 @@ public class SlippyMachine {
     SlippyMachine.outputStream = outputStream;
   }
 
-  public void pushFunctionName(String name) {
-    functionNames.push(name);
-  }
-  
-  public String popFunctionName() {
-    return functionNames.pop();
-  }
-  
+  /**
+   * Gives the name of the function now running, or null at the top level of a file. Function
+   * calls are tracked by the interpreter's call stack.
+   */
   public String getCurrentFunction() {
-    return functionNames.isEmpty() ? null : functionNames.peek();
+    return interp.getCurrentFunction();
   }
 
 }
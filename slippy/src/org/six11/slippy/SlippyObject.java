@@ -49,7 +49,7 @@ public class SlippyObject {
       } finally {
         interp.getMachine().popFileName(false);
         if (error) {
-          SlippyMachine.outputStream.println("Tiny black hole created while calling function "
+          interp.getMachine().getOut().println("Tiny black hole created while calling function "
               + functionName);
         }
       }
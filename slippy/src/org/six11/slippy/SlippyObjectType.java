@@ -18,7 +18,7 @@ public class SlippyObjectType {
     if (in.type != Thing.Type.Class) {
       IllegalArgumentException e = new IllegalArgumentException("SlippyObjectType constructor received Thing of type "
           + in.type);
-      e.printStackTrace(SlippyMachine.outputStream);
+      e.printStackTrace(interp.getMachine().getOut());
       throw e; 
       
     }
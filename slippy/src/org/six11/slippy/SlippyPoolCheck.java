@@ -0,0 +1,96 @@
+package org.six11.slippy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.six11.olive.DiskEnvironment;
+
+/**
+ * Checks that programs running at once on interpreters from one SlippyInterpreterPool don't
+ * disturb each other through the state their machines share. Several threads run the same program
+ * over and over; it dumps an array's members (the shared builtin methods table) and uses arrays.
+ * Every run must print the same thing, and reading the shared table must not have changed it.
+ * Exits with status 1 if anything is wrong.
+ *
+ * <pre>
+ *   java org.six11.slippy.SlippyPoolCheck
+ * </pre>
+ */
+public class SlippyPoolCheck {
+
+  private static final int THREADS = 8;
+  private static final int RUNS = 40; // per thread
+
+  private static final String PROGRAM = "x = [3, 1, 2]\n" + "printMembers(x)\n"
+      + "x.sort = lambda(a, b) a - b done\n" + "x.add(0, 5, 4)\n" + "print(x)\n";
+
+  public static void main(String[] args) throws Exception {
+    List<String> problems = check();
+    for (String p : problems) {
+      System.out.println("FAIL " + p);
+    }
+    if (problems.isEmpty()) {
+      System.out.println("PASS " + (THREADS * RUNS) + " pooled runs on " + THREADS
+          + " threads printed the same output");
+    } else {
+      System.exit(1);
+    }
+  }
+
+  static List<String> check() throws Exception {
+    List<String> ret = new ArrayList<String>();
+    final SlippyInterpreterPool pool = new SlippyInterpreterPool(THREADS);
+    final String dir = new File(".").getAbsolutePath();
+    String expected = run(pool, dir);
+    ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+      for (int i = 0; i < THREADS; i++) {
+        futures.add(threads.submit(new Callable<List<String>>() {
+          public List<String> call() throws Exception {
+            List<String> outputs = new ArrayList<String>();
+            for (int j = 0; j < RUNS; j++) {
+              outputs.add(run(pool, dir));
+            }
+            return outputs;
+          }
+        }));
+      }
+      for (Future<List<String>> f : futures) {
+        for (String output : f.get()) {
+          if (!output.equals(expected)) {
+            ret.add("a pooled run printed:\n" + output + "instead of:\n" + expected);
+          }
+        }
+      }
+    } finally {
+      threads.shutdown();
+    }
+    if (!Thing.Array.METHODS.annotations.isEmpty()) {
+      ret.add("reading the array methods table added entries to it: "
+          + Thing.Array.METHODS.annotations.keySet());
+    }
+    return ret;
+  }
+
+  private static String run(SlippyInterpreterPool pool, String dir) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(output, true);
+    SlippyInterpreter interp = pool.acquire(new DiskEnvironment(dir), out);
+    try {
+      interp.getMachine().pushFileName(new File(dir, "pool-check.slippy").getAbsolutePath());
+      interp.handleInput(PROGRAM);
+    } finally {
+      pool.release(interp);
+    }
+    out.flush();
+    return output.toString("UTF-8");
+  }
+}
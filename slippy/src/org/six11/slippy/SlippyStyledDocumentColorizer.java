@@ -1,32 +1,42 @@
 package org.six11.slippy;
 
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 
 import org.antlr.runtime.ANTLRStringStream;
-import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
 import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.CommonTreeNodeStream;
 import org.six11.util.gui.Colors;
 
 /**
- * A Slippy syntax highlighter for StyledDocument objects in Java.
+ * A Slippy syntax highlighter for StyledDocument objects in Java. It watches the document it
+ * colors for edits, so coloring it again only redoes the part that changed.
  *
  * @author Gabe Johnson <johnsogg@cmu.edu>
  */
 public class SlippyStyledDocumentColorizer {
 
   private Map<String, AttributeSet> styles;
+  private StyledDocument tracked; // the document walked last, and watched for edits since
+  private List<CommonToken> tokens; // its tokens as of the last walk
+  private String[] tokenStyles; // the name of the style each of those tokens was given
+  private int oldLength; // the document's length as of the last walk
+  private int damageStart = -1; // the first edited character since the last walk, or -1
+  private int damageTail; // the number of unedited characters at the end
 
   enum FontStyle {
     plain, italic, bold, both
@@ -112,48 +122,256 @@ public class SlippyStyledDocumentColorizer {
     return aset;
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Colors the document. The first time a document is walked every token is colored. After that
+   * the colorizer knows which part of the document was edited since the last walk, and only lexes
+   * again from the last token boundary before the edit until the new tokens line up with the old
+   * ones after it. Tokens after that point are reused. The whole token list is still parsed, since
+   * an edit can change the meaning of code far away (a name becoming a function, say), but only the
+   * tokens whose style changed, and the edited stretch, get new character attributes. Neighboring
+   * tokens with the same style are changed together.
+   */
   public void walk(StyledDocument document) throws Exception {
+    if (document != tracked) {
+      track(document);
+    }
+    if (tokens == null || damageStart >= 0) {
+      boolean ok = false;
+      try {
+        update(document);
+        ok = true;
+      } finally {
+        if (!ok) {
+          tokens = null; // the old tokens may be half shifted. start over next time.
+        }
+      }
+    }
+  }
+
+  private void track(StyledDocument document) {
+    if (tracked != null) {
+      tracked.removeDocumentListener(damageListener);
+    }
+    tracked = document;
+    tokens = null;
+    damageStart = -1;
+    document.addDocumentListener(damageListener);
+  }
+
+  /**
+   * Remembers the edited part of the document as the offset of its first character and the number
+   * of untouched characters after it. Counting those from the end means later edits before them
+   * don't move them.
+   */
+  private DocumentListener damageListener = new DocumentListener() {
+    public void insertUpdate(DocumentEvent e) {
+      int length = e.getDocument().getLength();
+      addDamage(e.getOffset(), length - e.getOffset() - e.getLength());
+    }
+
+    public void removeUpdate(DocumentEvent e) {
+      int length = e.getDocument().getLength();
+      addDamage(e.getOffset(), length - e.getOffset());
+    }
+
+    public void changedUpdate(DocumentEvent e) {
+      // only attributes changed (most likely by this colorizer), not text.
+    }
+  };
+
+  private void addDamage(int start, int tail) {
+    if (damageStart < 0) {
+      damageStart = start;
+      damageTail = tail;
+    } else {
+      damageStart = Math.min(damageStart, start);
+      damageTail = Math.min(damageTail, tail);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void update(StyledDocument document) throws Exception {
     int len = document.getLength();
-    String programString = document.getText(0, document.getLength());
-    CharStream cs = new ANTLRStringStream(programString);
-    SlippySyntaxLexer myLexer = new SlippySyntaxLexer(cs);
-    CommonTokenStream tokens = new CommonTokenStream(myLexer);
-    SlippySyntaxParser myParser = new SlippySyntaxParser(tokens);
+    String programString = document.getText(0, len);
+    ANTLRStringStream cs = new ANTLRStringStream(programString);
+    List<CommonToken> toks = new ArrayList<CommonToken>();
+    List<CommonToken> old = tokens;
+    int relexStart = 0; // the first character and token that were lexed again
+    int relexFirst = 0;
+    int reuseFrom = (old == null) ? 0 : old.size(); // the first old token used again after them
+    int delta = len - oldLength;
+
+    if (old != null) {
+      // keep the old tokens that end before the edit, less one in case the edit extends it.
+      while (relexFirst < old.size() && old.get(relexFirst).getStopIndex() + 1 < damageStart) {
+        relexFirst++;
+      }
+      relexFirst = Math.max(0, relexFirst - 1);
+      relexStart = (relexFirst == 0) ? 0 : old.get(relexFirst - 1).getStopIndex() + 1;
+      for (int i = 0; i < relexFirst; i++) {
+        old.get(i).setInputStream(cs);
+        toks.add(old.get(i));
+      }
+      cs.seek(relexStart);
+    }
+
+    // Lex until a new token after the edit starts just where an old one did. The characters from
+    // there on are the same, so the rest of the tokens will be too.
+    int damageEnd = (old == null) ? len : len - damageTail;
+    int j = (old == null) ? 0 : relexFirst;
+    SlippySyntaxLexer lexer = new SlippySyntaxLexer(cs);
+    CommonToken t = (CommonToken) lexer.nextToken();
+    while (t.getType() != Token.EOF) {
+      if (old != null && t.getStartIndex() >= damageEnd) {
+        while (j < old.size() && old.get(j).getStartIndex() + delta < t.getStartIndex()) {
+          j++;
+        }
+        CommonToken o = (j < old.size()) ? old.get(j) : null;
+        if (o != null && o.getStartIndex() + delta == t.getStartIndex()
+            && o.getStopIndex() + delta == t.getStopIndex() && o.getType() == t.getType()) {
+          reuseFrom = j;
+          break;
+        }
+      }
+      toks.add(t);
+      t = (CommonToken) lexer.nextToken();
+    }
+    int relexLast = toks.size();
+    int relexEnd = (old != null && reuseFrom < old.size()) ? old.get(reuseFrom).getStartIndex()
+        + delta : len;
+    for (int i = reuseFrom; old != null && i < old.size(); i++) {
+      CommonToken o = old.get(i);
+      o.setStartIndex(o.getStartIndex() + delta);
+      o.setStopIndex(o.getStopIndex() + delta);
+      o.setInputStream(cs);
+      toks.add(o);
+    }
+
+    CommonTokenStream tokenStream = new CommonTokenStream(new ListTokenSource(toks));
+    SlippySyntaxParser myParser = new SlippySyntaxParser(tokenStream);
     CommonTree root = (CommonTree) myParser.prog().getTree();
     CommonTreeNodeStream nodes = new CommonTreeNodeStream(root);
-    nodes.setTokenStream(tokens);
+    nodes.setTokenStream(tokenStream);
     SlippySyntaxWalker walker = new SlippySyntaxWalker(nodes);
     walker.prog();
-    List<CommonToken> toks = (List<CommonToken>) tokens.getTokens();
-    Map<Integer, String> tokenTypes = new HashMap<Integer, String>();
-    Set<Map.Entry<CommonTree, String>> entries = walker.specialThings.entrySet();
-    for (Map.Entry<CommonTree, String> en : entries) {
+    // where special things overlap the narrowest one wins (and of two equally narrow ones, the
+    // longer name, like "extends class name" over "class name"), so the colors don't depend on the
+    // order of the walker's map.
+    String[] special = new String[toks.size()];
+    int[] specialWidth = new int[toks.size()];
+    for (Map.Entry<CommonTree, String> en : walker.specialThings.entrySet()) {
       int start = en.getKey().getTokenStartIndex();
       int end = en.getKey().getTokenStopIndex();
-      for (int i = start; i <= end; i++) {
-        tokenTypes.put(i, en.getValue());
+      for (int i = Math.max(0, start); i <= end && i < special.length; i++) {
+        if (special[i] == null || end - start < specialWidth[i]
+            || (end - start == specialWidth[i] && isMoreSpecific(en.getValue(), special[i]))) {
+          special[i] = en.getValue();
+          specialWidth[i] = end - start;
+        }
       }
     }
-    
-    document.setCharacterAttributes(0, len, styles.get("plain"), true);
-    AttributeSet aset;
-    int charIdx = 0;
+
+    String[] newStyles = new String[toks.size()];
+    Run run = new Run(document);
+    if (old == null) {
+      document.setCharacterAttributes(0, len, styles.get("plain"), true);
+    } else if (relexEnd > relexStart) {
+      document.setCharacterAttributes(relexStart, relexEnd - relexStart, styles.get("plain"),
+          true);
+    }
     for (int i = 0; i < toks.size(); i++) {
-      CommonToken t = toks.get(i);
-      if (tokenTypes.containsKey(i)) {
-        aset = styles.get(tokenTypes.get(i));
-        if (aset != null) {
-          document.setCharacterAttributes(charIdx, t.getText().length(), aset, true);
-        }
+      CommonToken tok = toks.get(i);
+      newStyles[i] = getStyleName(tok, special[i]);
+      boolean relexed = (old == null) || (i >= relexFirst && i < relexLast);
+      String oldStyle = null;
+      if (!relexed) {
+        oldStyle = tokenStyles[i < relexFirst ? i : reuseFrom + (i - relexLast)];
+      }
+      if (relexed ? !newStyles[i].equals("plain") : !newStyles[i].equals(oldStyle)) {
+        run.add(tok.getStartIndex(), tok.getStopIndex() + 1, newStyles[i]);
+      }
+    }
+    run.flush();
+
+    tokens = toks;
+    tokenStyles = newStyles;
+    oldLength = len;
+    damageStart = -1;
+  }
+
+  private static boolean isMoreSpecific(String a, String b) {
+    return a.length() > b.length() || (a.length() == b.length() && a.compareTo(b) < 0);
+  }
+
+  /**
+   * Gives the name of the style for the token: its special name from the walker if there is a
+   * style for that, otherwise its token type if there is a style for that, otherwise "plain".
+   */
+  private String getStyleName(CommonToken t, String special) {
+    String ret = "plain";
+    if (special != null) {
+      if (styles.containsKey(special)) {
+        ret = special;
+      }
+    } else {
+      String tokenName = SlippySyntaxWalker.tokenNames[t.getType()];
+      if (styles.containsKey(tokenName)) {
+        ret = tokenName;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * A stretch of characters that get the same style, grown one token at a time so neighboring
+   * tokens of the same style are set with one call.
+   */
+  private class Run {
+    private final StyledDocument document;
+    private int start;
+    private int end;
+    private String style;
+
+    Run(StyledDocument document) {
+      this.document = document;
+    }
+
+    void add(int tokStart, int tokEnd, String tokStyle) {
+      if (style != null && tokStart == end && tokStyle.equals(style)) {
+        end = tokEnd;
       } else {
-        String tokenName = SlippySyntaxWalker.tokenNames[t.getType()];
-        aset = styles.get(tokenName);
-        if (aset != null) {
-          document.setCharacterAttributes(charIdx, t.getText().length(), aset, true);
-        }
+        flush();
+        start = tokStart;
+        end = tokEnd;
+        style = tokStyle;
+      }
+    }
+
+    void flush() {
+      if (style != null && end > start) {
+        document.setCharacterAttributes(start, end - start, styles.get(style), true);
       }
-      charIdx = charIdx + t.getText().length();
+      style = null;
+    }
+  }
+
+  /**
+   * Hands a list of tokens that were already lexed to the parser.
+   */
+  private static class ListTokenSource implements TokenSource {
+    private final List<CommonToken> toks;
+    private int next;
+
+    ListTokenSource(List<CommonToken> toks) {
+      this.toks = toks;
+    }
+
+    public Token nextToken() {
+      return next < toks.size() ? toks.get(next++) : new CommonToken(Token.EOF);
+    }
+
+    public String getSourceName() {
+      return "document";
     }
   }
 
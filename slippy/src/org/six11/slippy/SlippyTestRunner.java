@@ -0,0 +1,321 @@
+package org.six11.slippy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.six11.olive.DiskEnvironment;
+import org.six11.util.Debug;
+import org.six11.util.args.Arguments;
+import org.six11.util.args.Arguments.ArgType;
+import org.six11.util.args.Arguments.ValueType;
+import org.six11.util.io.FileUtil;
+
+/**
+ * Runs the Slippy regression tests (the basic_*.slippy programs in the test directory) in-process
+ * and in parallel, and compares what each one prints with its expected output in test/expected.
+ * Every test gets an interpreter (and so a machine) of its own from a SlippyInterpreterPool, and
+ * its output is collected separately from the other tests that are running at the same time. The
+ * time each test took is reported along with the result, so the suite is also a rough check that
+ * the interpreter hasn't become slower.
+ *
+ * Output is compared after things that change from run to run are taken out: the tests' directory,
+ * identity hash codes and Java stack frames. A test that prints the time says so with a line
+ * reading '; test-runner: timestamps', and then timestamps in its output are taken out too. Use
+ * --update to write the expected output of every test that was run, after checking by hand that
+ * the output is right.
+ *
+ * <pre>
+ *   java org.six11.slippy.SlippyTestRunner
+ *   java org.six11.slippy.SlippyTestRunner --threads=1 test/basic_13_imports.slippy
+ * </pre>
+ */
+public class SlippyTestRunner {
+
+  public static final String DEFAULT_TESTS = "test";
+  public static final String EXPECTED_DIR = "expected";
+  public static final String TIMESTAMPS_OPTION = "; test-runner: timestamps";
+
+  public static void main(String[] args) throws Exception {
+    Arguments arguments = new Arguments();
+    arguments.addFlag("threads", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "Number of tests to run at once (default: the number of processors)");
+    arguments.addFlag("max-ms", ArgType.ARG_OPTIONAL, ValueType.VALUE_REQUIRED,
+        "Stops a test after this many milliseconds (default 60000)");
+    arguments.addFlag("update", ArgType.ARG_OPTIONAL, ValueType.VALUE_IGNORED,
+        "Writes each test's output as its expected output instead of comparing them");
+    arguments.addPositional(0, "tests", ValueType.VALUE_OPTIONAL,
+        "A .slippy test, or a directory of basic_*.slippy tests (default " + DEFAULT_TESTS + ")");
+    arguments.parseArguments(args);
+    arguments.validate();
+
+    SlippyTestRunner runner = new SlippyTestRunner();
+    if (arguments.hasValue("threads")) {
+      runner.threads = Integer.parseInt(arguments.getValue("threads"));
+    }
+    if (arguments.hasValue("max-ms")) {
+      runner.maxMillis = Long.parseLong(arguments.getValue("max-ms"));
+    }
+    runner.updating = arguments.hasFlag("update");
+    String where = arguments.hasValue("tests") ? arguments.getValue("tests") : DEFAULT_TESTS;
+
+    long start = System.currentTimeMillis();
+    List<Result> results = runner.run(findTests(new File(where)));
+    long wall = System.currentTimeMillis() - start;
+
+    PrintStream out = System.out;
+    int failed = 0;
+    long total = 0;
+    for (Result r : results) {
+      out.println(r);
+      if (r.status == Status.FAIL) {
+        out.println(r.describeDifference());
+        failed++;
+      }
+      total += r.millis;
+    }
+    out.println(results.size() + " tests, " + failed + " failed, " + total + " ms of tests in "
+        + wall + " ms on " + runner.threads + " threads");
+    if (failed > 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Gives the file itself, or the basic_*.slippy files in the directory in alphabetical order. The
+   * other .slippy files there are classes the tests import.
+   */
+  static List<File> findTests(File where) {
+    List<File> ret = new ArrayList<File>();
+    if (where.isDirectory()) {
+      File[] files = where.listFiles();
+      Arrays.sort(files);
+      for (File f : files) {
+        if (f.getName().startsWith("basic_") && f.getName().endsWith(".slippy")) {
+          ret.add(f);
+        }
+      }
+    } else {
+      ret.add(where);
+    }
+    return ret;
+  }
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private long maxMillis = 60000;
+  private boolean updating = false;
+
+  /**
+   * Runs the tests on a pool of threads, and gives their results in the same order as the tests.
+   * Each test's machine prints to the test's own output. Anything printed elsewhere while the tests
+   * run (to System.out, System.err, SlippyMachine.outputStream or Debug.outputStream, e.g. by the
+   * parser) goes to the output of whichever test's thread printed it.
+   */
+  public List<Result> run(List<File> tests) throws Exception {
+    List<Result> ret = new ArrayList<Result>();
+    PrintStream sysOut = System.out;
+    PrintStream sysErr = System.err;
+    PrintStream slippyOut = SlippyMachine.outputStream;
+    PrintStream debugOut = Debug.outputStream;
+    boolean debugTime = Debug.useTime;
+    boolean debugColor = Debug.useColor;
+    final ThreadOutput routed = new ThreadOutput(sysOut);
+    PrintStream routedStream = new PrintStream(routed, true);
+    System.setOut(routedStream);
+    System.setErr(routedStream);
+    SlippyMachine.outputStream = routedStream;
+    Debug.outputStream = routedStream;
+    Debug.useTime = false;
+    Debug.useColor = false;
+    final SlippyInterpreterPool interps = new SlippyInterpreterPool(Math.max(1, threads));
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      List<Future<Result>> futures = new ArrayList<Future<Result>>();
+      for (final File test : tests) {
+        futures.add(pool.submit(new Callable<Result>() {
+          public Result call() throws Exception {
+            return runTest(test, interps, routed);
+          }
+        }));
+      }
+      for (Future<Result> f : futures) {
+        ret.add(f.get());
+      }
+    } finally {
+      pool.shutdown();
+      System.setOut(sysOut);
+      System.setErr(sysErr);
+      SlippyMachine.outputStream = slippyOut;
+      Debug.outputStream = debugOut;
+      Debug.useTime = debugTime;
+      Debug.useColor = debugColor;
+    }
+    return ret;
+  }
+
+  /**
+   * Runs one test the way SlippyInterpreter's main method would, collecting what it prints.
+   */
+  private Result runTest(File test, SlippyInterpreterPool interps, ThreadOutput routed)
+      throws IOException {
+    Result ret = new Result(test.getName());
+    String path = test.getAbsolutePath();
+    String dir = FileUtil.getPath(path);
+    String program = FileUtil.loadStringFromFile(path);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(output, true);
+    routed.setTarget(output);
+    long start = System.nanoTime();
+    SlippyInterpreter interp = interps.acquire(new DiskEnvironment(dir), out);
+    try {
+      new Affine(interp);
+      interp.getMachine().pushFileName(path);
+      interp.setLimits(0, maxMillis);
+      interp.startRun();
+      interp.handleInput(program);
+    } catch (RuntimeException ex) {
+      ex.printStackTrace(out);
+    } finally {
+      ret.millis = (System.nanoTime() - start) / 1000000;
+      interps.release(interp);
+      out.flush();
+      routed.setTarget(null);
+    }
+    ret.actual = normalize(output.toString("UTF-8"), dir, hasOption(program, TIMESTAMPS_OPTION));
+
+    File expectedFile = getExpectedFile(test);
+    if (updating) {
+      expectedFile.getParentFile().mkdirs();
+      FileUtil.writeStringToFile(expectedFile, ret.actual, false);
+      ret.status = Status.UPDATED;
+    } else if (!expectedFile.exists()) {
+      ret.status = Status.NEW;
+    } else {
+      ret.expected = FileUtil.loadStringFromFile(expectedFile);
+      ret.status = ret.expected.equals(ret.actual) ? Status.PASS : Status.FAIL;
+    }
+    return ret;
+  }
+
+  private static File getExpectedFile(File test) {
+    String name = test.getName();
+    return new File(new File(test.getAbsoluteFile().getParentFile(), EXPECTED_DIR), name.substring(
+        0, name.length() - ".slippy".length())
+        + ".out");
+  }
+
+  /**
+   * Tells if one of the program's lines is the given test-runner option.
+   */
+  static boolean hasOption(String program, String option) {
+    boolean ret = false;
+    for (String line : program.split("\r?\n")) {
+      ret = ret || line.trim().equals(option);
+    }
+    return ret;
+  }
+
+  /**
+   * Takes out what differs from one run to the next: the directory the tests are in, identity hash
+   * codes (as in &lt;Foo@1234&gt;), and Java stack frames (whose line numbers change whenever the
+   * Java code does). If 'timestamps' is true, timestamps (long integers or doubles like 1.2E12)
+   * are taken out as well. Other numbers are always left alone, so results are still compared.
+   */
+  static String normalize(String output, String testDir, boolean timestamps) {
+    String dir = testDir.endsWith("/") ? testDir : testDir + "/";
+    StringBuilder ret = new StringBuilder();
+    for (String line : output.replace("\r\n", "\n").replace(dir, "<tests>/").split("\n", -1)) {
+      if (!line.startsWith("\tat ") && !line.matches("\t\\.\\.\\. \\d+ more")) {
+        line = line.replaceAll("@-?[0-9a-f]+\\b", "@HASH");
+        if (timestamps) {
+          line = line.replaceAll("\\b([0-9]{10,}|[0-9]\\.[0-9]{6,}E1[0-9])\\b", "TIMESTAMP");
+        }
+        ret.append(line);
+        ret.append("\n");
+      }
+    }
+    return ret.toString();
+  }
+
+  /**
+   * An output stream that passes what it is given on to a stream chosen by the thread that writes.
+   * Threads that haven't chosen one write to the default stream.
+   */
+  private static class ThreadOutput extends OutputStream {
+    private final OutputStream fallback;
+    private final ThreadLocal<OutputStream> target;
+
+    ThreadOutput(OutputStream fallback) {
+      this.fallback = fallback;
+      this.target = new ThreadLocal<OutputStream>();
+    }
+
+    void setTarget(OutputStream out) {
+      target.set(out);
+    }
+
+    private OutputStream get() {
+      OutputStream ret = target.get();
+      return (ret == null) ? fallback : ret;
+    }
+
+    public void write(int b) throws IOException {
+      get().write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      get().write(b, off, len);
+    }
+
+    public void flush() throws IOException {
+      get().flush();
+    }
+  }
+
+  public static enum Status {
+    PASS, FAIL, NEW, UPDATED
+  }
+
+  /**
+   * The outcome of one test.
+   */
+  public static class Result {
+    final String name;
+    Status status;
+    long millis;
+    String expected;
+    String actual;
+
+    Result(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Shows the first line where the output differs from the expected output.
+     */
+    String describeDifference() {
+      String[] want = expected.split("\n", -1);
+      String[] got = actual.split("\n", -1);
+      int i = 0;
+      while (i < want.length && i < got.length && want[i].equals(got[i])) {
+        i++;
+      }
+      return "    line " + (i + 1) + ":\n      expected: "
+          + (i < want.length ? want[i] : "(end of output)") + "\n      actual:   "
+          + (i < got.length ? got[i] : "(end of output)");
+    }
+
+    public String toString() {
+      return String.format("%-8s %-44s %8d ms", status, name, millis);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.six11.slippy;
 
 import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,19 @@ public abstract class SlippyUtils {
     return (int) toFloat(n);
   }
 
+  /**
+   * Same as toInt(t.toString()), but numbers are read directly rather than printed and re-parsed.
+   */
+  public static int toInt(Thing t) {
+    int ret;
+    if (t.type == Thing.Type.Number) {
+      ret = (int) (float) ((Thing.Num) t).v;
+    } else {
+      ret = toInt(t.toString());
+    }
+    return ret;
+  }
+
   public static List<String> mkList(String... in) {
     List<String> ret = new ArrayList<String>();
     for (String s : in) {
@@ -60,28 +74,11 @@ public abstract class SlippyUtils {
     return ret;
   }
 
+  /**
+   * Same as r.isTrue(), kept for code that has a Thing of unknown kind in hand.
+   */
   public static boolean isThingTrue(Thing r) {
-    boolean ret = false;
-    if (r.type == Thing.Type.String) {
-      ret = r.toString().length() > 0;// MathUtils.toTruth(r.toString());
-    } else if (r.type == Thing.Type.Function || r.type == Thing.Type.Class
-        || r.type == Thing.Type.Array) {
-      ret = true; // since it isn't nil...
-    } else if (r.type == Thing.Type.Boolean) {
-      ret = ((Thing.Bool) r).v;
-    } else if (r.type == Thing.Type.Nil) {
-      ret = false;
-    } else if (r.type == Thing.Type.Number) {
-      ret = ((Thing.Num) r).v != 0d;
-    } else if (r.type == Thing.Type.Variable) {
-      ret = isThingTrue(((Thing.Variable) r).value);
-    } else if (r.type == Thing.Type.Instance) {
-      ret = true; // all instances are 'true' in that they are non-nil.
-    } else {
-      bug("I don't know how to determine if '" + r + "' is true or not.");
-      ret = false;
-    }
-    return ret;
+    return r.isTrue();
   }
 
   static SymbolTable getSymbolTable(Thing thing, SymbolTable defaultRetValue) {
@@ -93,16 +90,20 @@ public abstract class SlippyUtils {
     } else if (thing.type == Thing.Type.Variable) {
       ret = getSymbolTable(((Thing.Variable) thing).value, defaultRetValue);
     } else if (thing.type == Thing.Type.Array) {
-      ret = ((Thing.Array) thing).symbols;
+      ret = ((Thing.Array) thing).getMembers();
     }
     return ret;
   }
 
   public static void printMembers(Thing t) {
+    printMembers(t, SlippyMachine.outputStream);
+  }
+
+  public static void printMembers(Thing t, PrintStream out) {
     SymbolTable table = getSymbolTable(t, null);
     while (table != null) {
       if (table.symbols.size() > 0) {
-        SlippyMachine.outputStream.println(table.getDebug());
+        out.println(table.getDebug());
       }
       table = table.parent;
     }
@@ -159,7 +160,7 @@ public abstract class SlippyUtils {
     if (p instanceof Thing) {
       ret = (Thing) p;
     } else if (p instanceof Boolean) {
-      ret = new Thing.Bool(((Boolean) p).booleanValue());
+      ret = Thing.Bool.valueOf(((Boolean) p).booleanValue());
     } else if (p instanceof String) {
       ret = new Thing.Str((String) p);
     } else if (p instanceof Double) {
@@ -240,6 +241,21 @@ public abstract class SlippyUtils {
     return ret;
   }
 
+  /**
+   * Like toDouble(String), for a value a program gave. If it isn't a number the error goes to the
+   * output of the interpreter's machine, so it shows up with the rest of that program's output.
+   */
+  public static double toDouble(String v, SlippyInterpreter interp) {
+    double ret = 0;
+    try {
+      ret = Double.parseDouble(v);
+    } catch (Exception ignore) {
+      interp.getMachine().report("SlippyUtils",
+          "Error converting string '" + v + "' to double. returning 0.");
+    }
+    return ret;
+  }
+
   /**
    * Given a string such as "org.mypeople.MyThing" or "MyThing", returns the unqualified class name
    * such as "MyThing".
@@ -1,13 +1,14 @@
 package org.six11.slippy;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.six11.slippy.Thing.Annotation;
 import org.six11.slippy.Thing.Clazz;
-import org.six11.util.Debug;
 
 /**
  * 
@@ -20,18 +21,31 @@ public class SymbolTable {
   protected HashMap<String, Thing> symbols;
   protected HashMap<String, List<Thing.Annotation>> annotations;
   private String name;
+  private Thing.Function function; // names the table lazily if it is a function's frame
   protected Thing.Instance inst;
   protected Thing.Clazz clazz;
+  final Scope scope; // slot layout for function and loop bodies, null for dynamic tables
+  final Thing[] slots;
 
   SymbolTable() {
     this((SymbolTable) null);
   }
   
   SymbolTable(SymbolTable parent) {
+    this(parent, null);
+  }
+
+  /**
+   * Makes a table whose lexically known variables live in an array laid out by the given scope.
+   * Other symbols (and everything, if the scope is null) go in the HashMap.
+   */
+  SymbolTable(SymbolTable parent, Scope scope) {
     symbols = new HashMap<String, Thing>();
     this.parent = parent;
     this.name = "anonymous_symbol_table";
     this.annotations = new HashMap<String, List<Thing.Annotation>>();
+    this.scope = scope;
+    this.slots = (scope == null) ? null : new Thing[scope.size()];
   }
 
   public Thing.Instance getInstance() {
@@ -53,10 +67,37 @@ public class SymbolTable {
   }
   
   public void setThing(String name, Thing value) {
-    if (parent != null && (null != parent.getThing(name))) {
-      // TODO: we are shadowing a parent's symbol, which might trigger a warning.
+    int slot = (scope == null) ? -1 : scope.indexOf(name);
+    if (slot >= 0) {
+      slots[slot] = value;
+    } else {
+      symbols.put(name, value);
+    }
+  }
+
+  /**
+   * Gives the symbol defined in this table (not its parents), or null.
+   */
+  Thing getLocal(String name) {
+    Thing ret = symbols.get(name);
+    if (ret == null && scope != null) {
+      int slot = scope.indexOf(name);
+      if (slot >= 0) {
+        ret = slots[slot];
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Gives the table 'depth' steps up the parent chain, or null if the chain is shorter than that.
+   */
+  SymbolTable getAncestor(int depth) {
+    SymbolTable ret = this;
+    for (int i = 0; i < depth && ret != null; i++) {
+      ret = ret.parent;
     }
-    symbols.put(name, value);
+    return ret;
   }
   
   public boolean isSlippyClass() {
@@ -79,7 +120,7 @@ public class SymbolTable {
   }
 
   public Thing getThing(String name) {
-    Thing ret = symbols.get(name);
+    Thing ret = getLocal(name);
     if (ret == null && parent != null) {
       ret = parent.getThing(name);
     }
@@ -90,19 +131,37 @@ public class SymbolTable {
   }
 
   public boolean hasThing(String name) {
-    return symbols.containsKey(name) || (parent != null && parent.hasThing(name));
+    return symbols.containsKey(name) || (getLocal(name) != null)
+        || (parent != null && parent.hasThing(name));
   }
 
   void setName(String n) {
     this.name = n;
+    this.function = null;
+  }
+
+  /**
+   * Marks this table as the frame of a call to the given function. The table's name is only built
+   * if somebody asks for it.
+   */
+  void setFunction(Thing.Function f) {
+    this.function = f;
   }
 
   public void printDebug() {
-    SlippyMachine.outputStream.println(getDebug());
+    printDebug(SlippyMachine.outputStream);
+  }
+
+  public void printDebug(PrintStream out) {
+    out.println(getDebug());
   }
 
   public void printDebugFull() {
-    SlippyMachine.outputStream.println(getDebugFull());
+    printDebugFull(SlippyMachine.outputStream);
+  }
+
+  public void printDebugFull(PrintStream out) {
+    out.println(getDebugFull());
   }
 
   public String getDebugFull() {
@@ -119,7 +178,13 @@ public class SymbolTable {
     int longestValue = 0;
     int longestAnnote = 0;
 
-    for (Map.Entry<String, Thing> entry : symbols.entrySet()) {
+    Map<String, Thing> locals = new HashMap<String, Thing>(symbols);
+    for (int i = 0; slots != null && i < slots.length; i++) {
+      if (slots[i] != null) {
+        locals.put(scope.getName(i), slots[i]);
+      }
+    }
+    for (Map.Entry<String, Thing> entry : locals.entrySet()) {
       String s = "";
 
       s = entry.getKey();
@@ -144,8 +209,8 @@ public class SymbolTable {
       buf.append("-");
     }
     buf.append("+");
-    if (name != null && name.length() > 0) {
-      buf.append("  (" + name + ") (hash: " + hashCode() + ")");
+    if (getName() != null && getName().length() > 0) {
+      buf.append("  (" + getName() + ") (hash: " + hashCode() + ")");
     }
     if (parent != null) {
       buf.append(" (parent: " + parent.hashCode() + ")");
@@ -177,14 +242,14 @@ public class SymbolTable {
     return buf.toString();
   }
 
-  @SuppressWarnings("unused")
-  private void bug(String what) {
-    Debug.out("SymbolTable", what);
-  }
-
   public void addAnnotation(String symbolName, Annotation annotation) {
-    if (!getAnnotations(symbolName).contains(annotation)) {
-      getAnnotations(symbolName).add(annotation);
+    List<Annotation> list = annotations.get(symbolName);
+    if (list == null) {
+      list = new ArrayList<Annotation>();
+      annotations.put(symbolName, list);
+    }
+    if (!list.contains(annotation)) {
+      list.add(annotation);
     }
   }
 
@@ -202,11 +267,16 @@ public class SymbolTable {
     return ret;
   }
 
+  /**
+   * Gives the symbol's annotations, or an empty list if it has none. This only reads the table,
+   * so tables shared between machines (like the array methods) can be read from several threads.
+   */
   public List<Annotation> getAnnotations(String symbolName) {
-    if (annotations.get(symbolName) == null) {
-      annotations.put(symbolName, new ArrayList<Annotation>());
+    List<Annotation> ret = annotations.get(symbolName);
+    if (ret == null) {
+      ret = Collections.emptyList();
     }
-    return annotations.get(symbolName);
+    return ret;
   }
  
   public List<String> getNamesWithAnnotation(String annotationType) {
@@ -248,7 +318,11 @@ public class SymbolTable {
   }
 
   public String getName() {
-    return name;
+    String ret = name;
+    if (function != null) {
+      ret = "Function '" + function.name + "'";
+    }
+    return ret;
   }
 
   
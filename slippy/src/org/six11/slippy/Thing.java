@@ -39,6 +39,16 @@ public class Thing {
     return null;
   }
 
+  /**
+   * Tells if this counts as true in a condition (if, while, loop, and/or/not). Nil, false, zero and
+   * the empty string are false; functions, classes, arrays and instances are true because they
+   * aren't nil. Kinds that don't override this complain and count as false.
+   */
+  public boolean isTrue() {
+    bug("I don't know how to determine if '" + this + "' is true or not.");
+    return false;
+  }
+
   public static enum Type {
     Nil, Function, Number, String, Boolean, Variable, Array, Class, Instance, Codeset, Map, JavaObject, Annotation, Affine
   }
@@ -52,6 +62,10 @@ public class Thing {
       return this;
     }
 
+    public boolean isTrue() {
+      return false;
+    }
+
     public int hashCode() {
       return "".hashCode();
     }
@@ -101,78 +115,127 @@ public class Thing {
   }
 
   public static class Array extends Thing {
-    private static int instanceCount = 0;
-    private int instanceID = instanceCount++;
+    private final int instanceID; // counted per interpreter, so machines don't share a counter
     private List<Thing.Variable> data;
-    SymbolTable symbols;
+    private List<Thing> keys; // sort keys of the elements in data, if keysFor ordered it
+    private List<Thing> keyed; // the element value each of those keys was worked out from
+    private Thing.Function keysFor; // the 'sortKey' lambda the keys came from
+    SymbolTable symbols; // members a script gave this array; null until it gives one
     private SlippyInterpreter interp;
 
+    /**
+     * The builtin methods (n, add, remove, each, ...), shared by every array. The interpreter gives
+     * a Method the array it was called on, so arrays don't need a table of their own.
+     */
+    static final SymbolTable METHODS = makeMethods();
+
     public Array(final SlippyInterpreter interp) {
       super(Type.Array);
       this.interp = interp;
+      this.instanceID = interp.nextArrayId();
       this.data = new ArrayList<Thing.Variable>();
-      this.symbols = new SymbolTable();
-      symbols.setName("Array Symbol Table #" + instanceID);
-      symbols.setThing("n", new Thing.Function("n", mkList(), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
-          return new Thing.Num(data.size());
+    }
+
+    /**
+     * Gives the table to look this array's members up in: its own table if it has one, otherwise
+     * the shared builtin methods.
+     */
+    SymbolTable getMembers() {
+      return (symbols == null) ? METHODS : symbols;
+    }
+
+    /**
+     * Gives this array's own member table, making it if needed. Builtin methods are found through
+     * its parent, so they can be used but not overwritten, just as before.
+     */
+    SymbolTable getSymbols() {
+      if (symbols == null) {
+        symbols = new SymbolTable(METHODS);
+        symbols.setName("Array Symbol Table #" + instanceID);
+      }
+      return symbols;
+    }
+
+    /**
+     * A builtin array method. The receiver is passed in by the interpreter (see call()), or bound
+     * ahead of time if a script takes the method as a value, e.g. f = arr.add.
+     */
+    abstract static class Method extends Thing.Function {
+
+      Method(String name, List<String> paramNames) {
+        super(name, paramNames, "Thing.java");
+      }
+
+      abstract Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context);
+
+      public Thing eval(List<Thing> paramValues, SymbolTable context) {
+        bug("Error: Array method '" + name + "' called without an array.");
+        return Thing.NIL;
+      }
+
+      Thing.Function bind(final Thing.Array self) {
+        final Method method = this;
+        return new Thing.Function(name, paramNames, sourceFileName) {
+          public Thing eval(List<Thing> paramValues, SymbolTable context) {
+            return method.call(self, paramValues, context);
+          }
+        };
+      }
+    }
+
+    private static SymbolTable makeMethods() {
+      SymbolTable methods = new SymbolTable();
+      methods.setName("Array methods");
+      methods.setThing("n", new Method("n", mkList()) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
+          return Thing.Num.valueOf(self.data.size());
         }
       });
-      symbols.setThing("add", new Thing.Function("add", mkList("str"), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
-          Thing sorter = SlippyUtils.dereference(symbols.getThing("sort"));
-          // bug("adding something with sorter: " + sorter);
-          if (sorter.type != Thing.Type.Function) {
-            sorter = null;
-          }
-          for (Thing t : paramValues) {
-            if (sorter == null) {
-              data.add(new Thing.Variable(t));
-            } else {
-              addSorted((Thing.Function) sorter, t, context, interp);
-            }
-          }
-          return this; // TODO: pretty sure it should return 'Array.this' instead of just 'this'.
+      methods.setThing("add", new Method("add", mkList("str")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
+          self.add(paramValues, context);
+          return this; // TODO: pretty sure it should return 'self' instead of just 'this'.
         }
       });
-      symbols.setThing("remove", new Thing.Function("remove", mkList("obj"), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("remove", new Method("remove", mkList("obj")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           Thing ret = Thing.NIL;
           if (paramValues.size() == 1) {
             Thing kill = SlippyUtils.dereference(paramValues.get(0));
             Thing target = null;
-            for (Thing t : data) {
+            for (Thing t : self.data) {
               if (SlippyUtils.dereference(t).equals(kill)) {
                 target = t;
                 break;
               }
             }
             ret = target;
-            data.remove(target);
+            if (target != null) {
+              self.removeAt(self.data.indexOf(target));
+            }
           } else {
-            bug("Error: Array's 'remove' function expects a single argument (I received "
+            self.report("Error: Array's 'remove' function expects a single argument (I received "
                 + paramValues.size() + ")");
           }
           return ret;
         }
       });
-      symbols.setThing("removeAtIndex", new Thing.Function("removeAtIndex", mkList("idx"),
-          "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("removeAtIndex", new Method("removeAtIndex", mkList("idx")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           Thing ret = Thing.NIL;
           if (paramValues.size() == 1 && paramValues.get(0).type == Thing.Type.Number) {
             Thing.Num where = (Thing.Num) paramValues.get(0);
-            ret = data.remove(where.getIntValue());
+            ret = self.removeAt(where.getIntValue());
           } else {
-            bug("Error: Array's 'removeAtIndex' function expects a single integer argument. "
-                + " (I received " + paramValues.size() + ")");
+            self.report("Error: Array's 'removeAtIndex' function expects a single integer "
+                + "argument. (I received " + paramValues.size() + ")");
           }
           return ret;
         }
       });
 
-      symbols.setThing("indexOf", new Thing.Function("indexOf", mkList("element"), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("indexOf", new Method("indexOf", mkList("element")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           Thing ret = Thing.NIL;
           if (paramValues.size() == 1 || paramValues.size() == 2) {
             Thing target = SlippyUtils.dereference(paramValues.get(0));
@@ -180,10 +243,10 @@ public class Thing {
             if (paramValues.size() == 2) {
               startIdx = (int) ((Thing.Num) SlippyUtils.dereference(paramValues.get(1))).v;
             }
-            for (int i=startIdx; i < data.size(); i++) {
+            for (int i=startIdx; i < self.data.size(); i++) {
               try {
-                Thing result = interp.equate(data.get(i).value, target, '=');
-                if (SlippyUtils.isThingTrue(result)) {
+                Thing result = self.interp.equate(self.data.get(i).value, target, '=');
+                if (result.isTrue()) {
                   ret = new Thing.Num(i);
                   break;
                 }
@@ -195,65 +258,69 @@ public class Thing {
           return ret;
         }
       });
-      symbols.setThing("resort", new Thing.Function("resort", mkList("lambda"), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
-          Thing.Array ret = new Thing.Array(interp);
-          ret.symbols.setThing("sort", paramValues.get(0));
-          // bug("Setting sorter on return array")
-          Thing.Function addFunction = (Thing.Function) ret.symbols.getThing("add");
-          for (Thing.Variable v : data) {
-            Thing t = SlippyUtils.dereference(v);
-            addFunction.eval(SlippyUtils.toThings(t), context);
-          }
+      methods.setThing("resort", new Method("resort", mkList("lambda")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
+          Thing.Array ret = new Thing.Array(self.interp);
+          ret.getSymbols().setThing("sort", paramValues.get(0));
+          ret.add(self.getValues(), context);
+          return ret;
+        }
+      });
+      methods.setThing("resortBy", new Method("resortBy", mkList("keyLambda")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
+          Thing.Array ret = new Thing.Array(self.interp);
+          ret.getSymbols().setThing("sortKey", paramValues.get(0));
+          ret.add(self.getValues(), context);
           return ret;
         }
       });
-      symbols.setThing("each", new Thing.Function("each", mkList("lambda"), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("each", new Method("each", mkList("lambda")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           // Debug.dumpStack("Thing", "Invoking each here. Context table follows.");
           // context.printDebugFull();
-          for (Thing.Variable d : data) {
+          for (Thing.Variable d : self.data) {
             for (Thing t : paramValues) {
               t = SlippyUtils.dereference(t);
               if (t instanceof Thing.Function) {
                 Thing.Function lambda = (Thing.Function) t;
                 List<Thing> lambdaParams = new ArrayList<Thing>();
                 lambdaParams.add(d.value);
-                interp.invokeFunction(lambda, lambdaParams, context); // TODO: 'context' was null
+                // TODO: 'context' was null
+                self.interp.invokeFunction(lambda, lambdaParams, context);
               } else {
-                bug("NOT a function: " + t);
+                self.report("NOT a function: " + t);
               }
             }
           }
           return this;
         }
       });
-      symbols.setThing("filter", new Thing.Function("filter", mkList("lambda"), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
-          Thing.Array ret = new Thing.Array(interp);
+      methods.setThing("filter", new Method("filter", mkList("lambda")) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
+          Thing.Array ret = new Thing.Array(self.interp);
           Thing t = SlippyUtils.dereference(paramValues.get(0));
           if (t instanceof Thing.Function) {
-            for (Thing.Variable d : data) {
+            for (Thing.Variable d : self.data) {
               Thing.Function lambda = (Thing.Function) t;
               List<Thing> lambdaParams = new ArrayList<Thing>();
               lambdaParams.add(d.value);
-              Thing result = interp.invokeFunction(lambda, lambdaParams, null);
+              Thing result = self.interp.invokeFunction(lambda, lambdaParams, null);
               if (result != Thing.NIL) {
                 ret.data.add(new Thing.Variable(result));
               }
             }
           } else {
-            bug("NOT a function: " + t);
+            self.report("NOT a function: " + t);
           }
           return ret;
         }
       });
 
-      symbols.setThing("sum", new Thing.Function("sum", mkList(), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("sum", new Method("sum", mkList()) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           Thing ret = Thing.NIL;
           double sum = 0.0;
-          for (Thing.Variable d : data) {
+          for (Thing.Variable d : self.data) {
             Thing elm = SlippyUtils.dereference(d);
             if (elm.type == Thing.Type.Number) {
               sum += ((Thing.Num) elm).v;
@@ -264,11 +331,11 @@ public class Thing {
         }
       });
 
-      symbols.setThing("min", new Thing.Function("min", mkList(), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("min", new Method("min", mkList()) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           Thing ret = Thing.NIL;
           double min = Double.MAX_VALUE;
-          for (Thing.Variable d : data) {
+          for (Thing.Variable d : self.data) {
             Thing elm = SlippyUtils.dereference(d);
             if (elm.type == Thing.Type.Number) {
               min = Math.min(min, ((Thing.Num) elm).v);
@@ -279,11 +346,11 @@ public class Thing {
         }
       });
 
-      symbols.setThing("max", new Thing.Function("max", mkList(), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
+      methods.setThing("max", new Method("max", mkList()) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
           Thing ret = Thing.NIL;
           double max = Double.MIN_VALUE;
-          for (Thing.Variable d : data) {
+          for (Thing.Variable d : self.data) {
             Thing elm = SlippyUtils.dereference(d);
             if (elm.type == Thing.Type.Number) {
               max = Math.max(max, ((Thing.Num) elm).v);
@@ -294,15 +361,272 @@ public class Thing {
         }
       });
 
-      symbols.setThing("copy", new Thing.Function("copy", mkList(), "Thing.java") {
-        public Thing eval(List<Thing> paramValues, SymbolTable context) {
-          Thing.Array ret = new Thing.Array(interp);
-          for (Thing.Variable d : data) {
+      methods.setThing("copy", new Method("copy", mkList()) {
+        Thing call(Thing.Array self, List<Thing> paramValues, SymbolTable context) {
+          Thing.Array ret = new Thing.Array(self.interp);
+          for (Thing.Variable d : self.data) {
             ret.data.add((Thing.Variable) d.copy());
           }
           return ret;
         }
       });
+      return methods;
+    }
+
+    /**
+     * Adds the values at the end, or in order if a script has given this array a 'sort' lambda
+     * (which compares two elements) or a 'sortKey' lambda (which gives the value an element is
+     * ordered by). A single value is put in place with a binary search. Several values at once are
+     * sorted among themselves first and then merged in, so the array is rebuilt only once. Either
+     * way equal elements keep the order they were added in, which is also how resort() and
+     * resortBy() leave them. (Older versions put a new element before some equal one, so ties came
+     * out in no particular order.)
+     */
+    void add(List<Thing> values, SymbolTable context) {
+      Ordering order = getOrdering(context);
+      if (order == null) {
+        for (Thing t : values) {
+          data.add(new Thing.Variable(t));
+        }
+      } else if (values.size() == 1) {
+        Thing t = values.get(0);
+        Thing.Variable v = new Thing.Variable(t);
+        Thing key = order.key(t);
+        int slot = findSlot(key, order);
+        data.add(slot, v);
+        if (order.keyLambda != null) {
+          keys.add(slot, key);
+          keyed.add(slot, SlippyUtils.dereference(v));
+        }
+      } else {
+        addAllSorted(values, order);
+      }
+    }
+
+    /**
+     * Gives the ordering from this array's 'sort' or 'sortKey' member, or null if it has neither.
+     * If both are set, 'sort' wins.
+     */
+    private Ordering getOrdering(SymbolTable context) {
+      Ordering ret = null;
+      if (symbols != null) {
+        Thing sorter = SlippyUtils.dereference(symbols.getThing("sort"));
+        Thing keyLambda = SlippyUtils.dereference(symbols.getThing("sortKey"));
+        if (sorter.type == Thing.Type.Function) {
+          ret = new Ordering((Thing.Function) sorter, null, context);
+        } else if (keyLambda.type == Thing.Type.Function) {
+          ret = new Ordering(null, (Thing.Function) keyLambda, context);
+        }
+      }
+      return ret;
+    }
+
+    /**
+     * Removes the element at the given index, and its sort key if it has one.
+     */
+    private Thing.Variable removeAt(int idx) {
+      Thing.Variable ret = data.remove(idx);
+      if (keys != null && keys.size() > idx) {
+        keys.remove(idx);
+        keyed.remove(idx);
+      }
+      return ret;
+    }
+
+    /**
+     * Makes sure there is a stored key for every element, working them all out again if the
+     * 'sortKey' lambda has changed or the elements were changed without their keys (e.g. by
+     * assigning past the end of the array).
+     */
+    private void syncKeys(Ordering order) {
+      if (keys == null || keysFor != order.keyLambda || keys.size() != data.size()) {
+        keys = new ArrayList<Thing>(data.size());
+        keyed = new ArrayList<Thing>(data.size());
+        keysFor = order.keyLambda;
+        for (Thing.Variable v : data) {
+          Thing value = SlippyUtils.dereference(v);
+          keys.add(order.key(value));
+          keyed.add(value);
+        }
+      }
+    }
+
+    /**
+     * Gives the key of the element at the given index. A stored key is used unless the element
+     * has been given a different value since (by index assignment), in which case it is worked
+     * out again. With a comparator the element is its own key.
+     */
+    private Thing keyAt(int idx, Ordering order) {
+      Thing ret;
+      Thing value = SlippyUtils.dereference(data.get(idx));
+      if (order.keyLambda == null) {
+        ret = value;
+      } else {
+        if (keyed.get(idx) != value) {
+          keys.set(idx, order.key(value));
+          keyed.set(idx, value);
+        }
+        ret = keys.get(idx);
+      }
+      return ret;
+    }
+
+    /**
+     * Reports an error in how a program used this array on its interpreter's machine, so the
+     * message goes to that program's output.
+     */
+    private void report(String what) {
+      interp.getMachine().report("Thing", what);
+    }
+
+    List<Thing> getValues() {
+      List<Thing> ret = new ArrayList<Thing>(data.size());
+      for (Thing.Variable v : data) {
+        ret.add(SlippyUtils.dereference(v));
+      }
+      return ret;
+    }
+
+    /**
+     * How a sorted array orders its elements. With a comparator lambda an element is its own key
+     * and every comparison calls the lambda. With a key lambda, each element's key is worked out
+     * when it is added (and kept in the array's keys list) and keys are compared here in Java:
+     * numbers by value, then strings alphabetically, then anything else (which all counts as
+     * equal).
+     */
+    private class Ordering {
+      final Thing.Function sorter;
+      final Thing.Function keyLambda;
+      final SymbolTable context;
+
+      Ordering(Thing.Function sorter, Thing.Function keyLambda, SymbolTable context) {
+        this.sorter = sorter;
+        this.keyLambda = keyLambda;
+        this.context = context;
+      }
+
+      Thing key(Thing value) {
+        Thing ret = value;
+        if (keyLambda != null) {
+          ret = SlippyUtils.dereference(interp.invokeFunction(keyLambda, SlippyUtils
+              .toThings(value), context));
+        }
+        return ret;
+      }
+
+      int compare(Thing keyA, Thing keyB) {
+        int ret;
+        if (keyLambda == null) {
+          ret = evalComparator(sorter, keyA, keyB, context, interp);
+        } else {
+          ret = compareKeys(keyA, keyB);
+        }
+        return ret;
+      }
+    }
+
+    private static int compareKeys(Thing a, Thing b) {
+      int ret = rankKey(a) - rankKey(b);
+      if (ret == 0 && a.type == Thing.Type.Number) {
+        ret = Double.compare(((Thing.Num) a).v, ((Thing.Num) b).v);
+      } else if (ret == 0 && a.type == Thing.Type.String) {
+        ret = ((Thing.Str) a).v.compareTo(((Thing.Str) b).v);
+      }
+      return ret;
+    }
+
+    private static int rankKey(Thing key) {
+      int ret = 2;
+      if (key.type == Thing.Type.Number) {
+        ret = 0;
+      } else if (key.type == Thing.Type.String) {
+        ret = 1;
+      }
+      return ret;
+    }
+
+    /**
+     * Sorts the new values (stably) and merges them with the existing elements, which are already
+     * in order. With a key lambda only the new values' keys are worked out, and the existing
+     * elements' stored keys are reused; with a comparator this takes
+     * about as many comparisons as sorting the new values plus one pass over the array.
+     */
+    private void addAllSorted(List<Thing> values, Ordering order) {
+      if (order.keyLambda != null) {
+        syncKeys(order);
+      }
+      int m = values.size();
+      Thing[] newKeys = new Thing[m];
+      for (int i = 0; i < m; i++) {
+        newKeys[i] = order.key(values.get(i));
+      }
+      int[] idx = new int[m];
+      for (int i = 0; i < m; i++) {
+        idx[i] = i;
+      }
+      mergeSort(idx, new int[m], 0, m, newKeys, order);
+
+      List<Thing.Variable> merged = new ArrayList<Thing.Variable>(data.size() + m);
+      List<Thing> mergedKeys = new ArrayList<Thing>(data.size() + m);
+      int i = 0;
+      int j = 0;
+      while (i < data.size() || j < m) {
+        Thing oldKey = (i < data.size()) ? keyAt(i, order) : null;
+        // an existing element goes first unless the new one is strictly smaller.
+        if (j == m || (i < data.size() && order.compare(newKeys[idx[j]], oldKey) >= 0)) {
+          merged.add(data.get(i++));
+          mergedKeys.add(oldKey);
+        } else {
+          merged.add(new Thing.Variable(values.get(idx[j])));
+          mergedKeys.add(newKeys[idx[j++]]);
+        }
+      }
+      data.clear();
+      data.addAll(merged);
+      if (order.keyLambda != null) {
+        keys = mergedKeys;
+        keyed = getValues();
+      }
+    }
+
+    /**
+     * Binary search for the index just past the last element whose key is no bigger than the given
+     * one, so equal elements keep the order they were added in.
+     */
+    private int findSlot(Thing key, Ordering order) {
+      if (order.keyLambda != null) {
+        syncKeys(order);
+      }
+      int lo = 0;
+      int hi = data.size();
+      while (lo < hi) {
+        int mid = (lo + hi) / 2;
+        if (order.compare(key, keyAt(mid, order)) < 0) {
+          hi = mid;
+        } else {
+          lo = mid + 1;
+        }
+      }
+      return lo;
+    }
+
+    private static void mergeSort(int[] idx, int[] tmp, int lo, int hi, Thing[] keys,
+        Ordering order) {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) / 2;
+        mergeSort(idx, tmp, lo, mid, keys, order);
+        mergeSort(idx, tmp, mid, hi, keys, order);
+        int a = lo;
+        int b = mid;
+        for (int k = lo; k < hi; k++) {
+          if (b == hi || (a < mid && order.compare(keys[idx[b]], keys[idx[a]]) >= 0)) {
+            tmp[k] = idx[a++];
+          } else {
+            tmp[k] = idx[b++];
+          }
+        }
+        System.arraycopy(tmp, lo, idx, lo, hi - lo);
+      }
     }
 
     private int evalComparator(Thing.Function sorter, Thing a, Thing b, SymbolTable context,
@@ -322,46 +646,6 @@ public class Thing {
       return ret;
     }
 
-    protected void addSorted(Thing.Function sorter, Thing t, SymbolTable context,
-        SlippyInterpreter interp) {
-      // do a binary search for the first index where 't' is >= indexed value.
-      // corner case for no data:
-      if (data.size() == 0) {
-        data.add(new Thing.Variable(t));
-      } else {
-        int start = 0;
-        int stop = data.size();
-        int idx;
-        // corner cases for insertion at beginning and end.
-        if (evalComparator(sorter, t, SlippyUtils.dereference(data.get(0)), context, interp) <= 0) {
-          idx = 0;
-        } else if (evalComparator(sorter, t, SlippyUtils.dereference(data.get(data.size() - 1)),
-            context, interp) >= 0) {
-          idx = data.size();
-        } else {
-          while (true) {
-
-            idx = (start + stop) / 2;
-            int result = evalComparator(sorter, t, SlippyUtils.dereference(data.get(idx)), context,
-                interp);
-            if (result < 0) {
-              stop = idx;
-            } else if (result > 0) {
-              start = idx;
-            } else {
-              break;
-            }
-            if (start + 1 == stop) {
-              idx = stop;
-              break;
-            }
-          }
-        }
-        data.add(idx, new Thing.Variable(t));
-      }
-
-    }
-
     public Thing.Variable getSlot(int idx) {
       return data.get(idx);
     }
@@ -427,22 +711,36 @@ public class Thing {
     public Thing copy() {
       return this;
     }
+
+    public boolean isTrue() {
+      return true;
+    }
   }
 
   public static class Bool extends Thing {
-    boolean v;
+    public final static Bool TRUE = new Bool(true);
+    public final static Bool FALSE = new Bool(false);
+
+    final boolean v;
 
     public Bool(boolean value) {
       super(Type.Boolean);
       this.v = value;
     }
 
+    /**
+     * Gives the shared TRUE or FALSE. Booleans are immutable, so there is no need to make new ones.
+     */
+    public static Bool valueOf(boolean value) {
+      return value ? TRUE : FALSE;
+    }
+
     public String toString() {
       return "" + v;
     }
 
     public Thing copy() {
-      return new Bool(v);
+      return this;
     }
 
     public int hashCode() {
@@ -452,6 +750,10 @@ public class Thing {
     public boolean equals(Object other) {
       return ((other instanceof Thing.Bool) && ((Thing.Bool) other).v == v);
     }
+
+    public boolean isTrue() {
+      return v;
+    }
   }
 
   public static class Clazz extends Thing {
@@ -504,6 +806,10 @@ public class Thing {
     public boolean equals(Object other) {
       return other == this;
     }
+
+    public boolean isTrue() {
+      return true;
+    }
   }
 
   public static class Codeset extends Thing {
@@ -561,6 +867,8 @@ public class Thing {
     public String name;
     public List<String> paramNames;
     public Tree block;
+    Node.Lambda code; // compiled form of 'block'
+    Thing.Annotation cacheable; // the @cacheable annotation it was defined with, if any
     public String sourceFileName;
 
     public Function(String name, List<String> paramNames, String fileName) {
@@ -606,6 +914,10 @@ public class Thing {
     public Thing copy() {
       return this;
     }
+
+    public boolean isTrue() {
+      return true;
+    }
   }
 
   public static class Instance extends Thing {
@@ -675,6 +987,10 @@ public class Thing {
       }
       return ret;
     }
+
+    public boolean isTrue() {
+      return true;
+    }
   }
 
   public static class JavaObject extends Thing {
@@ -762,7 +1078,31 @@ public class Thing {
   }
 
   public static class Num extends Thing {
-    double v;
+    private final static int CACHE_LOW = -128;
+    private final static int CACHE_HIGH = 1024;
+    private final static Num[] cache = new Num[CACHE_HIGH - CACHE_LOW + 1];
+    static {
+      for (int i = 0; i < cache.length; i++) {
+        cache[i] = new Num((double) (i + CACHE_LOW));
+      }
+    }
+
+    final double v;
+
+    /**
+     * Gives a Num for the value, sharing one instance for whole numbers in [-128, 1024] since those
+     * are the loop counters, indices and sizes that programs churn through. Nums are immutable.
+     */
+    public static Num valueOf(double value) {
+      Num ret;
+      int i = (int) value;
+      if (i == value && i >= CACHE_LOW && i <= CACHE_HIGH && (i != 0 || 1 / value > 0)) {
+        ret = cache[i - CACHE_LOW];
+      } else {
+        ret = new Num(value);
+      }
+      return ret;
+    }
 
     public Num(String value) {
       super(Type.Number);
@@ -800,7 +1140,7 @@ public class Thing {
     }
 
     public Thing copy() {
-      return new Num(v);
+      return this;
     }
 
     public int hashCode() {
@@ -810,10 +1150,14 @@ public class Thing {
     public boolean equals(Object other) {
       return ((other instanceof Thing.Num) && ((Thing.Num) other).v == v);
     }
+
+    public boolean isTrue() {
+      return v != 0d;
+    }
   }
 
   public static class Str extends Thing {
-    String v;
+    final String v;
 
     public Str(String value) {
       super(Type.String);
@@ -825,7 +1169,7 @@ public class Thing {
     }
 
     public Thing copy() {
-      return new Str(v);
+      return this; // strings are immutable, so sharing them is safe.
     }
 
     public int hashCode() {
@@ -835,6 +1179,10 @@ public class Thing {
     public boolean equals(Object other) {
       return ((other instanceof Thing.Str) && ((Thing.Str) other).v.equals(v));
     }
+
+    public boolean isTrue() {
+      return v.length() > 0;
+    }
   }
 
   public static class Variable extends Thing {
@@ -872,5 +1220,9 @@ public class Thing {
     public boolean equals(Object other) {
       return ((other instanceof Thing.Variable) && ((Thing.Variable) other).value.equals(value));
     }
+
+    public boolean isTrue() {
+      return value.isTrue();
+    }
   }
 }
@@ -21,8 +21,9 @@ import org.six11.util.Debug;
  */
 public class BoundDrawingBuffer extends SlippyJavaClass {
 
-  public static int ID_COUNTER = 1;
-  public static Collection<DrawingBuffer> buffers = new HashSet<DrawingBuffer>();
+  // each interpreter registers its own BoundDrawingBuffer, so ids and buffers are per machine
+  private int idCounter = 1;
+  private final Collection<DrawingBuffer> buffers = new HashSet<DrawingBuffer>();
 
   /**
    * Instantiating this class (or any other subclass of SlippyJavaClass) causes the Slippy machine
@@ -31,7 +32,7 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
    * 
    * @param interp
    */
-  public BoundDrawingBuffer(SlippyInterpreter interp) {
+  public BoundDrawingBuffer(final SlippyInterpreter interp) {
     super("BoundDrawingBuffer", interp.getMachine().getCodeset("org.six11.slippy.example"),
         "BoundDrawingBuffer.java", interp);
     bug("Note: there are two versions of BoundDrawingBuffer. This one should only be used by "
@@ -42,7 +43,7 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
         DrawingBuffer b = new DrawingBuffer();
         buffers.add(b);
         context.setThing("buffer", new Thing.JavaObject(b));
-        context.setThing("id", new Thing.Str("" + ID_COUNTER++));
+        context.setThing("id", new Thing.Str("" + idCounter++));
         return Thing.NIL;
       }
     });
@@ -50,7 +51,7 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("turn", SlippyUtils.mkList("v"),
         "org.six11.slippy.example.BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).turn(SlippyUtils.toDouble(paramValues.get(0).toString()));
+        buffer(context).turn(SlippyUtils.toDouble(paramValues.get(0).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -58,7 +59,7 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("forward", SlippyUtils.mkList("v"),
         "org.six11.slippy.example.BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).forward(SlippyUtils.toDouble(paramValues.get(0).toString()));
+        buffer(context).forward(SlippyUtils.toDouble(paramValues.get(0).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -90,8 +91,8 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("moveTo", SlippyUtils.mkList("x", "y"),
         "org.six11.slippy.example.BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).moveTo(SlippyUtils.toDouble(paramValues.get(0).toString()),
-            SlippyUtils.toDouble(paramValues.get(1).toString()));
+        buffer(context).moveTo(SlippyUtils.toDouble(paramValues.get(0).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(1).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -99,10 +100,10 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("setColor", SlippyUtils.mkList("r", "g", "b", "a"),
         "org.six11.slippy.example.BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).setColor(SlippyUtils.toDouble(paramValues.get(0).toString()),
-            SlippyUtils.toDouble(paramValues.get(1).toString()),
-            SlippyUtils.toDouble(paramValues.get(2).toString()),
-            SlippyUtils.toDouble(paramValues.get(3).toString()));
+        buffer(context).setColor(SlippyUtils.toDouble(paramValues.get(0).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(1).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(2).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(3).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -110,7 +111,7 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("setThickness", SlippyUtils.mkList("t"),
         "org.six11.slippy.example.BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).setThickness(SlippyUtils.toDouble(paramValues.get(0).toString()));
+        buffer(context).setThickness(SlippyUtils.toDouble(paramValues.get(0).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -118,10 +119,10 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
     addSymbol(new Thing.Function("setFillColor", SlippyUtils.mkList("r", "g", "b", "a"),
         "org.six11.slippy.example.BoundDrawingBuffer.java") {
       public Thing eval(List<Thing> paramValues, SymbolTable context) {
-        buffer(context).setFillColor(SlippyUtils.toDouble(paramValues.get(0).toString()),
-            SlippyUtils.toDouble(paramValues.get(1).toString()),
-            SlippyUtils.toDouble(paramValues.get(2).toString()),
-            SlippyUtils.toDouble(paramValues.get(3).toString()));
+        buffer(context).setFillColor(SlippyUtils.toDouble(paramValues.get(0).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(1).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(2).toString(), interp),
+            SlippyUtils.toDouble(paramValues.get(3).toString(), interp));
         return Thing.NIL;
       }
     });
@@ -148,4 +149,11 @@ public class BoundDrawingBuffer extends SlippyJavaClass {
   // private String id(SymbolTable context) {
   // return ((Thing.Str) context.getThing("id")).toString();
   // }
+
+  /**
+   * Gives the buffers made by the program running on this class's interpreter.
+   */
+  public Collection<DrawingBuffer> getBuffers() {
+    return buffers;
+  }
 }
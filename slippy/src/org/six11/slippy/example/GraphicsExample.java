@@ -38,7 +38,6 @@ public class GraphicsExample {
     SlippyMachine machine = interp.getMachine();
     Environment env = new DiskEnvironment(loadPath);
     machine.setEnvironment(env);// machine.setLoadPath(loadPath);
-    new BoundDrawingBuffer(interp);
     new GraphicsExample(interp, className).go();
   }
 
@@ -47,6 +46,7 @@ public class GraphicsExample {
   public GraphicsExample(SlippyInterpreter interp, String className) throws FileNotFoundException,
       IOException {
     af = new ApplicationFrame("Slippy Graphics Example");
+    final BoundDrawingBuffer drawing = new BoundDrawingBuffer(interp);
     bug("Loading slippy file...");
     interp.runFile(interp.getMachine().getEnvironment().getLoadPath() + File.separator
         + SlippyUtils.codesetStrToFileStr(className));
@@ -55,7 +55,7 @@ public class GraphicsExample {
     JComponent foo = new JComponent() {
       public void paintComponent(Graphics g1) {
         Graphics2D g = (Graphics2D) g1;
-        Collection<DrawingBuffer> buffers = BoundDrawingBuffer.buffers;
+        Collection<DrawingBuffer> buffers = drawing.getBuffers();
         for (DrawingBuffer buffer : buffers) {
           buffer.paste(g);
         }
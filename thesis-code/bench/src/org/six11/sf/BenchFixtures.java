@@ -0,0 +1,84 @@
+package org.six11.sf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.six11.util.Debug;
+import org.six11.util.io.FileUtil;
+import org.six11.util.pen.Sequence;
+
+/**
+ * Input data shared by the JMH benchmarks. Everything comes from a real pen recording (a Skrui
+ * .sketch file, by default ../skrui/sketches/fraggle.sketch) so the sizes match what the pipeline
+ * sees when somebody is actually drawing. To benchmark a different recording, set the
+ * simi.bench.sketch system property in the benchmark VM (ant bench
+ * -Dbench.sketch=path/to/file.sketch does this).
+ */
+class BenchFixtures {
+
+  public static final String SKETCH_PROPERTY = "simi.bench.sketch";
+  public static final String DEFAULT_SKETCH = "../skrui/sketches/fraggle.sketch";
+
+  /**
+   * Returns the recorded pen strokes, in the order they were drawn.
+   */
+  static List<Sequence> loadStrokes() {
+    Debug.enabled = false;
+    File sketch = new File(System.getProperty(SKETCH_PROPERTY, DEFAULT_SKETCH));
+    if (!sketch.exists()) {
+      throw new IllegalStateException("Can't find benchmark sketch " + sketch.getAbsolutePath()
+          + ". Run from the thesis-code directory or set -D" + SKETCH_PROPERTY);
+    }
+    List<Sequence> ret = HeadlessReplay.loadSketchStrokes(sketch);
+    if (ret.isEmpty()) {
+      throw new IllegalStateException("No strokes in " + sketch.getAbsolutePath());
+    }
+    return ret;
+  }
+
+  /**
+   * Returns a copy of the stroke at the given percentile (0..100) of point count, so benchmarks can
+   * be parameterized by stroke size: 50 is a typical stroke, 100 is the longest one in the sketch.
+   */
+  static Sequence pickStroke(List<Sequence> strokes, double pct) {
+    List<Sequence> sorted = new ArrayList<Sequence>(strokes);
+    Collections.sort(sorted, new Comparator<Sequence>() {
+      public int compare(Sequence a, Sequence b) {
+        return a.size() - b.size();
+      }
+    });
+    int rank = (int) Math.ceil((pct / 100.0) * sorted.size());
+    int idx = Math.min(sorted.size() - 1, Math.max(0, rank - 1));
+    return sorted.get(idx).copy();
+  }
+
+  /**
+   * Makes a headless editor in a scratch notebook and replays the whole sketch through it once, so
+   * the model holds the latched, solved geometry a user would end up with. Call dispose() when done.
+   */
+  static HeadlessReplay replayAll(List<Sequence> strokes) {
+    try {
+      HeadlessReplay replay = new HeadlessReplay(HeadlessReplay.makeScratchNotebook(), 1);
+      replay.replay(strokes);
+      return replay;
+    } catch (IOException ex) {
+      throw new IllegalStateException("Can't make scratch notebook", ex);
+    }
+  }
+
+  /**
+   * Stops the solver thread and deletes the scratch notebook.
+   */
+  static void dispose(HeadlessReplay replay) {
+    SketchBook model = replay.getModel();
+    model.getConstraints().setPaused(true);
+    File dir = model.getNotebook().getMainFileDirectory();
+    if (dir != null) {
+      FileUtil.deleteTree(dir);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package org.six11.sf;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.six11.util.pen.Sequence;
+
+/**
+ * Measures the stages of CornerFinder on recorded strokes. The 'percentile' parameter picks the
+ * stroke by point count: 50 is a typical stroke, 90 a long one and 100 the longest in the sketch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CornerFinderBench {
+
+  @Param( {
+      "50", "90", "100"
+  })
+  public double percentile;
+
+  private HeadlessReplay replay;
+  private CornerFinder cornerFinder;
+  private Sequence stroke;
+  private Ink ink; // stroke with curvature and junctions already assigned
+  private int spanStart, spanEnd; // the longest junction-to-junction span of 'ink'
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    List<Sequence> strokes = BenchFixtures.loadStrokes();
+    replay = BenchFixtures.replayAll(strokes.subList(0, 1)); // a model is all we need here
+    cornerFinder = new CornerFinder(replay.getModel());
+    stroke = BenchFixtures.pickStroke(strokes, percentile);
+    ink = new Ink(stroke.copy());
+    cornerFinder.assignCurvature(ink.seq);
+    cornerFinder.isolateCorners(ink.seq);
+    List<Integer> juncts = (List<Integer>) ink.seq.getAttribute(CornerFinder.SEGMENT_JUNCTIONS);
+    spanStart = 0;
+    spanEnd = ink.seq.size() - 1;
+    int longest = 0;
+    for (int i = 0; i < (juncts.size() - 1); i++) {
+      if ((juncts.get(i + 1) - juncts.get(i)) > longest) {
+        longest = juncts.get(i + 1) - juncts.get(i);
+        spanStart = juncts.get(i);
+        spanEnd = juncts.get(i + 1);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    BenchFixtures.dispose(replay);
+  }
+
+  @Benchmark
+  public Sequence assignCurvature() {
+    cornerFinder.assignCurvature(ink.seq); // overwrites the same attribute each time
+    return ink.seq;
+  }
+
+  @Benchmark
+  public Object isolateCorners() {
+    cornerFinder.isolateCorners(ink.seq);
+    return ink.seq.getAttribute(CornerFinder.SEGMENT_JUNCTIONS);
+  }
+
+  @Benchmark
+  public Segment identifySegment() {
+    return cornerFinder.identifySegment(ink, spanStart, spanEnd);
+  }
+
+  @Benchmark
+  public Object findCorners() {
+    return cornerFinder.findCorners(new Ink(stroke.copy()));
+  }
+}
@@ -0,0 +1,77 @@
+package org.six11.sf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures EndCap.intersectInCap the way ConstraintAnalyzer uses it: every end cap of a newly drawn
+ * segment against every end cap in the model. 'newVsAll' is one stroke's worth of caps against the
+ * replayed sketch, 'allPairs' is the worst case where the whole model is compared with itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndCapBench {
+
+  private HeadlessReplay replay;
+  private List<EndCap> caps;
+  private List<EndCap> newCaps;
+
+  @Setup
+  public void setup() {
+    replay = BenchFixtures.replayAll(BenchFixtures.loadStrokes());
+    caps = new ArrayList<EndCap>();
+    newCaps = new ArrayList<EndCap>();
+    for (Segment seg : replay.getModel().getGeometry()) {
+      if (seg.hasEndCaps()) {
+        if (newCaps.isEmpty()) {
+          newCaps.addAll(seg.getEndCaps());
+        }
+        caps.addAll(seg.getEndCaps());
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    BenchFixtures.dispose(replay);
+  }
+
+  @Benchmark
+  public int newVsAll() {
+    return intersect(newCaps, caps);
+  }
+
+  @Benchmark
+  public int allPairs() {
+    return intersect(caps, caps);
+  }
+
+  private static int intersect(List<EndCap> these, List<EndCap> those) {
+    int hits = 0;
+    for (EndCap c1 : these) {
+      for (EndCap c2 : those) {
+        if (c1.intersectInCap(c2).intersects) {
+          hits = hits + 1;
+        }
+      }
+    }
+    return hits;
+  }
+}
@@ -0,0 +1,83 @@
+package org.six11.sf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.six11.util.pen.Pt;
+
+/**
+ * Measures the SegmentDelegate queries that the editor runs over the whole model on every pen event
+ * (hit testing, selection, guide placement). Each benchmark op covers every segment of the replayed
+ * sketch, so the score is the cost of one pass over a realistic model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentBench {
+
+  private HeadlessReplay replay;
+  private List<SegmentDelegate> delegates;
+  private List<SegmentDelegate> curvy; // delegates whose asSpline() does real work
+  private List<Pt> queries; // one query point per delegate, a little off the segment
+
+  @Setup
+  public void setup() {
+    replay = BenchFixtures.replayAll(BenchFixtures.loadStrokes());
+    delegates = new ArrayList<SegmentDelegate>();
+    curvy = new ArrayList<SegmentDelegate>();
+    queries = new ArrayList<Pt>();
+    for (Segment seg : replay.getModel().getGeometry()) {
+      SegmentDelegate d = seg.getDelegate();
+      delegates.add(d);
+      if ((d.getType() != Segment.Type.Line) && (d.getType() != Segment.Type.Dot)) {
+        curvy.add(d);
+      }
+      double midX = (d.getP1().getX() + d.getP2().getX()) / 2;
+      double midY = (d.getP1().getY() + d.getP2().getY()) / 2;
+      queries.add(new Pt(midX + 5, midY - 5));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    BenchFixtures.dispose(replay);
+  }
+
+  @Benchmark
+  public void getNearestPoint(Blackhole bh) {
+    for (int i = 0; i < delegates.size(); i++) {
+      bh.consume(delegates.get(i).getNearestPoint(queries.get(i)));
+    }
+  }
+
+  @Benchmark
+  public void getFuzzyArea(Blackhole bh) {
+    for (SegmentDelegate d : delegates) {
+      bh.consume(d.getFuzzyArea(5.0)); // same fuzzy factor SketchBook uses for hit testing
+    }
+  }
+
+  @Benchmark
+  public void asSpline(Blackhole bh) {
+    for (SegmentDelegate d : curvy) {
+      d.cachedSpline = null; // measure the spline fit, not the cache
+      bh.consume(d.asSpline());
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package org.six11.sf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures StencilFinder.findStencils over the geometry of the replayed sketch, which is what
+ * SkruiFabEditor.findStencils() does after every go().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StencilFinderBench {
+
+  private HeadlessReplay replay;
+  private List<Segment> geometry;
+
+  @Setup
+  public void setup() {
+    replay = BenchFixtures.replayAll(BenchFixtures.loadStrokes());
+    geometry = new ArrayList<Segment>(replay.getModel().getGeometry());
+  }
+
+  @TearDown
+  public void tearDown() {
+    BenchFixtures.dispose(replay);
+  }
+
+  @Benchmark
+  public Set<Stencil> findStencils() {
+    StencilFinder sf = new StencilFinder(replay.getModel());
+    return sf.findStencils(geometry);
+  }
+}
@@ -50,7 +50,9 @@ public class CornerFinder {
     return ret;
   }
 
-  private void assignCurvature(Sequence seq) {
+  // assignCurvature, isolateCorners and identifySegment are package-private so the JMH benchmarks
+  // in bench/src can measure them individually.
+  void assignCurvature(Sequence seq) {
     int n = seq.size();
     Pt[][] windows = new Pt[n][2];
     double targetWindowSize = windowSize / model.getCamera().getZoom();
@@ -74,7 +76,7 @@ public class CornerFinder {
    * Sets the sequence's SEGMENT_JUNCTIONS attribute, which is a List<Integer> indicating where
    * segment boundaries are. It includes the endpoints of the stroke.
    */
-  private void isolateCorners(Sequence seq) {
+  void isolateCorners(Sequence seq) {
     // there will be clusters of high curvature. Pick the one in the curvilinear-wise middle.
     int n = seq.size();
     double highCurvatureThreshold = toRadians(highCurvatureThresholdDegrees);
@@ -172,7 +174,7 @@ public class CornerFinder {
     ink.seq.setAttribute(SEGMENTS, segments);
   }
 
-  private Segment identifySegment(Ink ink, int i, int j) {
+  Segment identifySegment(Ink ink, int i, int j) {
     Segment ret = null;
     double segLength = ink.seq.getPathLength(i, j);
     double adjustedMinPatchSize = minPatchSize / model.getCamera().getZoom();
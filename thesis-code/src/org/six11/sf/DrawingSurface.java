@@ -260,7 +260,7 @@ public class DrawingSurface extends GLJPanel implements GLEventListener, PenList
             int snapDList = gl.glGenLists(1);
             snap.setDisplayListID(snapDList);
             gl.glNewList(snapDList, GL2.GL_COMPILE_AND_EXECUTE);
-            renderContent(drawable, size);
+            renderContent(drawable, size, true);
             gl.glEndList();
             if (snapIdx == page.getSnapshotMachine().getCurrentIdx()) {
               setPageThumbnail(drawable);
@@ -320,7 +320,7 @@ public class DrawingSurface extends GLJPanel implements GLEventListener, PenList
           gl.glNewList(displayList, GL2.GL_COMPILE_AND_EXECUTE);
         }
       }
-      renderContent(drawable, size);
+      renderContent(drawable, size, displayList > 0);
 
       if (displayList > 0) {
         // when a display list was created, end the list and save a thumbnail for the current page
@@ -443,8 +443,11 @@ public class DrawingSurface extends GLJPanel implements GLEventListener, PenList
    * 
    * @param drawable
    * @param size
+   * @param forDisplayList
+   *          true if this is being recorded to a display list. Display lists are replayed later at
+   *          whatever zoom and pan is current then, so level-of-detail culling is turned off.
    */
-  private void renderContent(GLAutoDrawable drawable, Dimension size) {
+  private void renderContent(GLAutoDrawable drawable, Dimension size, boolean forDisplayList) {
     GL2 gl = drawable.getGL().getGL2(); // get GL pipe handle
     if (panic) {
       gl.glClearColor(0.9f, 0.8f, 0.8f, 1f);
@@ -459,6 +462,7 @@ public class DrawingSurface extends GLJPanel implements GLEventListener, PenList
     rect(gl, thickHalf, size.width - thick, thickHalf, size.height - thick);
 
     // render scribble and model data
+    renderer.setLevelOfDetail(!forDisplayList);
     renderer.render(model, drawable, currentScribble, false, this);
   }
 
@@ -0,0 +1,227 @@
+package org.six11.sf;
+
+import static org.six11.util.Debug.bug;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.six11.util.io.FileUtil;
+
+/**
+ * An append-only log of timestamped events that never touches the disk on the calling thread.
+ * log() puts a line on a bounded queue and returns. A daemon thread takes lines off the queue in
+ * batches, writes them, and flushes once per batch. If the queue fills up (the disk is stalled),
+ * new events are dropped and the number dropped is written to the log once it catches up. Events
+ * still queued when the JVM exits are written by a shutdown hook, so the last batch isn't lost.
+ *
+ * Files are named prefix-N.suffix in the given directory. When a file grows past the size limit
+ * the log rotates to the next N. Each file begins with '#' comment lines: the header lines given to
+ * the constructor and the wall-clock start time. Every event after that is one compact line:
+ *
+ * <pre>
+ * &lt;ms since start&gt; TAB &lt;event&gt; [TAB &lt;detail&gt;]
+ * </pre>
+ */
+public class EventLog {
+
+  public static final int DEFAULT_QUEUE_SIZE = 4096;
+  public static final long DEFAULT_MAX_FILE_BYTES = 4 * 1024 * 1024;
+
+  private static final String CLOSE = new String("close"); // unique marker, compared by identity
+  private static final long BATCH_WAIT = 200; // ms the writer waits for more lines before flushing
+  private static final long CLOSE_WAIT = 100; // ms close() waits for the writer (maybe on the EDT)
+  private static final long EXIT_WAIT = 2000; // ms the shutdown hook waits for the writer
+
+  private final File dir;
+  private final String prefix;
+  private final String suffix;
+  private final List<String> header;
+  private final long maxFileBytes;
+  private final long startTime;
+  private final BlockingQueue<String> queue;
+  private final Thread writerThread;
+  private final Thread shutdownHook;
+
+  private volatile boolean closed;
+  private volatile File currentFile;
+  private final AtomicInteger dropped; // events turned away because the queue was full
+
+  // only touched by the writer thread
+  private BufferedWriter out;
+  private long currentBytes;
+  private int droppedReported;
+
+  public EventLog(File dir, String prefix, String suffix, List<String> header) {
+    this(dir, prefix, suffix, header, DEFAULT_QUEUE_SIZE, DEFAULT_MAX_FILE_BYTES);
+  }
+
+  public EventLog(File dir, String prefix, String suffix, List<String> header, int queueSize,
+      long maxFileBytes) {
+    this.dir = dir;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.header = new ArrayList<String>(header);
+    this.maxFileBytes = maxFileBytes;
+    this.startTime = System.currentTimeMillis();
+    this.queue = new ArrayBlockingQueue<String>(queueSize);
+    this.dropped = new AtomicInteger();
+    this.currentFile = FileUtil.makeIncrementalFile(dir, prefix, suffix, 0);
+    this.writerThread = new Thread(new Runnable() {
+      public void run() {
+        writeLoop();
+      }
+    }, "Event Log Writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+    this.shutdownHook = new Thread(new Runnable() {
+      public void run() {
+        finish(EXIT_WAIT);
+      }
+    }, "Event Log Shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Returns the file currently being written to.
+   */
+  public File getFile() {
+    return currentFile;
+  }
+
+  public int getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Logs an event with no detail.
+   */
+  public void log(String event) {
+    enqueue((System.currentTimeMillis() - startTime) + "\t" + event);
+  }
+
+  /**
+   * Logs an event with a detail string. Tabs and newlines in the detail are replaced by spaces so
+   * that each event stays on one line.
+   */
+  public void log(String event, String detail) {
+    String clean = detail.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    enqueue((System.currentTimeMillis() - startTime) + "\t" + event + "\t" + clean);
+  }
+
+  private void enqueue(String line) {
+    if (!closed && !queue.offer(line)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Stops accepting events. The writer thread writes what is still queued and closes the file;
+   * this waits only briefly for it, so it is safe to call from the event thread.
+   */
+  public void close() {
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException ex) {
+      // the JVM is already shutting down, and the hook is taking care of it
+    }
+    finish(CLOSE_WAIT);
+  }
+
+  private void finish(long wait) {
+    if (!closed) {
+      closed = true;
+      queue.offer(CLOSE); // wakes the writer; if the queue is full it will see 'closed' instead
+    }
+    try {
+      writerThread.join(wait);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeLoop() {
+    List<String> batch = new ArrayList<String>();
+    boolean done = false;
+    try {
+      open();
+      while (!done) {
+        String first = queue.poll(BATCH_WAIT, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch);
+        }
+        for (String line : batch) {
+          if (line == CLOSE) {
+            done = true;
+          } else {
+            write(line);
+          }
+        }
+        if (!batch.isEmpty() || (dropped.get() != droppedReported)) {
+          reportDropped();
+          out.flush();
+        }
+        batch.clear();
+        done = done || (closed && queue.isEmpty());
+      }
+    } catch (InterruptedException ex) {
+      bug("Event log writer interrupted. Closing " + currentFile.getAbsolutePath());
+    } catch (IOException ex) {
+      bug("Event log can't write to " + currentFile.getAbsolutePath() + ": " + ex.getMessage());
+    } finally {
+      closed = true; // nobody is going to drain the queue anymore
+      closeQuietly();
+    }
+  }
+
+  private void reportDropped() throws IOException {
+    int d = dropped.get();
+    if (d != droppedReported) {
+      write("# dropped " + (d - droppedReported) + " events (queue full)");
+      droppedReported = d;
+    }
+  }
+
+  private void open() throws IOException {
+    out = new BufferedWriter(new FileWriter(currentFile));
+    currentBytes = 0;
+    for (String line : header) {
+      write("# " + line);
+    }
+    write("# Start time: " + startTime + " (times below are ms since then)");
+    write("# Time\tEvent\tDetail");
+  }
+
+  private void write(String line) throws IOException {
+    if (currentBytes >= maxFileBytes) {
+      rotate();
+    }
+    out.write(line);
+    out.write('\n');
+    currentBytes = currentBytes + line.length() + 1;
+  }
+
+  private void rotate() throws IOException {
+    out.close();
+    currentFile = FileUtil.makeIncrementalFile(dir, prefix, suffix, 0);
+    open();
+  }
+
+  private void closeQuietly() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException ex) {
+        bug("Couldn't close event log " + currentFile.getAbsolutePath());
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package org.six11.sf;
 
+import java.awt.geom.Rectangle2D;
+
 import org.six11.util.pen.Pt;
 import org.six11.util.pen.Sequence;
 
@@ -8,6 +10,18 @@ public abstract class Guide {
   public enum Type {
     Circle, Line, Point, Unknown
   };
+
+  /**
+   * Line and circle guides claim ink when the mean squared distance between the ink samples and the
+   * guide is under this.
+   */
+  public static final double MAX_SAMPLE_ERROR = 20;
+
+  /**
+   * claimsByError() looks at every Nth sample first, so ink that is obviously off the guide is
+   * rejected without walking the whole sequence.
+   */
+  private static final int SAMPLE_STRIDE = 8;
   
   protected Pt fixedHover;
   protected Type type;
@@ -28,6 +42,64 @@ public abstract class Guide {
   }
 
   public abstract boolean claims(Sequence seq, int start, int end);
+
+  /**
+   * A cheap test that is used to skip claims() for guides that are nowhere near the ink. It must be
+   * conservative: returning false means claims() would certainly return false for the whole
+   * sequence. The default implementation always returns true.
+   * 
+   * @param bounds
+   *          the bounding box of the ink
+   * @param first
+   *          the first point of the ink
+   * @param last
+   *          the last point of the ink
+   * @param n
+   *          the number of points in the ink
+   */
+  public boolean mightClaim(Rectangle2D bounds, Pt first, Pt last, int n) {
+    return true;
+  }
+
+  /**
+   * Distance from the given point to the guide's geometry, used by claimsByError(). Subclasses that
+   * use claimsByError must override this.
+   */
+  protected double getError(Pt pt) {
+    return 0;
+  }
+
+  /**
+   * Tells you if the mean squared getError() of seq[start..end] is under MAX_SAMPLE_ERROR. The
+   * squared error only ever adds up, so this first sums a strided sample of the points and gives up
+   * as soon as the running total is over the limit for the whole sequence. Only ink that survives
+   * that is walked in full.
+   */
+  protected boolean claimsByError(Sequence seq, int start, int end) {
+    double limit = MAX_SAMPLE_ERROR * ((end - start) + 1);
+    double totalError = 0;
+    for (int i = start; (i <= end) && (totalError < limit); i += SAMPLE_STRIDE) {
+      double dist = getError(seq.get(i));
+      totalError = totalError + (dist * dist);
+    }
+    for (int i = start; (i <= end) && (totalError < limit); i++) {
+      if (((i - start) % SAMPLE_STRIDE) != 0) { // sampled points were already counted
+        double dist = getError(seq.get(i));
+        totalError = totalError + (dist * dist);
+      }
+    }
+    return totalError < limit;
+  }
+
+  /**
+   * Tells you if two endpoints alone already put the mean squared error of an n-point sequence over
+   * MAX_SAMPLE_ERROR.
+   */
+  protected boolean endpointsTooFar(Pt first, Pt last, int n) {
+    double e1 = getError(first);
+    double e2 = getError(last);
+    return ((e1 * e1) + (e2 * e2)) >= (MAX_SAMPLE_ERROR * n);
+  }
   
   public abstract String toString();
   
@@ -2,6 +2,8 @@ package org.six11.sf;
 
 import static org.six11.util.Debug.num;
 
+import java.awt.geom.Rectangle2D;
+
 import org.six11.util.gui.shape.Circle;
 import org.six11.util.pen.Pt;
 import org.six11.util.pen.Sequence;
@@ -57,21 +59,46 @@ public class GuideCircle extends Guide {
   }
 
   public boolean claims(Sequence seq, int start, int end) {
-    boolean ret = false;
+    updateDynamicCircle();
+    return claimsByError(seq, start, end);
+  }
+
+  /**
+   * Rejects ink whose endpoints are too far from the circle, or whose bounding box lies entirely
+   * inside or outside the circle's radius by a margin that puts every point over the error limit.
+   */
+  public boolean mightClaim(Rectangle2D bounds, Pt first, Pt last, int n) {
+    updateDynamicCircle();
+    boolean ret = !endpointsTooFar(first, last, n);
+    if (ret) {
+      double r = myCircle.getRadius();
+      double cx = center.getX();
+      double cy = center.getY();
+      double nearX = Math.max(0, Math.max(bounds.getMinX() - cx, cx - bounds.getMaxX()));
+      double nearY = Math.max(0, Math.max(bounds.getMinY() - cy, cy - bounds.getMaxY()));
+      double near = Math.hypot(nearX, nearY);
+      double farX = Math.max(Math.abs(bounds.getMinX() - cx), Math.abs(bounds.getMaxX() - cx));
+      double farY = Math.max(Math.abs(bounds.getMinY() - cy), Math.abs(bounds.getMaxY() - cy));
+      double far = Math.hypot(farX, farY);
+      double gap = 0;
+      if (r < near) {
+        gap = near - r;
+      } else if (r > far) {
+        gap = r - far;
+      }
+      ret = (gap * gap) < MAX_SAMPLE_ERROR;
+    }
+    return ret;
+  }
+
+  protected double getError(Pt pt) {
+    return Math.abs(pt.distance(center) - myCircle.getRadius());
+  }
+
+  private void updateDynamicCircle() {
     if (outside == null) {
       myCircle = new Circle(center, fixedHover.distance(center));
     }
-    double totalError = 0;
-    for (int i = start; i <= end; i++) {
-      Pt pt = seq.get(i);
-      double dist = Math.abs(pt.distance(center) - myCircle.getRadius());
-      totalError = totalError + (dist * dist);
-    }
-    double sampleError = totalError / ((end - start) + 1);
-    if (sampleError < 20) {
-      ret = true;
-    }
-    return ret;
   }
 
   @Override
@@ -0,0 +1,61 @@
+package org.six11.sf;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.six11.util.pen.Pt;
+import org.six11.util.pen.Sequence;
+
+/**
+ * The guides that were visible when an ink stroke was made, organized so go() only has to run the
+ * full Guide.claims() test on guides that could plausibly claim the stroke. Guide points are cheap
+ * (they only look at the endpoints) and always pass through; line and circle guides are culled with
+ * Guide.mightClaim(), which uses the stroke's bounding box and endpoints.
+ */
+public class GuideIndex {
+
+  private List<Guide> points; // cheap to test, never culled
+  private List<Guide> shapes; // lines and circles
+
+  public GuideIndex(Collection<Guide> guides) {
+    this.points = new ArrayList<Guide>();
+    this.shapes = new ArrayList<Guide>();
+    for (Guide g : guides) {
+      if (g.getType() == Guide.Type.Point) {
+        points.add(g);
+      } else {
+        shapes.add(g);
+      }
+    }
+  }
+
+  public boolean isEmpty() {
+    return points.isEmpty() && shapes.isEmpty();
+  }
+
+  public int size() {
+    return points.size() + shapes.size();
+  }
+
+  /**
+   * Returns the guides that might claim the given ink: all guide points, plus the line and circle
+   * guides that are not ruled out by the ink's bounding box and endpoint distances.
+   */
+  public List<Guide> getCandidates(Ink ink) {
+    List<Guide> ret = new ArrayList<Guide>(points);
+    Sequence seq = ink.getSequence();
+    if (!shapes.isEmpty() && (seq.size() > 0)) {
+      Rectangle2D bounds = ink.getBounds();
+      Pt first = seq.getFirst();
+      Pt last = seq.getLast();
+      for (Guide g : shapes) {
+        if (g.mightClaim(bounds, first, last, seq.size())) {
+          ret.add(g);
+        }
+      }
+    }
+    return ret;
+  }
+}
@@ -5,6 +5,7 @@ import static java.lang.Math.toDegrees;
 import static org.six11.util.Debug.bug;
 import static org.six11.util.Debug.num;
 
+import java.awt.geom.Rectangle2D;
 import java.util.List;
 
 import org.six11.util.pen.Functions;
@@ -29,27 +30,77 @@ public class GuideLine extends Guide {
 
   public boolean claims(Sequence seq, int start, int end) {
     boolean ret = false;
-    if (b == null) {
-      myLine = new Line(a, fixedHover);
-    }
-    Vec myVec = new Vec(myLine.getStart(), myLine.getEnd());
+    Line line = getLine();
+    Vec myVec = new Vec(line.getStart(), line.getEnd());
     Vec seqVec = new Vec(seq.get(start), seq.get(end));
     double ang1 = Math.abs(Functions.getSignedAngleBetween(myVec, seqVec));
     double ang2 = Math.abs(ang1 - Math.PI);
     double ang = Math.min(ang1, ang2);
     bug("Angle (deg): " + num(toDegrees(ang)));
-    if (toDegrees(ang) < 4.0) {
-      double totalError = 0;
-      for (int i = start; i <= end; i++) {
-        Pt pt = seq.get(i);
-        double dist = Functions.getDistanceBetweenPointAndLine(pt, myLine);
-        totalError = totalError + (dist * dist);
+    if ((toDegrees(ang) < 4.0) && claimsByError(seq, start, end)) {
+      bug("guide line can claim this");
+      ret = true;
+    }
+    return ret;
+  }
+
+  /**
+   * Rejects ink whose endpoints are too far from the line, or whose bounding box is entirely on one
+   * side of the line and far enough away that every point would be over the error limit.
+   */
+  public boolean mightClaim(Rectangle2D bounds, Pt first, Pt last, int n) {
+    Line line = getLine();
+    boolean ret = !endpointsTooFar(first, last, n);
+    if (ret) {
+      double gap = getDistanceToBox(line, bounds);
+      ret = (gap * gap) < MAX_SAMPLE_ERROR;
+    }
+    return ret;
+  }
+
+  protected double getError(Pt pt) {
+    return Functions.getDistanceBetweenPointAndLine(pt, myLine);
+  }
+
+  private Line getLine() {
+    if (b == null) {
+      myLine = new Line(a, fixedHover);
+    }
+    return myLine;
+  }
+
+  /**
+   * Returns the distance between the (infinite) line and the nearest point of the box, or zero if
+   * the line passes through it.
+   */
+  private static double getDistanceToBox(Line line, Rectangle2D box) {
+    double ret = 0;
+    Pt s = line.getStart();
+    double dx = line.getEnd().getX() - s.getX();
+    double dy = line.getEnd().getY() - s.getY();
+    double len = Math.hypot(dx, dy);
+    if (len > 0) {
+      double nx = -dy / len;
+      double ny = dx / len;
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+      double[] xs = new double[] {
+          box.getMinX(), box.getMaxX()
+      };
+      double[] ys = new double[] {
+          box.getMinY(), box.getMaxY()
+      };
+      for (double x : xs) {
+        for (double y : ys) {
+          double side = ((x - s.getX()) * nx) + ((y - s.getY()) * ny);
+          min = Math.min(min, side);
+          max = Math.max(max, side);
+        }
       }
-      double sampleError = totalError / ((end - start) + 1);
-      bug("Sample error: " + sampleError);
-      if (sampleError < 20) {
-        bug("guide line can claim this");
-        ret = true;
+      if (min > 0) {
+        ret = min;
+      } else if (max < 0) {
+        ret = -max;
       }
     }
     return ret;
@@ -0,0 +1,332 @@
+package org.six11.sf;
+
+import static org.six11.util.Debug.bug;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.six11.util.Debug;
+import org.six11.util.args.Arguments;
+import org.six11.util.io.FileUtil;
+import org.six11.util.pen.Functions;
+import org.six11.util.pen.Pt;
+import org.six11.util.pen.Sequence;
+import org.six11.util.solve.ConstraintSolver.Listener;
+import org.six11.util.solve.ConstraintSolver.State;
+
+/**
+ * Replays recorded ink through the SIMI pipeline without a window or OpenGL surface, and reports
+ * latency percentiles for each stage (corner finding, recognizers, constraint analysis, stencil
+ * finding, solver, snapshot).
+ *
+ * Ink can come from:
+ *
+ * <ul>
+ * <li>a SIMI notebook page (page-N.json) or a whole notebook directory. Pages only store the
+ * resulting geometry, so each segment of the page's current snapshot is turned back into a pen
+ * stroke by resampling its polyline.</li>
+ * <li>a recorded pen log in the Skrui .sketch format (the 'sequences' array, with x, y and time for
+ * every pen sample). This is real pen data, timing and all.</li>
+ * </ul>
+ *
+ * Example: ./run org.six11.sf.HeadlessReplay ../skrui/sketches/fraggle.sketch --warmup=2 --runs=5
+ */
+public class HeadlessReplay {
+
+  private static final double RESAMPLE_SPACING = 2.0; // model units between synthetic pen samples
+  private static final long SAMPLE_INTERVAL = 8; // ms between synthetic pen samples (~120 Hz)
+  private static final double PEN_JITTER = 0.3; // model units of noise added to synthetic samples
+  private static final long SOLVER_TIMEOUT = 10000; // ms to wait for the solver to settle
+  private static final long SOLVER_POLL = 5; // ms between checks if the solver listener is quiet
+
+  private SkruiFabEditor editor;
+  private SketchBook model;
+  private int strokesPerGo;
+  private int failures;
+  private final Object solverLock; // notified by the solver listener after every step
+  private int solverSteps; // guarded by solverLock
+  private int solverRuns; // solver steps that ended in Solved, guarded by solverLock
+
+  public HeadlessReplay(File notebookDir, int strokesPerGo) {
+    this.editor = new SkruiFabEditor(notebookDir);
+    this.model = editor.getModel();
+    this.strokesPerGo = Math.max(1, strokesPerGo);
+    model.getConstraints().setFrameRate(0); // full blast, don't sleep between solver steps
+    this.solverLock = new Object();
+    model.getConstraints().addListener(new Listener() {
+      public void constraintStepDone(State state, int numIterations, double err, int numPoints,
+          int numConstraints) {
+        synchronized (solverLock) {
+          solverSteps = solverSteps + 1;
+          if (state == State.Solved) {
+            solverRuns = solverRuns + 1;
+          }
+          solverLock.notifyAll();
+        }
+      }
+    });
+  }
+
+  public static void main(String[] in) throws IOException {
+    Arguments args = new Arguments(in);
+    if (args.getPositionCount() == 0) {
+      System.out.println("Usage: HeadlessReplay <page-N.json | notebook dir | file.sketch> "
+          + "[--warmup=N] [--runs=N] [--batch=N] [--debug]");
+      System.exit(1);
+    }
+    Debug.enabled = args.hasFlag("debug");
+    int warmup = args.hasValue("warmup") ? Integer.parseInt(args.getValue("warmup")) : 1;
+    int runs = args.hasValue("runs") ? Integer.parseInt(args.getValue("runs")) : 3;
+    int batch = args.hasValue("batch") ? Integer.parseInt(args.getValue("batch")) : 1;
+
+    File scratch = makeScratchNotebook();
+    HeadlessReplay replay = new HeadlessReplay(scratch, batch);
+    List<Sequence> strokes = new ArrayList<Sequence>();
+    for (int i = 0; i < args.getPositionCount(); i++) {
+      strokes.addAll(replay.loadStrokes(new File(args.getPosition(i))));
+    }
+    System.out.println("Loaded " + strokes.size() + " strokes. Warmup runs: " + warmup
+        + ", measured runs: " + runs + ", strokes per go(): " + replay.strokesPerGo);
+
+    PipelineTimer timer = replay.model.getPipelineTimer();
+    for (int i = 0; i < warmup; i++) {
+      replay.replay(strokes);
+    }
+    timer.setEnabled(true);
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      replay.replay(strokes);
+    }
+    double elapsedSec = (System.nanoTime() - start) / 1e9;
+    timer.setEnabled(false);
+
+    System.out.println();
+    timer.report(System.out);
+    System.out.println();
+    System.out.printf("%d strokes in %.3f sec: %.1f strokes/sec\n", strokes.size() * runs,
+        elapsedSec, (strokes.size() * runs) / elapsedSec);
+    if (replay.failures > 0) {
+      System.out.println(replay.failures
+          + " strokes threw exceptions (run with --debug for details)");
+    }
+    FileUtil.deleteTree(scratch);
+    System.exit(0);
+  }
+
+  /**
+   * Makes an empty notebook in a temporary directory so replaying never touches the user's real
+   * notebooks.
+   */
+  static File makeScratchNotebook() throws IOException {
+    File dir = File.createTempFile("simi-replay-", "");
+    dir.delete();
+    dir.mkdirs();
+    new File(dir, Notebook.SIMI_MAIN_FILE_NAME).createNewFile();
+    return dir;
+  }
+
+  public SketchBook getModel() {
+    return model;
+  }
+
+  /**
+   * Clears the model and pushes every stroke through addInk() and go(), waiting for the solver to
+   * settle after each go() like the interactive editor does before it takes a snapshot.
+   */
+  public void replay(List<Sequence> strokes) {
+    PipelineTimer timer = model.getPipelineTimer();
+    model.clearAll();
+    int pending = 0;
+    for (Sequence original : strokes) {
+      Sequence seq = original.copy();
+      long t = timer.mark();
+      try {
+        model.addInk(new Ink(seq));
+      } catch (RuntimeException ex) {
+        failures = failures + 1;
+        bug("addInk failed: " + ex);
+      }
+      timer.record("addInk", t);
+      pending = pending + 1;
+      if (pending == strokesPerGo) {
+        go();
+        pending = 0;
+      }
+    }
+    if (pending > 0) {
+      go();
+    }
+  }
+
+  private void go() {
+    PipelineTimer timer = model.getPipelineTimer();
+    int stepsBefore;
+    int runsBefore;
+    synchronized (solverLock) {
+      stepsBefore = solverSteps;
+      runsBefore = solverRuns;
+    }
+    if (!model.getUnanalyzedInk().isEmpty()) {
+      try {
+        editor.go();
+      } catch (RuntimeException ex) {
+        failures = failures + 1;
+        bug("go() failed: " + ex);
+      }
+    }
+    long t = timer.mark();
+    waitForSolver(stepsBefore, runsBefore);
+    timer.record("solver", t);
+    t = timer.mark();
+    model.getSnapshotMachine().save();
+    timer.record("snapshot", t);
+  }
+
+  /**
+   * Waits for the solver to settle on what go() gave it, woken by the solver listener after each
+   * step. A Solved state only counts if the solver has finished a run since go() started, or if it
+   * hasn't stepped or left Solved at all (go() gave it nothing to do). That way a Solved left over
+   * from before go() isn't taken for the new solution.
+   */
+  private void waitForSolver(int stepsBefore, int runsBefore) {
+    long giveUp = System.currentTimeMillis() + SOLVER_TIMEOUT;
+    boolean working = false;
+    synchronized (solverLock) {
+      while (true) {
+        boolean solved = model.getConstraints().getSolutionState() == State.Solved;
+        working = working || !solved || solverSteps > stepsBefore;
+        if (solved && (!working || solverRuns > runsBefore)) {
+          break;
+        }
+        if (System.currentTimeMillis() > giveUp) {
+          bug("Solver did not settle within " + SOLVER_TIMEOUT + " ms. Moving on.");
+          break;
+        }
+        try {
+          solverLock.wait(SOLVER_POLL);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads strokes from a notebook directory, a single page-N.json file, or a .sketch pen log.
+   */
+  public List<Sequence> loadStrokes(File file) {
+    List<Sequence> ret = new ArrayList<Sequence>();
+    if (file.isDirectory()) {
+      File[] pageFiles = file.listFiles(new FilenameFilter() {
+        public boolean accept(File dir, String name) {
+          return name.startsWith("page-") && name.endsWith(".json");
+        }
+      });
+      for (File pageFile : pageFiles) {
+        ret.addAll(loadPageStrokes(pageFile));
+      }
+    } else if (file.getName().endsWith(".sketch")) {
+      ret.addAll(loadSketchStrokes(file));
+    } else {
+      ret.addAll(loadPageStrokes(file));
+    }
+    return ret;
+  }
+
+  /**
+   * Reads a Skrui .sketch file and returns its recorded pen sequences in their original order.
+   * Each point is stored as [id, x, y, time].
+   */
+  public static List<Sequence> loadSketchStrokes(File sketchFile) {
+    List<Sequence> ret = new ArrayList<Sequence>();
+    try {
+      JSONObject root = new JSONObject(FileUtil.loadStringFromFile(sketchFile));
+      JSONArray sequences = root.getJSONArray("sequences");
+      for (int i = 0; i < sequences.length(); i++) {
+        JSONArray points = sequences.getJSONObject(i).getJSONArray("points");
+        Sequence seq = new Sequence();
+        for (int j = 0; j < points.length(); j++) {
+          JSONArray pt = points.getJSONObject(j).getJSONArray("pt");
+          seq.add(new Pt(pt.getDouble(1), pt.getDouble(2), pt.getLong(3)));
+        }
+        if (seq.size() > 1) {
+          ret.add(seq);
+        }
+      }
+    } catch (JSONException ex) {
+      bug("Can't read sketch file " + sketchFile.getAbsolutePath() + ": " + ex.getMessage());
+    }
+    return ret;
+  }
+
+  /**
+   * Loads the current snapshot of a SIMI page and turns each segment back into a pen stroke. The
+   * page is loaded into this replay's model, which is cleared by the next replay().
+   */
+  public List<Sequence> loadPageStrokes(File pageFile) {
+    List<Sequence> ret = new ArrayList<Sequence>();
+    try {
+      Page page = new Page(model, new JSONObject(FileUtil.loadStringFromFile(pageFile)));
+      SnapshotMachine sm = page.getSnapshotMachine();
+      if (sm.length() > 0) {
+        sm.load(sm.getCurrent());
+      }
+      List<Segment> segs = new ArrayList<Segment>(model.getGeometry());
+      Collections.sort(segs, new Comparator<Segment>() {
+        public int compare(Segment a, Segment b) {
+          return a.getId() - b.getId();
+        }
+      });
+      long time = System.currentTimeMillis();
+      Random jitter = new Random(segs.size()); // deterministic per page
+      for (Segment seg : segs) {
+        Sequence stroke = makeStroke(seg.asPolyline(), time, jitter);
+        if (stroke != null) {
+          ret.add(stroke);
+          time = stroke.getLast().getTime() + 500;
+        }
+      }
+    } catch (JSONException ex) {
+      bug("Can't read page file " + pageFile.getAbsolutePath() + ": " + ex.getMessage());
+    }
+    return ret;
+  }
+
+  /**
+   * Resamples a polyline into evenly spaced, evenly timed pen samples starting at the given time.
+   * A little noise is added because perfectly straight input is not something a pen produces (and
+   * it gives degenerate convex hulls). Returns null if the polyline is too short to draw.
+   */
+  private static Sequence makeStroke(List<Pt> polyline, long startTime, Random jitter) {
+    Sequence ret = null;
+    if (polyline != null && polyline.size() > 1) {
+      Sequence raw = new Sequence();
+      for (Pt pt : polyline) {
+        raw.add(new Pt(pt.getX(), pt.getY()));
+      }
+      Sequence even = Functions.getCurvilinearNormalizedSequence(raw, 0, raw.size() - 1,
+          RESAMPLE_SPACING);
+      if (even.size() > 1) {
+        ret = new Sequence();
+        long t = startTime;
+        for (Pt pt : even) {
+          double dx = (jitter.nextDouble() - 0.5) * 2 * PEN_JITTER;
+          double dy = (jitter.nextDouble() - 0.5) * 2 * PEN_JITTER;
+          ret.add(new Pt(pt.getX() + dx, pt.getY() + dy, t));
+          t = t + SAMPLE_INTERVAL;
+        }
+      }
+    }
+    return ret;
+  }
+}
@@ -29,12 +29,14 @@ public class Ink implements HasFuzzyArea {
   protected boolean analyzed;
   protected Sequence seq;
   protected Set<Guide> guides;
+  protected GuideIndex guideIndex;
   private Area fuzzy;
 
   public Ink(Sequence seq) {
     this.seq = seq;
     created = System.currentTimeMillis();
     this.guides = new HashSet<Guide>();
+    this.guideIndex = new GuideIndex(guides);
   }
 
   public Rectangle2D getBounds() {
@@ -111,6 +113,15 @@ public class Ink implements HasFuzzyArea {
   public void setGuides(Set<Guide> retainedVisibleGuides) {
     guides.clear();
     guides.addAll(retainedVisibleGuides);
+    guideIndex = new GuideIndex(guides);
+  }
+
+  /**
+   * Returns the guides that were visible when this ink was made, indexed so the ones that can't
+   * possibly claim it are skipped cheaply.
+   */
+  public GuideIndex getGuideIndex() {
+    return guideIndex;
   }
 
   public Area getFuzzyArea(double fuzzyFactor) {
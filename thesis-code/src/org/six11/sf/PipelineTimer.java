@@ -0,0 +1,120 @@
+package org.six11.sf;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects per-stage latency samples for the ink pipeline (corner finding, recognition, constraint
+ * analysis, stencil finding, solving). It is disabled by default, in which case record() does
+ * nothing. HeadlessReplay turns it on to produce latency percentiles.
+ *
+ * Typical use:
+ *
+ * <pre>
+ * long t = timer.mark();
+ * doSomethingExpensive();
+ * timer.record(&quot;expensive&quot;, t);
+ * </pre>
+ */
+public class PipelineTimer {
+
+  private boolean enabled;
+  private Map<String, List<Long>> samples; // stage name -> durations in nanoseconds
+
+  public PipelineTimer() {
+    this.samples = new LinkedHashMap<String, List<Long>>();
+  }
+
+  public void setEnabled(boolean v) {
+    this.enabled = v;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns a start time to later give to record().
+   */
+  public long mark() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the time elapsed since 'start' (which came from mark()) under the given stage name.
+   */
+  public void record(String stage, long start) {
+    if (enabled) {
+      recordNanos(stage, System.nanoTime() - start);
+    }
+  }
+
+  public void recordNanos(String stage, long nanos) {
+    if (enabled) {
+      if (!samples.containsKey(stage)) {
+        samples.put(stage, new ArrayList<Long>());
+      }
+      samples.get(stage).add(nanos);
+    }
+  }
+
+  public void clear() {
+    samples.clear();
+  }
+
+  public List<String> getStages() {
+    return new ArrayList<String>(samples.keySet());
+  }
+
+  public int getCount(String stage) {
+    return samples.containsKey(stage) ? samples.get(stage).size() : 0;
+  }
+
+  public long getTotalNanos(String stage) {
+    long ret = 0;
+    if (samples.containsKey(stage)) {
+      for (long n : samples.get(stage)) {
+        ret = ret + n;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the given percentile (0..100) of the stage's samples, in milliseconds. Uses the
+   * nearest-rank method. Returns zero if there are no samples.
+   */
+  public double getPercentile(String stage, double pct) {
+    double ret = 0;
+    if (getCount(stage) > 0) {
+      List<Long> sorted = new ArrayList<Long>(samples.get(stage));
+      Collections.sort(sorted);
+      int rank = (int) Math.ceil((pct / 100.0) * sorted.size());
+      int idx = Math.min(sorted.size() - 1, Math.max(0, rank - 1));
+      ret = sorted.get(idx) / 1e6;
+    }
+    return ret;
+  }
+
+  /**
+   * Prints a table with one row per stage: count, mean, p50, p90, p99, max (all in ms), and
+   * throughput in calls per second of time spent in that stage.
+   */
+  public void report(PrintStream out) {
+    String headFormat = "%-22s%8s%10s%10s%10s%10s%10s%12s\n";
+    String rowFormat = "%-22s%8d%10.3f%10.3f%10.3f%10.3f%10.3f%12.1f\n";
+    out.printf(headFormat, "stage", "n", "mean", "p50", "p90", "p99", "max", "ops/sec");
+    for (String stage : getStages()) {
+      int n = getCount(stage);
+      double totalMs = getTotalNanos(stage) / 1e6;
+      double mean = totalMs / n;
+      double opsPerSec = totalMs > 0 ? n / (totalMs / 1000.0) : 0;
+      out.printf(rowFormat, stage, n, mean, getPercentile(stage, 50), getPercentile(stage, 90),
+          getPercentile(stage, 99), getPercentile(stage, 100), opsPerSec);
+    }
+  }
+}
@@ -8,11 +8,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.Area;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -91,6 +89,7 @@ public class SketchBook implements RecognitionListener {
   private List<GuidePoint> guidePoints;
   private List<GuidePoint> activeGuidePoints;
   private Set<Guide> derivedGuides;
+  private double[] derivedGuidesKey; // active guide point locations derivedGuides was made from
   private Set<Guide> retainedVisibleGuides;
   private GuidePoint draggingGuidePoint;
 
@@ -109,13 +108,23 @@ public class SketchBook implements RecognitionListener {
   private int lastSolverStep;
   public boolean showHelpfulInfo;
   private boolean loggingRecognitionEvents;
-  private BufferedWriter recognitionEventFileWriter;
+  private EventLog recognitionLog;
   private List<TimedMessage> messages;
+  private PipelineTimer timer;
 
   public SketchBook(FastGlassPane glass, SkruiFabEditor editor) {
+    this(glass, editor, null);
+  }
+
+  /**
+   * Creates a sketch book that uses the notebook in the given directory. If notebookDir is null,
+   * the most recently used notebook is found via preferences (see Notebook.loadLast).
+   */
+  public SketchBook(FastGlassPane glass, SkruiFabEditor editor, File notebookDir) {
     this.glass = glass;
     this.editor = editor;
     this.messages = new ArrayList<TimedMessage>();
+    this.timer = new PipelineTimer();
     this.camera = new Camera();
     this.scribbles = new ArrayList<Sequence>();
     this.selectedStencils = new HashSet<Stencil>();
@@ -179,8 +188,11 @@ public class SketchBook implements RecognitionListener {
       }
     });
     inactivityTimer.setRepeats(false);
-    notebook = Notebook.loadLast(this);
-    
+    if (notebookDir == null) {
+      notebook = Notebook.loadLast(this);
+    } else {
+      notebook = new Notebook(this, notebookDir);
+    }
   }
 
   public SkruiFabEditor getEditor() {
@@ -203,11 +215,19 @@ public class SketchBook implements RecognitionListener {
     stencils.add(s);
   }
 
+  public PipelineTimer getPipelineTimer() {
+    return timer;
+  }
+
   public void addInk(Ink newInk) {
     mostRecentInk = newInk;
+    long t = timer.mark();
     cornerFinder.findCorners(newInk); // sets newInk.seq SEGMENTS attribute
+    timer.record("corners", t);
     // this is the part where encircle gestures should be found since they have precedence
+    t = timer.mark();
     Collection<RecognizedRawItem> rawResults = recognizer.analyzeSingleRaw(newInk);
+    timer.record("raw recognizers", t);
 
     // iterate through everything and remove the trumps
     Set<RecognizedRawItem> doomed = new HashSet<RecognizedRawItem>();
@@ -235,12 +255,34 @@ public class SketchBook implements RecognitionListener {
     } else {
       getSnapshotMachine().requestSnapshot("raw ink caused a change");
     }
-    editor.getDrawingSurface().repaint();
+    repaintSurface();
   }
 
   public void removeInk(Ink oldInk) {
     ink.remove(oldInk);
-    surface.display();
+    if (surface != null) {
+      surface.display();
+    }
+  }
+
+  /**
+   * Asks the drawing surface to repaint. Does nothing when running without a surface (e.g. in
+   * HeadlessReplay).
+   */
+  private void repaintSurface() {
+    if (surface != null) {
+      surface.repaint();
+    }
+  }
+
+  /**
+   * Turns on text gathering in the glass pane when exactly one segment is selected. Does nothing
+   * when there is no glass pane.
+   */
+  private void updateGatherText() {
+    if (glass != null) {
+      glass.setGatherText(selectedSegments.size() == 1);
+    }
   }
 
   /**
@@ -543,7 +585,7 @@ public class SketchBook implements RecognitionListener {
     selectedSegments.remove(seg);
 
     // turn on/off text gathering if there is now exactly one selected seg.
-    editor.getGlass().setGatherText(selectedSegments.size() == 1);
+    updateGatherText();
 
     // remove points from the solver if they are no longer part of the model.
     boolean keep1 = false;
@@ -704,9 +746,14 @@ public class SketchBook implements RecognitionListener {
       guidePoints.clear();
       activeGuidePoints.clear();
       derivedGuides.clear();
-      surface.clearScribble();
-      surface.display();
-      editor.getGrid().clear();
+      derivedGuidesKey = null;
+      if (surface != null) {
+        surface.clearScribble();
+        surface.display();
+      }
+      if (editor.getGrid() != null) {
+        editor.getGrid().clear();
+      }
       //      editor.getCutfilePane().clear();
 //      actions.clear();
 //      redoActions.clear();
@@ -879,7 +926,9 @@ public class SketchBook implements RecognitionListener {
     boolean gToS = segmentPoints.containsAll(solver.getVars().getPoints());
     if (!sToG || !gToS) {
       System.out.println(getMondoDebugString());
-      surface.setPanic(true);
+      if (surface != null) {
+        surface.setPanic(true);
+      }
     }
   }
 
@@ -943,7 +992,7 @@ public class SketchBook implements RecognitionListener {
     if (selectUs != null) {
       selectedSegments.addAll(selectUs);
     }
-    editor.getGlass().setGatherText(selectedSegments.size() == 1);
+    updateGatherText();
     if (!same) {
       getSnapshotMachine().requestSnapshot("Segment selection changed");
     }
@@ -1017,7 +1066,7 @@ public class SketchBook implements RecognitionListener {
 
   public void deselectSegments(Collection<Segment> unselectUs) {
     selectedSegments.removeAll(unselectUs);
-    editor.getGlass().setGatherText(selectedSegments.size() == 1);
+    updateGatherText();
   }
 
   public void addTextProgress(String string) {
@@ -1118,42 +1167,53 @@ public class SketchBook implements RecognitionListener {
     fixDerivedGuides();
   }
 
+  /**
+   * Rebuilds the lines, circles and midpoints derived from the active guide points. This is a no-op
+   * if the active guide points are where they were the last time the derived guides were made.
+   */
   public void fixDerivedGuides() {
-    // fix the derived guides
-    derivedGuides.clear();
     Pt[] pts = new Pt[activeGuidePoints.size()];
+    double[] key = new double[pts.length * 2];
     int i = 0;
     for (GuidePoint g : activeGuidePoints) {
-      pts[i++] = g.getLocation();
-    }
-    switch (activeGuidePoints.size()) {
-      case 1:
-        derivedGuides.add(makeDerivedCircle(pts[0], null, false));
-        derivedGuides.add(new GuideLine(pts[0], null));
-        break;
-      case 2:
-        derivedGuides.add(new GuideLine(pts[0], pts[1]));
-        derivedGuides.add(makeDerivedCircle(pts[0], pts[1], true));
-        derivedGuides.add(makeDerivedCircle(pts[0], pts[1], false));
-        derivedGuides.add(makeDerivedCircle(pts[1], pts[0], false));
-        Pt mid = Functions.getMean(pts);
-        derivedGuides.add(new GuidePoint(mid));
-        Vec v = new Vec(pts[0], pts[1]).getNormal();
-        Pt elsewhere = v.add(mid);
-        derivedGuides.add(new GuideLine(mid, elsewhere));
-        break;
-      case 3:
-        if (!Functions.arePointsColinear(pts)) {
-          Pt center = Functions.getCircleCenter(pts[0], pts[1], pts[2]);
-          if (center.distance(pts[0]) < 800) {
-            derivedGuides.add(new GuidePoint(center));
-            derivedGuides.add(makeDerivedCircle(center, pts[1], false));
-          } else {
-            bug("Guide circle would be huge. Not including it.");
+      pts[i] = g.getLocation();
+      key[i * 2] = pts[i].getX();
+      key[(i * 2) + 1] = pts[i].getY();
+      i++;
+    }
+    if (!Arrays.equals(key, derivedGuidesKey)) {
+      derivedGuidesKey = key;
+      // fix the derived guides
+      derivedGuides.clear();
+      switch (activeGuidePoints.size()) {
+        case 1:
+          derivedGuides.add(makeDerivedCircle(pts[0], null, false));
+          derivedGuides.add(new GuideLine(pts[0], null));
+          break;
+        case 2:
+          derivedGuides.add(new GuideLine(pts[0], pts[1]));
+          derivedGuides.add(makeDerivedCircle(pts[0], pts[1], true));
+          derivedGuides.add(makeDerivedCircle(pts[0], pts[1], false));
+          derivedGuides.add(makeDerivedCircle(pts[1], pts[0], false));
+          Pt mid = Functions.getMean(pts);
+          derivedGuides.add(new GuidePoint(mid));
+          Vec v = new Vec(pts[0], pts[1]).getNormal();
+          Pt elsewhere = v.add(mid);
+          derivedGuides.add(new GuideLine(mid, elsewhere));
+          break;
+        case 3:
+          if (!Functions.arePointsColinear(pts)) {
+            Pt center = Functions.getCircleCenter(pts[0], pts[1], pts[2]);
+            if (center.distance(pts[0]) < 800) {
+              derivedGuides.add(new GuidePoint(center));
+              derivedGuides.add(makeDerivedCircle(center, pts[1], false));
+            } else {
+              bug("Guide circle would be huge. Not including it.");
+            }
           }
-        }
-        break;
-      default:
+          break;
+        default:
+      }
     }
   }
 
@@ -1192,8 +1252,9 @@ public class SketchBook implements RecognitionListener {
       retainedVisibleGuides.add(g.getFixedCopy());
     }
     retainedVisibleGuides.addAll(guidePoints);
+    Pt hover = (surface == null) ? null : surface.getHoverPoint();
     for (Guide g : retainedVisibleGuides) {
-      g.setFixedHover(surface.getHoverPoint());
+      g.setFixedHover(hover);
     }
   }
 
@@ -1617,54 +1678,36 @@ public class SketchBook implements RecognitionListener {
     loggingRecognitionEvents = onOrOff;
     Preferences prefs = Preferences.userNodeForPackage(Main.class);
     prefs.putBoolean("autoLog", onOrOff);
+    if (recognitionLog != null) {
+      recognitionLog.close();
+      recognitionLog = null;
+      if (!loggingRecognitionEvents) {
+        addTimedMessage(new TimedMessage(5000, "Stopped logging recognition events."));
+      }
+    }
     if (loggingRecognitionEvents) {
       File dir = getNotebook().getMainFileDirectory();
-      File recLogFile = FileUtil.makeIncrementalFile(dir, "recognition-log", ".txt", 0);
+      boolean videoWatched = prefs.getBoolean("videoWatched", false);
+      int numUses = prefs.getInt("numUses", 0);
+      List<String> header = new ArrayList<String>();
+      header.add("Number of times program has started: " + numUses);
+      header.add("Video watched via UI: " + videoWatched);
+      recognitionLog = new EventLog(dir, "recognition-log", ".txt", header);
       addTimedMessage(new TimedMessage(5000, "Turn this off by tapping the ; key (semicolon)"));
-      addTimedMessage(new TimedMessage(5000, "Logging to " + recLogFile.getAbsolutePath()));
-      try {
-        recognitionEventFileWriter = new BufferedWriter(new FileWriter(recLogFile));
-        boolean videoWatched = prefs.getBoolean("videoWatched", false);
-        int numUses = prefs.getInt("numUses", 0);
-        recognitionEventFileWriter.append("# Number of times program has started: " + numUses
-            + "\n");
-        recognitionEventFileWriter.append("# Video watched via UI: " + videoWatched + "\n");
-        recognitionEventFileWriter.append("#\n");
-        recognitionEventFileWriter.append("# Time stamp\tEvent type\n");
-      } catch (IOException e) {
-        addTimedMessage(new TimedMessage(5000, "Unable to create recognition log file."));
-        e.printStackTrace();
-      }
-    } else {
-      if (recognitionEventFileWriter != null) {
-        try {
-          recognitionEventFileWriter.close();
-          addTimedMessage(new TimedMessage(5000, "Stopped logging recognition events."));
-        } catch (IOException e) {
-          addTimedMessage(new TimedMessage(5000,
-              "Couldn't stop logging recognition events! Ahhhhh!"));
-          e.printStackTrace();
-        }
-      }
+      addTimedMessage(new TimedMessage(5000, "Logging to "
+          + recognitionLog.getFile().getAbsolutePath()));
     }
   }
 
   private void addTimedMessage(TimedMessage msg) {
     messages.add(msg);
-    surface.repaint();
+    repaintSurface();
   }
 
   @Override
   public void somethingRecognized(What what) {
-    if (loggingRecognitionEvents && recognitionEventFileWriter != null) {
-      try {
-        recognitionEventFileWriter.append(System.currentTimeMillis() + "\t" + what.toString()
-            + "\n");
-        recognitionEventFileWriter.flush();
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
+    if (loggingRecognitionEvents && (recognitionLog != null)) {
+      recognitionLog.log(what.toString()); // queued; written on the log's own thread
     }
   }
 
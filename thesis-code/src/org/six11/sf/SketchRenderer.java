@@ -5,10 +5,12 @@ import static java.lang.Math.sin;
 import static org.six11.util.Debug.bug;
 import static org.six11.util.Debug.num;
 
+import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -151,6 +153,13 @@ public class SketchRenderer {
   private static final Vec NORTH_WEST = new Vec(-1, 1).getUnitVector();
   private static final Vec SOUTH_EAST = new Vec(1, -1).getUnitVector();
 
+  // Level of detail. All of these are in screen pixels, and are converted to model units with the
+  // camera zoom at the start of each render.
+  public final static float LOD_PIXELS_PER_VERTEX = 2f; // min screen distance between curve vertices
+  public final static float LOD_MIN_GLYPH_PIXELS = 4f; // smaller segments get no end decorations
+  public final static float LOD_MIN_LABEL_PIXELS = 24f; // smaller segments get no text labels
+  public final static float LOD_VIEWPORT_PAD_PIXELS = 16f; // so thick lines at the edge are kept
+
   private transient GL2 gl; // only valid during the render method
   private transient SketchBook model; // also valid only when rendering
   private transient GLAutoDrawable drawable; // same
@@ -161,6 +170,10 @@ public class SketchRenderer {
   private boolean showCrosshair;
   float[] crosshairs = new float[2];
 
+  private boolean levelOfDetail = true;
+  private transient float zoom = 1f; // camera zoom, updated at the start of each render
+  private transient Rectangle2D viewport; // visible model region (padded), same
+
   public void init(GLAutoDrawable drawable) {
     this.drawable = drawable;
     this.gl = drawable.getGL().getGL2();
@@ -188,6 +201,7 @@ public class SketchRenderer {
     this.gl = drawable.getGL().getGL2();
     this.model = model;
     this.surface = drawingSurface;
+    updateView();
 
     // render things back-to-front
     renderStencils();
@@ -204,6 +218,94 @@ public class SketchRenderer {
     renderCrosshair();
   }
 
+  /**
+   * Turns level-of-detail rendering on or off. It is on by default. When it is on, things outside
+   * the visible part of the model are skipped, curves are drawn with only as many vertices as the
+   * current zoom level can show, and small decorations are dropped. Turn it off when the output is
+   * going to be replayed later at some other zoom or pan (e.g. when compiling a display list).
+   */
+  public void setLevelOfDetail(boolean v) {
+    this.levelOfDetail = v;
+  }
+
+  public boolean isLevelOfDetail() {
+    return levelOfDetail;
+  }
+
+  /**
+   * Finds the camera zoom and the part of the model that is visible for this round of rendering.
+   */
+  private void updateView() {
+    Camera cam = model.getCamera();
+    zoom = cam.getZoom();
+    float[] ortho = cam.getOrthoValues(new Dimension(drawable.getWidth(), drawable.getHeight()));
+    float pad = LOD_VIEWPORT_PAD_PIXELS / zoom;
+    viewport = new Rectangle2D.Float(ortho[Camera.LEFT] - pad, ortho[Camera.BOTTOM] - pad,
+        (ortho[Camera.RIGHT] - ortho[Camera.LEFT]) + (2 * pad),
+        (ortho[Camera.TOP] - ortho[Camera.BOTTOM]) + (2 * pad));
+  }
+
+  /**
+   * Tells you if something with the given model bounds can be seen. Unlike
+   * Rectangle2D.intersects(), this is true for zero-width or zero-height bounds (e.g. horizontal
+   * lines).
+   */
+  private boolean isVisible(Rectangle2D bounds) {
+    return !levelOfDetail
+        || ((bounds.getMaxX() >= viewport.getMinX()) && (bounds.getMinX() <= viewport.getMaxX())
+            && (bounds.getMaxY() >= viewport.getMinY()) && (bounds.getMinY() <= viewport.getMaxY()));
+  }
+
+  private boolean isVisible(Pt pt) {
+    return !levelOfDetail || viewport.contains(pt.getX(), pt.getY());
+  }
+
+  /**
+   * Converts a model distance to screen pixels.
+   */
+  private float pixels(double modelDistance) {
+    return (float) (modelDistance * zoom);
+  }
+
+  /**
+   * Tells you if something that is the given number of model units across is big enough on screen
+   * to be worth decorating. Always true when level of detail is off.
+   */
+  private boolean isBigEnough(double modelDistance, float minPixels) {
+    return !levelOfDetail || (pixels(modelDistance) >= minPixels);
+  }
+
+  private static Rectangle2D getBounds(List<Pt> points) {
+    double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+    double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+    for (Pt pt : points) {
+      minX = Math.min(minX, pt.getX());
+      minY = Math.min(minY, pt.getY());
+      maxX = Math.max(maxX, pt.getX());
+      maxY = Math.max(maxY, pt.getY());
+    }
+    return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+  }
+
+  /**
+   * Returns the model bounds of what renderSegment() will draw for the given segment.
+   */
+  private Rectangle2D getBounds(Segment seg) {
+    Rectangle2D ret;
+    List<Pt> points = getCurvePoints(seg);
+    if (points != null) {
+      ret = getBounds(points);
+    } else if (seg.getType() == Type.Circle) {
+      Circle circ = seg.getCircle();
+      double r = circ.getRadius();
+      ret = new Rectangle2D.Double(circ.getCenter().getX() - r, circ.getCenter().getY() - r,
+          2 * r, 2 * r);
+    } else {
+      ret = getBounds(Arrays.asList(seg.getP1(), seg.getP2()));
+    }
+    return ret;
+  }
+
   private void renderCrosshair() {
     if (showCrosshair) {
 //      bug("Putting crosshair at " + num(crosshairs));
@@ -238,13 +340,16 @@ public class SketchRenderer {
    * @param stencil
    */
   private void renderStencil(Stencil stencil, boolean isSelected) {
-    gl.glLineWidth(4f);
-    if (isSelected) {
-      gl.glColor4fv(STENCIL_SELECTED_COLOR, 0);
-    } else {
-      gl.glColor4fv(STENCIL_UNSELECTED_COLOR, 0);
+    Shape shape = stencil.getShape(false);
+    if (isVisible(shape.getBounds2D())) {
+      gl.glLineWidth(4f);
+      if (isSelected) {
+        gl.glColor4fv(STENCIL_SELECTED_COLOR, 0);
+      } else {
+        gl.glColor4fv(STENCIL_UNSELECTED_COLOR, 0);
+      }
+      tessellateShape(shape);
     }
-    tessellateShape(stencil.getShape(false));
   }
 
   private void renderDerivedGuides() {
@@ -317,17 +422,19 @@ public class SketchRenderer {
     float r;
     float z = model.getCamera().getZoom();
     for (GuidePoint gpt : model.getGuidePoints()) {
-      if (model.getActiveGuidePoints().contains(gpt)) {
-        c = DOT_SELECTED_COLOR;
-        r = 4f;
-      } else {
-        c = lightGray;
-        r = 3f;
+      if (isVisible(gpt.getLocation())) {
+        if (model.getActiveGuidePoints().contains(gpt)) {
+          c = DOT_SELECTED_COLOR;
+          r = 4f;
+        } else {
+          c = lightGray;
+          r = 3f;
+        }
+        gl.glColor3fv(c, 0);
+        fillDot(gpt.getLocation(), r / z);
+        gl.glColor3fv(black, 0);
+        dot(gpt.getLocation(), r / z);
       }
-      gl.glColor3fv(c, 0);
-      fillDot(gpt.getLocation(), r / z);
-      gl.glColor3fv(black, 0);
-      dot(gpt.getLocation(), r / z);
     }
   }
 
@@ -365,11 +472,13 @@ public class SketchRenderer {
       Vec segDir = new Vec(dc.getP1(), dc.getP2()).getUnitVector();
       Pt mid = Functions.getMean(dc.getP1(), dc.getP2());
       spots.add(mid);
-      if (dc.getValue() instanceof MultisourceNumericValue) {
+      if (!isVisible(mid)) {
+        // spot is still recorded above so hovering works, but there is nothing to draw
+      } else if (dc.getValue() instanceof MultisourceNumericValue) {
         gl.glLineWidth(2f);
         gl.glColor4fv(color, 0);
         acuteHash(mid, segDir, 24 / zoom);
-      } else {
+      } else if (isBigEnough(dc.getP1().distance(dc.getP2()), LOD_MIN_LABEL_PIXELS)) {
         Vec segDirNorm = segDir.getNormal();
         Pt textLocModel = mid.getTranslated(segDirNorm, 8 / zoom);
         Material.Units units = model.getMasterUnits();
@@ -388,8 +497,10 @@ public class SketchRenderer {
     gl.glColor4fv(color, 0);
     Set<Pt> corners = new HashSet<Pt>();
     for (Pt[] spot : spots) {
-      List<Pt> arc = Functions.getCircularArc(spot[0], spot[1], spot[2], spot[3], 6);
-      curve(arc);
+      if (isVisible(spot[3])) {
+        List<Pt> arc = Functions.getCircularArc(spot[0], spot[1], spot[2], spot[3], 6);
+        curve(arc);
+      }
       corners.add(spot[3]);
     }
     c.setDistanceSpots(corners.toArray(new Pt[0]));
@@ -416,15 +527,17 @@ public class SketchRenderer {
     Pt left = spots[RightAngleUserConstraint.SPOT_LEFT];
     Pt right = spots[RightAngleUserConstraint.SPOT_RIGHT];
     Pt ful = spots[RightAngleUserConstraint.SPOT_FULCRUM];
-    gl.glLineWidth(CONSTRAINT_LINE_THICKNESS);
-    gl.glColor4fv(color, 0);
-    gl.glBegin(GL.GL_LINE_STRIP);
-    {
-      gl.glVertex2f(left.fx(), left.fy());
-      gl.glVertex2f(ful.fx(), ful.fy());
-      gl.glVertex2f(right.fx(), right.fy());
+    if (isVisible(ful)) {
+      gl.glLineWidth(CONSTRAINT_LINE_THICKNESS);
+      gl.glColor4fv(color, 0);
+      gl.glBegin(GL.GL_LINE_STRIP);
+      {
+        gl.glVertex2f(left.fx(), left.fy());
+        gl.glVertex2f(ful.fx(), ful.fy());
+        gl.glVertex2f(right.fx(), right.fy());
+      }
+      gl.glEnd();
     }
-    gl.glEnd();
     c.setDistanceSpots(ful);
   }
 
@@ -472,8 +585,10 @@ public class SketchRenderer {
   private void renderUnanalyzed() {
     List<Ink> inkStrokes = model.getUnanalyzedInk();
     for (Ink ink : inkStrokes) {
-      List<Pt> points = ink.getSequence().getPoints();
-      renderScribble(points, false);
+      if (isVisible(ink.getBounds())) {
+        List<Pt> points = ink.getSequence().getPoints();
+        renderScribble(points, false);
+      }
     }
   }
 
@@ -513,54 +628,65 @@ public class SketchRenderer {
     float unlatchLength = 10 / z;
     float latchedVertSideLen = 5 / z;
     for (Segment seg : model.getGeometry()) {
-      if (model.getSelectedSegments().contains(seg)) {
-        gl.glLineWidth(6.3f);
-        gl.glColor3fv(SEGMENT_SELECTED_COLOR, 0);
-        renderSegment(seg);
-      } else {
-        gl.glLineWidth(3.8f); // ensure pen settings ok because render unlatched changes it
-        float[] color = black;
-        if (model.getEditor().isDebuggingVisual()) {
-          color = getDebuggingColor(seg.getType());
-        }
-        gl.glColor3fv(color, 0);
-        renderSegment(seg);
-        if (model.getEditor().isDebuggingVisual()) {
-          Pt mid = seg.getVisualMidpoint();
-          String label = seg.typeIdStr();
-          text(label, surface.getTextRenderer(12), mid.getTranslated(NORTH_WEST, 12 / z), black);
-          gl.glColor4fv(clearBlue, 0);
-          if (!seg.isClosed()) {
-          for (EndCap ec : seg.getEndCaps()) {
-            line(ec.lineSegment.getStart(), ec.lineSegment.getEnd());  
+      Rectangle2D bounds = getBounds(seg);
+      if (isVisible(bounds)) {
+        double size = Math.max(bounds.getWidth(), bounds.getHeight());
+        if (model.getSelectedSegments().contains(seg)) {
+          gl.glLineWidth(6.3f);
+          gl.glColor3fv(SEGMENT_SELECTED_COLOR, 0);
+          renderSegment(seg);
+        } else {
+          gl.glLineWidth(3.8f); // ensure pen settings ok because render unlatched changes it
+          float[] color = black;
+          if (model.getEditor().isDebuggingVisual()) {
+            color = getDebuggingColor(seg.getType());
           }
-          
+          gl.glColor3fv(color, 0);
+          renderSegment(seg);
+          if (model.getEditor().isDebuggingVisual() && isBigEnough(size, LOD_MIN_LABEL_PIXELS)) {
+            Pt mid = seg.getVisualMidpoint();
+            String label = seg.typeIdStr();
+            text(label, surface.getTextRenderer(12), mid.getTranslated(NORTH_WEST, 12 / z), black);
+            gl.glColor4fv(clearBlue, 0);
+            if (!seg.isClosed()) {
+            for (EndCap ec : seg.getEndCaps()) {
+              line(ec.lineSegment.getStart(), ec.lineSegment.getEnd());  
+            }
+            
+            }
           }
         }
-      }
 
-      // draw latchedness
-      //      if (!seg.isSingular()) {
-      if (!seg.isClosed()) {
-        if (!(model.findRelatedSegments(seg.getP1()).size() > 1)) {
-          notLatched.add(seg.getP1());
-          renderUnlatched(seg.getP1(), seg.getStartDir(), bloodRed, unlatchLength, 6f);
-        }
-        if (!(model.findRelatedSegments(seg.getP2()).size() > 1)) {
-          renderUnlatched(seg.getP2(), seg.getEndDir(), bloodRed, unlatchLength, 6f);
-          notLatched.add(seg.getP2());
+        // draw latchedness. tiny segments are still tracked as unlatched, but get no marker.
+        //      if (!seg.isSingular()) {
+        boolean decorate = isBigEnough(size, LOD_MIN_GLYPH_PIXELS);
+        if (!seg.isClosed()) {
+          if (!(model.findRelatedSegments(seg.getP1()).size() > 1)) {
+            notLatched.add(seg.getP1());
+            if (decorate) {
+              renderUnlatched(seg.getP1(), seg.getStartDir(), bloodRed, unlatchLength, 6f);
+            }
+          }
+          if (!(model.findRelatedSegments(seg.getP2()).size() > 1)) {
+            if (decorate) {
+              renderUnlatched(seg.getP2(), seg.getEndDir(), bloodRed, unlatchLength, 6f);
+            }
+            notLatched.add(seg.getP2());
+          }
         }
       }
     } // end big geometry for-loop.
 
     // render the latched points
     for (Pt pt : model.getConstraints().getPoints()) {
-      if (model.getEditor().isDebuggingVisual()) {
-        text(SketchBook.n(pt), surface.getTextRenderer(12), pt.getTranslated(SOUTH_EAST, 12 / z),
-            black);
-      }
-      if (!notLatched.contains(pt)) {
-        renderLatched(pt, LATCH_SPOT_COLOR, latchedVertSideLen, 1f);
+      if (isVisible(pt)) {
+        if (model.getEditor().isDebuggingVisual()) {
+          text(SketchBook.n(pt), surface.getTextRenderer(12), pt.getTranslated(SOUTH_EAST, 12 / z),
+              black);
+        }
+        if (!notLatched.contains(pt)) {
+          renderLatched(pt, LATCH_SPOT_COLOR, latchedVertSideLen, 1f);
+        }
       }
     }
   }
@@ -598,6 +724,7 @@ public class SketchRenderer {
   }
 
   private void renderSegment(Segment seg) {
+    List<Pt> points = getCurvePoints(seg);
     switch (seg.getType()) {
       case Line:
         line(seg.getP1(), seg.getP2());
@@ -605,17 +732,13 @@ public class SketchRenderer {
       case EllipticalArc:
       case Curve:
       case Blob:
-        curve(seg.asSpline().getPoints());
+      case CircularArc:
+      case Ellipse:
+        curve(points);
         break;
       case Circle:
         circle(seg.getCircle());
         break;
-      case CircularArc:
-        curve(seg.getPointList());
-        break;
-      case Ellipse:
-        curve(seg.getPointList());
-        break;
       case Dot:
         bug("Can't do " + seg.getType() + " yet.");
         break;
@@ -625,6 +748,27 @@ public class SketchRenderer {
     }
   }
 
+  /**
+   * Returns the polyline renderSegment() draws for curvy segment types, or null for lines, circles,
+   * dots and unknowns.
+   */
+  private List<Pt> getCurvePoints(Segment seg) {
+    List<Pt> ret = null;
+    switch (seg.getType()) {
+      case EllipticalArc:
+      case Curve:
+      case Blob:
+        ret = seg.asSpline().getPoints();
+        break;
+      case CircularArc:
+      case Ellipse:
+        ret = seg.getPointList();
+        break;
+      default:
+    }
+    return ret;
+  }
+
   private void renderLatched(Pt pt, float[] color, float side, float thick) {
     gl.glLineWidth(thick);
     gl.glColor3fv(color, 0);
@@ -761,8 +905,21 @@ public class SketchRenderer {
     gl.glPopMatrix();
   }
 
+  /**
+   * Number of sides to use for a circle of the given model radius. Without level of detail this is
+   * always 36. Otherwise it depends on the circumference on screen, so small circles use fewer.
+   */
+  private int getCircleSides(float r) {
+    int ret = 36;
+    if (levelOfDetail) {
+      float circumference = pixels(2 * Math.PI * r);
+      ret = Math.max(8, Math.min(36, (int) Math.ceil(circumference / LOD_PIXELS_PER_VERTEX)));
+    }
+    return ret;
+  }
+
   void fillDot(Pt pt, float r) {
-    int sides = 36; // this should depend on circumference. fewer size for small circles.
+    int sides = getCircleSides(r);
     float twoPi = 2 * (float) Math.PI;
     float step = twoPi / sides;
     float x = pt.fx(), y = pt.fy();
@@ -779,7 +936,7 @@ public class SketchRenderer {
   }
 
   void dot(Pt pt, float r) {
-    int sides = 36; // this should depend on circumference. fewer size for small circles.
+    int sides = getCircleSides(r);
     float twoPi = 2 * (float) Math.PI;
     float step = twoPi / sides;
     float x = pt.fx(), y = pt.fy();
@@ -800,11 +957,24 @@ public class SketchRenderer {
     dot(center, r);
   }
 
+  /**
+   * Draws a polyline. With level of detail on, vertices closer than LOD_PIXELS_PER_VERTEX on screen
+   * to the previously drawn one are skipped, so the resolution follows the segment's projected
+   * length. The endpoints are always drawn.
+   */
   void curve(List<Pt> points) {
+    float minSpacing = levelOfDetail ? (LOD_PIXELS_PER_VERTEX / zoom) : 0;
+    float minSpacingSq = minSpacing * minSpacing;
+    int last = points.size() - 1;
+    Pt prev = null;
     gl.glBegin(GL.GL_LINE_STRIP);
     {
-      for (Pt pt : points) {
-        gl.glVertex2f(pt.fx(), pt.fy());
+      for (int i = 0; i <= last; i++) {
+        Pt pt = points.get(i);
+        if ((prev == null) || (i == last) || (pt.distanceSq(prev) >= minSpacingSq)) {
+          gl.glVertex2f(pt.fx(), pt.fy());
+          prev = pt;
+        }
       }
     }
     gl.glEnd();
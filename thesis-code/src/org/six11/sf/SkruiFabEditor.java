@@ -172,6 +172,25 @@ public class SkruiFabEditor {
     bug("Starting file save task.");
   }
 
+  /**
+   * Creates an editor with no window, glass pane, or drawing surface, using the notebook in the
+   * given directory. Ink given to the model goes through the same corner finding, recognition,
+   * constraint analysis and stencil finding steps as it does interactively, so this is useful for
+   * replaying recorded sketches (see HeadlessReplay).
+   */
+  public SkruiFabEditor(File notebookDir) {
+    this.colors = new Colors();
+    model = new SketchBook(null, this, notebookDir);
+    model.getNotebook().loadFromDisk();
+  }
+
+  /**
+   * True if this editor was made without a window or drawing surface.
+   */
+  public boolean isHeadless() {
+    return surface == null;
+  }
+
   public JFrame getApplicationFrame() {
     return af;
   }
@@ -322,6 +341,9 @@ public class SkruiFabEditor {
     bug("+---------------------------------------------------------------------------------------+");
     bug("|-------------------------------------- ~ go ~ -----------------------------------------|");
     bug("+---------------------------------------------------------------------------------------+");
+    PipelineTimer timer = model.getPipelineTimer();
+    long goStart = timer.mark();
+    long t = timer.mark();
     List<Ink> unstruc = model.getUnanalyzedInk();
     Collection<Segment> segs = new HashSet<Segment>();
     if (unstruc.isEmpty()) {
@@ -332,7 +354,7 @@ public class SkruiFabEditor {
       for (Ink stroke : unstruc) {
         passed.clear();
         Segment guidedSeg = null;
-        for (Guide g : stroke.guides) {
+        for (Guide g : stroke.getGuideIndex().getCandidates(stroke)) {
           if (g.claims(stroke.seq, 0, stroke.seq.size() - 1)) {
             if (g instanceof GuidePoint) {
               g.adjust(stroke, 0, stroke.seq.size() - 1);
@@ -351,6 +373,7 @@ public class SkruiFabEditor {
       }
       unstruc.removeAll(passedInk);
     }
+    timer.record("guides", t);
     for (Ink stroke : unstruc) {
       Sequence seq = stroke.getSequence();
       List<Segment> seqSegs = (List<Segment>) seq.getAttribute(CornerFinder.SEGMENTS);
@@ -361,16 +384,24 @@ public class SkruiFabEditor {
     }
     removeHooks(segs);
     model.addSegments(segs);
+    t = timer.mark();
     Collection<RecognizedItem> items = model.getRecognizer().analyzeRecent();
     items = filterRecognizedItems(items);
     for (RecognizedItem item : items) {
       item.getTemplate().create(item, model);
     }
+    timer.record("recognizers", t);
+    t = timer.mark();
     model.getConstraintAnalyzer().analyze(segs, true);
+    timer.record("constraint analysis", t);
+    t = timer.mark();
     findStencils();
+    timer.record("stencils", t);
     model.getConstraints().wakeUp();
     model.clearInk();
-    surface.repaint();
+    if (surface != null) {
+      surface.repaint();
+    }
     model.getConstraints().wakeUp();
     model.getSnapshotMachine().requestSnapshot("End of 'go'");
     Set<Segment> after = new HashSet<Segment>(model.getGeometry());
@@ -378,6 +409,7 @@ public class SkruiFabEditor {
     for (Segment seg : after) { // inform the recognition listener what happened.
       model.somethingRecognized(getRecLisWhat(seg));
     }
+    timer.record("go", goStart);
     /* model.sanityCheck(); // keep this around! */
   }
 
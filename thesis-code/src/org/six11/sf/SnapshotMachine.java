@@ -7,6 +7,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -19,6 +24,23 @@ import org.six11.util.solve.VariableBank;
 
 public class SnapshotMachine {
 
+  private static final int DEBUG_QUEUE_SIZE = 16; // snapshots' worth of debug files allowed in flight
+
+  /**
+   * Writes the debug files for each snapshot so takeSnapshotImmediately() never waits on the disk.
+   * It is a single daemon thread shared by all pages. If it falls more than DEBUG_QUEUE_SIZE
+   * snapshots behind, debug files for newer snapshots are skipped rather than blocking.
+   */
+  private static final ThreadPoolExecutor debugFileWriter = new ThreadPoolExecutor(1, 1, 0L,
+      TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(DEBUG_QUEUE_SIZE),
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Snapshot Debug Writer");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
   private SketchBook model;
 
   /**
@@ -89,14 +111,7 @@ public class SnapshotMachine {
       reasons.clear();
       push(ret);
       if (rootDir != null) {
-        File snapFile = new File(rootDir, "snapshot-" + ret.getID() + ".txt");
-        File bugFile = new File(rootDir, "bug-snapshot-" + ret.getID() + ".txt");
-        try {
-          FileUtil.writeStringToFile(snapFile, ret.getJSONRoot().toString(2), false);
-          FileUtil.writeStringToFile(bugFile, model.getMondoDebugString(), false);
-        } catch (JSONException e) {
-          FileUtil.writeStringToFile(snapFile, "Unable to print json object!", false);
-        }
+        writeDebugFiles(ret, model.getMondoDebugString());
       }
     } else {
       bug("Warning: you are calling takeSnapshotImmediately() while snapshots are disabled.");
@@ -104,6 +119,30 @@ public class SnapshotMachine {
     return ret;
   }
 
+  /**
+   * Queues the snapshot's JSON and the model debug string to be written to the snapshot directory
+   * on the debug writer thread. The debug string is made by the caller because it reads the live
+   * model; the snapshot's JSON doesn't change after it is made, so it is formatted off-thread.
+   */
+  private void writeDebugFiles(final Snapshot snap, final String debugString) {
+    final File snapFile = new File(rootDir, "snapshot-" + snap.getID() + ".txt");
+    final File bugFile = new File(rootDir, "bug-snapshot-" + snap.getID() + ".txt");
+    try {
+      debugFileWriter.execute(new Runnable() {
+        public void run() {
+          try {
+            FileUtil.writeStringToFile(snapFile, snap.getJSONRoot().toString(2), false);
+          } catch (JSONException e) {
+            FileUtil.writeStringToFile(snapFile, "Unable to print json object!", false);
+          }
+          FileUtil.writeStringToFile(bugFile, debugString, false);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      bug("Debug file writer is behind. Not writing debug files for snapshot " + snap.getID());
+    }
+  }
+
   public int[] flushStaleDisplayLists() {
     Integer[] ids = staleDisplayLists.toArray(new Integer[0]);
     int[] ret = new int[ids.length];
@@ -121,7 +160,9 @@ public class SnapshotMachine {
   public void requestSnapshot(String reason) {
     reasons.add(reason);
     this.snapshotRequested = true;
-    model.getSurface().snapshot();
+    if (model.getSurface() != null) {
+      model.getSurface().snapshot();
+    }
   }
 
   public Snapshot get(int idx) {